@@ -0,0 +1,55 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ThreadPoolTaskExecutor whose queue capacity can be changed at runtime (pool sizes already can).
+ * The queue is allocated with the configured capacity (upper bound), and accepts tasks up to the current limit.
+ */
+public class AdaptiveThreadPoolTaskExecutor extends ThreadPoolTaskExecutor {
+
+    private volatile int queueLimit = Integer.MAX_VALUE;
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * @param queueLimit tasks waiting at most, up to the configured queue capacity. Tasks already queued are kept
+     */
+    public void setQueueLimit(int queueLimit) {
+        this.queueLimit = Math.max(0, queueLimit);
+    }
+
+    @Override
+    protected BlockingQueue<Runnable> createQueue(int queueCapacity) {
+        return new LimitedQueue(queueCapacity);
+    }
+
+    // Limit checked before offering: concurrent submits can go over it by a few tasks, never over the capacity
+    private class LimitedQueue extends LinkedBlockingQueue<Runnable> {
+
+        LimitedQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        public boolean offer(Runnable task) {
+            return size() < queueLimit && super.offer(task);
+        }
+
+        @Override
+        public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+            return size() < queueLimit && super.offer(task, timeout, unit);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Math.max(0, Math.min(super.remainingCapacity(), queueLimit - size()));
+        }
+    }
+}
@@ -1,40 +1,64 @@
 package com.github.manueldepaduanisdev.tripplanner.config;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.task.support.CompositeTaskDecorator;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 
 @Configuration
 @EnableAsync
+@EnableScheduling
 @Slf4j
 public class AsyncConfig {
 
+    @Bean
+    public QueueWaitTaskDecorator itineraryQueueWaitDecorator() {
+        return new QueueWaitTaskDecorator();
+    }
+
+    /**
+     * Starting sizes only: resized at runtime, within the configured bounds, by WorkerPoolTuningService
+     */
     @Bean(name = "itineraryTaskExecutor")
-    public Executor itineraryTaskExecutor() {
+    public AdaptiveThreadPoolTaskExecutor itineraryTaskExecutor(
+            QueueWaitTaskDecorator itineraryQueueWaitDecorator,
+            @Value("${app.worker.pool.initial-size:5}") int initialSize,
+            @Value("${app.worker.pool.queue-per-thread:20}") int queuePerThread,
+            @Value("${app.worker.pool.max-queue-capacity:1000}") int maxQueueCapacity
+    ) {
         log.info("Initializing Async ThreadPoolTaskExecutor 'itineraryTaskExecutor'...");
 
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        AdaptiveThreadPoolTaskExecutor executor = new AdaptiveThreadPoolTaskExecutor();
 
-        // So we can test pool easily
-        executor.setCorePoolSize(5);
+        // Core = max: threads are added by the tuner, not by a full queue
+        executor.setCorePoolSize(initialSize);
+        executor.setMaxPoolSize(initialSize);
 
-        // Handle backpressure and test pool easily
-        executor.setQueueCapacity(100);
+        // Handle backpressure: allocated for the largest queue, accepting tasks up to the current limit
+        executor.setQueueCapacity(maxQueueCapacity);
+        executor.setQueueLimit(Math.min(maxQueueCapacity, initialSize * queuePerThread));
 
-        // Backup threads
-        executor.setMaxPoolSize(5);
+        // Tasks run on the shard of the itinerary (bound by the submitter). Queue wait of every task, read by the tuner:
+        // applied last (outermost), so queued tasks are its own
+        executor.setTaskDecorator(new CompositeTaskDecorator(List.<TaskDecorator>of(ShardContext::wrap, itineraryQueueWaitDecorator)));
 
         // Threads pool name prefix to search inside logs
         executor.setThreadNamePrefix("ItineraryWorker-");
 
         // Log configuration parameters for debugging purposes
-        log.info("Executor configuration -> CorePoolSize: {}, MaxPoolSize: {}, QueueCapacity: {}, ThreadPrefix: '{}'",
+        log.info("Executor configuration -> CorePoolSize: {}, MaxPoolSize: {}, QueueLimit: {}/{}, ThreadPrefix: '{}'",
                 executor.getCorePoolSize(),
                 executor.getMaxPoolSize(),
+                executor.getQueueLimit(),
                 executor.getQueueCapacity(),
                 executor.getThreadNamePrefix());
 
@@ -43,4 +67,66 @@ public class AsyncConfig {
         log.info("Async ItineraryTaskExecutor initialized successfully.");
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * Scheduler of the @Scheduled jobs (outbox poll, write-behind flush, archive, pool tuning, replica heartbeat, purges).
+     * Declared here: Spring Boot doesn't create its own (single thread) once another TaskScheduler exists
+     */
+    @Bean(name = "taskScheduler")
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${app.scheduling.pool-size:4}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix("Scheduling-");
+
+        log.info("TaskScheduler initialized. Pool size: {}", poolSize);
+        return scheduler;
+    }
+
+    /**
+     * Dispatch of coalesced itinerary tasks at the end of their window: own thread, never delayed by a slow @Scheduled job
+     */
+    @Bean(name = "coalesceTaskScheduler")
+    public ThreadPoolTaskScheduler coalesceTaskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+
+        // A dispatch only submits the task to itineraryTaskExecutor
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("Coalesce-");
+
+        log.info("Coalesce TaskScheduler initialized.");
+        return scheduler;
+    }
+
+    @Bean(name = "geoImportExecutor")
+    public Executor geoImportExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+        // Imports are IO/DB bound and long: one at a time, a few waiting
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(10);
+        executor.setThreadNamePrefix("GeoImport-");
+
+        executor.initialize();
+
+        log.info("Async GeoImportExecutor initialized successfully.");
+        return executor;
+    }
+
+    @Bean(name = "outboxRelayExecutor")
+    public Executor outboxRelayExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+        // Drains are serialized anyway: one running, one waiting is enough (a waiting drain covers every later request)
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(1);
+        executor.setThreadNamePrefix("OutboxRelay-");
+
+        executor.initialize();
+
+        log.info("Async OutboxRelayExecutor initialized successfully.");
+        return executor;
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * One-off data migrations of the home shard (data.sql runs at every startup: only idempotent statements there).
+ * Each one is applied once, with its row in schema_migration in the same transaction.
+ * Other shards are created from the current entity model: no rows to migrate.
+ * Runs after Hibernate updated the schema (columns the migrations fill exist).
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@Slf4j
+public class DataMigrationInitializer implements InitializingBean {
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS schema_migration " +
+            "(id VARCHAR(100) PRIMARY KEY, applied_at TIMESTAMP NOT NULL)";
+    private static final String COUNT_APPLIED_SQL = "SELECT COUNT(*) FROM schema_migration WHERE id = ?";
+    private static final String RECORD_APPLIED_SQL = "INSERT INTO schema_migration (id, applied_at) VALUES (?, CURRENT_TIMESTAMP)";
+
+    // Applied in this order. Never edit one already released: add a new one
+    private static final List<Migration> MIGRATIONS = List.of(
+            // location_count of itineraries created before the column existed
+            new Migration("itinerary-location-count",
+                    "UPDATE itinerary i SET location_count = " +
+                            "(SELECT COUNT(*) FROM itinerary_location l WHERE l.itinerary_id = i.id)")
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public DataMigrationInitializer(ShardRouter shardRouter) {
+        DataSource dataSource = shardRouter.getShardDataSource(0);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        jdbcTemplate.execute(CREATE_TABLE_SQL);
+
+        for (Migration migration : MIGRATIONS) {
+            transactionTemplate.executeWithoutResult(tx -> apply(migration));
+        }
+    }
+
+    private void apply(Migration migration) {
+        Integer applied = jdbcTemplate.queryForObject(COUNT_APPLIED_SQL, Integer.class, migration.id());
+        if (applied != null && applied > 0) return;
+
+        int rows = jdbcTemplate.update(migration.sql());
+        jdbcTemplate.update(RECORD_APPLIED_SQL, migration.id());
+        log.info("Data migration {} applied. Rows updated: {}", migration.id(), rows);
+    }
+
+    private record Migration(String id, String sql) {
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.autoconfigure.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Primary (spring.datasource.*) plus optional read replicas (app.datasource.replicas.urls, same credentials)
+ * and optional shards (app.sharding.urls, same credentials): shard 0 is the primary, with its replicas.
+ * Without replicas and shards the primary is the application DataSource, as before.
+ */
+@Configuration
+@Slf4j
+public class DataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaRouter replicaRouter(
+            @Qualifier("primaryDataSource") DataSource primaryDataSource,
+            DataSourceProperties properties,
+            MeterRegistry meterRegistry,
+            @Value("${app.datasource.replicas.urls:}") List<String> replicaUrls,
+            @Value("${app.datasource.replicas.max-lag:PT5S}") Duration maxLag,
+            @Value("${app.datasource.replicas.pool-size:10}") int replicaPoolSize
+    ) {
+        // Map<lookup key, replica pool>
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+
+        for (String url : replicaUrls) {
+            if (url.isBlank()) continue;
+
+            String name = "replica-" + replicas.size();
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName(name);
+            replica.setJdbcUrl(url.trim());
+            replica.setDriverClassName(properties.determineDriverClassName());
+            replica.setUsername(properties.determineUsername());
+            replica.setPassword(properties.determinePassword());
+            replica.setMaximumPoolSize(replicaPoolSize);
+            replica.setReadOnly(true);
+
+            replicas.put(name, replica);
+        }
+
+        return new ReplicaRouter(primaryDataSource, replicas, meterRegistry, maxLag);
+    }
+
+    @Bean
+    public ShardRouter shardRouter(
+            @Qualifier("primaryDataSource") DataSource primaryDataSource,
+            DataSourceProperties properties,
+            MeterRegistry meterRegistry,
+            @Value("${app.sharding.urls:}") List<String> shardUrls,
+            @Value("${app.sharding.pool-size:10}") int shardPoolSize
+    ) {
+        // Shard 0 is the primary (home: reference data too), then one pool per url, in order
+        List<DataSource> shards = new ArrayList<>();
+        shards.add(primaryDataSource);
+
+        for (String url : shardUrls) {
+            if (url.isBlank()) continue;
+
+            HikariDataSource shard = new HikariDataSource();
+            shard.setPoolName("shard-" + shards.size());
+            shard.setJdbcUrl(url.trim());
+            shard.setDriverClassName(properties.determineDriverClassName());
+            shard.setUsername(properties.determineUsername());
+            shard.setPassword(properties.determinePassword());
+            shard.setMaximumPoolSize(shardPoolSize);
+
+            shards.add(shard);
+        }
+
+        return new ShardRouter(shards, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource, ReplicaRouter replicaRouter,
+                                 ShardRouter shardRouter) {
+        if (!replicaRouter.hasReplicas() && shardRouter.getShardCount() == 1) {
+            return primaryDataSource;
+        }
+
+        // Home shard: primary, read-only transactions on its replicas if any
+        DataSource home = primaryDataSource;
+        if (replicaRouter.hasReplicas()) {
+            Map<Object, Object> targets = new HashMap<>(replicaRouter.getReplicaDataSources());
+            targets.put(ReplicaRouter.PRIMARY, primaryDataSource);
+
+            ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(replicaRouter);
+            routing.setTargetDataSources(targets);
+            routing.setDefaultTargetDataSource(primaryDataSource);
+            routing.afterPropertiesSet();
+
+            log.info("Read-only transactions routed to replicas: {}", targets.keySet());
+            home = routing;
+        }
+
+        if (shardRouter.getShardCount() > 1) {
+            Map<Object, Object> shards = new HashMap<>();
+            shards.put(ShardRouter.HOME, home);
+            for (int shard = 1; shard < shardRouter.getShardCount(); shard++) {
+                shards.put(shard, shardRouter.getShardDataSource(shard));
+            }
+
+            ShardRoutingDataSource routing = new ShardRoutingDataSource(shardRouter);
+            routing.setTargetDataSources(shards);
+            routing.setDefaultTargetDataSource(home);
+            routing.afterPropertiesSet();
+
+            log.info("Itinerary storage sharded by session across {} databases.", shards.size());
+            home = routing;
+        }
+
+        // Connection taken at the first statement, once the transaction read-only flag (and shard) is known
+        return new LazyConnectionDataSourceProxy(home);
+    }
+}
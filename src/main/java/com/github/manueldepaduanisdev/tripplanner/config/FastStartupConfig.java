@@ -0,0 +1,46 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.util.List;
+
+/**
+ * Fast startup profile (application-fast.properties): beans not needed to serve itineraries are created
+ * at their first use instead of at startup. Everything else stays eager, so wiring errors still fail the boot.
+ * Evaluated at build time too with AOT (./mvnw -Pfast-startup package): the lazy flag is part of the generated code.
+ */
+@Configuration
+@Profile("fast")
+public class FastStartupConfig {
+
+    // OpenAPI docs and Swagger UI
+    private static final List<String> LAZY_PACKAGES = List.of("org.springdoc.");
+
+    // Static: bean factory post processor, registered before the other beans are created
+    @Bean
+    public static BeanFactoryPostProcessor lazyNonCriticalBeans() {
+        return beanFactory -> {
+            for (String name : beanFactory.getBeanDefinitionNames()) {
+                BeanDefinition definition = beanFactory.getBeanDefinition(name);
+                String source = sourceClassName(definition);
+
+                if (source != null && LAZY_PACKAGES.stream().anyMatch(source::startsWith)) {
+                    definition.setLazyInit(true);
+                }
+            }
+        };
+    }
+
+    // Class of the bean, or of the configuration declaring its @Bean method
+    private static String sourceClassName(BeanDefinition definition) {
+        if (definition instanceof AnnotatedBeanDefinition annotated && annotated.getFactoryMethodMetadata() != null) {
+            return annotated.getFactoryMethodMetadata().getDeclaringClassName();
+        }
+        return definition.getBeanClassName();
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time to first request: from JVM start to the end of the first request served.
+ * Startup benchmark (startup_benchmark.sh) and metric application.first-request.time, next to
+ * Spring Boot application.started.time / application.ready.time.
+ */
+@Component
+@Slf4j
+public class FirstRequestTimingFilter extends OncePerRequestFilter {
+
+    // -1 until the first request is served
+    private final AtomicLong firstRequestMs = new AtomicLong(-1);
+
+    public FirstRequestTimingFilter(MeterRegistry meterRegistry) {
+        TimeGauge.builder("application.first-request.time", firstRequestMs, TimeUnit.MILLISECONDS, AtomicLong::get)
+                .description("Time from JVM start to the first request served").register(meterRegistry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (firstRequestMs.get() < 0) {
+                long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+                if (firstRequestMs.compareAndSet(-1, uptime)) {
+                    log.info("First request served {} ms after JVM start: {} {} -> {}",
+                            uptime, request.getMethod(), request.getRequestURI(), response.getStatus());
+                }
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.server.ResponseStatusException;
@@ -33,6 +34,22 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status((HttpStatus.SERVICE_UNAVAILABLE)).body(error);
     }
 
+    // --- 409 CONFLICT (itinerary changed by someone else between read and write) ---
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    public ResponseEntity<ErrorDTO> handleOptimisticLock(ObjectOptimisticLockingFailureException ex, HttpServletRequest request) {
+        log.warn("Concurrent modification on {}: {}", request.getRequestURI(), ex.getMessage());
+
+        ErrorDTO error = ErrorDTO.builder()
+                .timestamp(LocalDateTime.now())
+                .path(request.getRequestURI())
+                .status(HttpStatus.CONFLICT.value()) // 409
+                .error("Conflict")
+                .message("The resource was modified by another request. Reload it and retry.")
+                .build();
+
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+    }
+
     // --- 404 NOT FOUND ---
     @ExceptionHandler(NoSuchElementException.class)
     public ResponseEntity<ErrorDTO> handleNotFound(NoSuchElementException ex, HttpServletRequest request) {
@@ -0,0 +1,58 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how long tasks wait in the executor queue (from submit to start).
+ * Outermost decorator of the executor: its queue holds TimedTasks, so the wait of tasks not started yet can be read too.
+ */
+public class QueueWaitTaskDecorator implements TaskDecorator {
+
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAdder startedTasks = new LongAdder();
+
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        return new TimedTask(runnable, System.nanoTime());
+    }
+
+    /**
+     * @return average queue wait (ms) of the tasks started since the previous call, 0 if none
+     */
+    public double drainAverageWaitMs() {
+        long tasks = startedTasks.sumThenReset();
+        long waitNanos = totalWaitNanos.sumThenReset();
+
+        return tasks == 0 ? 0 : waitNanos / 1_000_000.0 / tasks;
+    }
+
+    /**
+     * @param queue executor queue (FIFO)
+     * @return how long (ms) its first task has been waiting, 0 if it's empty.
+     * On a saturated pool no task starts: the wait keeps growing here only
+     */
+    public double oldestQueuedWaitMs(Queue<Runnable> queue) {
+        return queue.peek() instanceof TimedTask task ? (System.nanoTime() - task.submittedAt) / 1_000_000.0 : 0;
+    }
+
+    private final class TimedTask implements Runnable {
+
+        private final Runnable runnable;
+        private final long submittedAt;
+
+        private TimedTask(Runnable runnable, long submittedAt) {
+            this.runnable = runnable;
+            this.submittedAt = submittedAt;
+        }
+
+        @Override
+        public void run() {
+            totalWaitNanos.add(System.nanoTime() - submittedAt);
+            startedTasks.increment();
+            runnable.run();
+        }
+    }
+}
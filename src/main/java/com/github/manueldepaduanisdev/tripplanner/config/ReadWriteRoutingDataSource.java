@@ -0,0 +1,26 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Read-only transactions -> a replica chosen by ReplicaRouter (if any can serve them), everything else -> primary.
+ * Must be wrapped in a LazyConnectionDataSourceProxy: the connection has to be taken once the transaction
+ * is marked read-only, not when it begins.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    private final ReplicaRouter replicaRouter;
+
+    public ReadWriteRoutingDataSource(ReplicaRouter replicaRouter) {
+        this.replicaRouter = replicaRouter;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return ReplicaRouter.PRIMARY;
+        }
+        return replicaRouter.route(ReplicaRoutingContext.getSessionId());
+    }
+}
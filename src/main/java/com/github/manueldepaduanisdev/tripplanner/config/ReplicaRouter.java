@@ -0,0 +1,181 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses where read-only transactions run. The primary writes a heartbeat every heartbeat-interval,
+ * and each replica is as fresh as the heartbeat it returns:
+ * - replica lag over max-lag (or unreachable) -> not used until it catches up
+ * - session that wrote after the heartbeat a replica has -> not served by it (read-your-writes)
+ * No replica can serve a read -> primary.
+ */
+@Slf4j
+public class ReplicaRouter {
+
+    public static final String PRIMARY = "primary";
+
+    private static final String CREATE_HEARTBEAT_SQL =
+            "CREATE TABLE IF NOT EXISTS replication_heartbeat (id INT PRIMARY KEY, beat_at TIMESTAMP NOT NULL)";
+    private static final String WRITE_HEARTBEAT_SQL = "MERGE INTO replication_heartbeat (id, beat_at) KEY (id) VALUES (1, ?)";
+    private static final String READ_HEARTBEAT_SQL = "SELECT beat_at FROM replication_heartbeat WHERE id = 1";
+
+    private final JdbcTemplate primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final Map<String, DataSource> replicaDataSources;
+    private final Duration maxLag;
+
+    // Map<session ID, last write committed on primary>. Entries older than max-lag can't make a difference anymore
+    private final Map<String, LocalDateTime> lastWriteBySession = new ConcurrentHashMap<>();
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final Counter primaryReads;
+    private final Counter replicaReads;
+
+    public ReplicaRouter(DataSource primaryDataSource, Map<String, DataSource> replicaDataSources,
+                         MeterRegistry meterRegistry, Duration maxLag) {
+        this.primary = new JdbcTemplate(primaryDataSource);
+        this.maxLag = maxLag;
+        this.replicaDataSources = Map.copyOf(replicaDataSources);
+
+        replicaDataSources.forEach((name, dataSource) -> {
+            Replica replica = new Replica(name, new JdbcTemplate(dataSource));
+            replicas.add(replica);
+            Gauge.builder("datasource.replica.lag", replica, r -> r.lagMs)
+                    .tag("replica", name)
+                    .description("Replication lag (ms) at the last heartbeat, -1 if unreachable").register(meterRegistry);
+        });
+
+        this.primaryReads = Counter.builder("datasource.reads").tag("target", PRIMARY)
+                .description("Read-only transactions routed to the primary").register(meterRegistry);
+        this.replicaReads = Counter.builder("datasource.reads").tag("target", "replica")
+                .description("Read-only transactions routed to a replica").register(meterRegistry);
+
+        if (!replicas.isEmpty()) {
+            primary.execute(CREATE_HEARTBEAT_SQL);
+            heartbeat();
+        }
+
+        log.info("ReplicaRouter initialized. Replicas: {}, max lag: {}", replicaDataSources.keySet(), maxLag);
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    // Map<lookup key, replica pool>
+    public Map<String, DataSource> getReplicaDataSources() {
+        return replicaDataSources;
+    }
+
+    /**
+     * @param sessionId session of the read, null if unknown (no stickiness)
+     * @return lookup key of the data source to read from
+     */
+    public String route(@Nullable String sessionId) {
+        LocalDateTime lastWrite = sessionId == null ? null : lastWriteBySession.get(sessionId);
+
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), Math.max(size, 1));
+
+        // Round robin over the replicas that can serve it
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy && (lastWrite == null || !replica.replicatedUpTo.isBefore(lastWrite))) {
+                replicaReads.increment();
+                return replica.name;
+            }
+        }
+
+        primaryReads.increment();
+        return PRIMARY;
+    }
+
+    /**
+     * Reads of the session go to the primary until replicas have this write. Effective once committed
+     */
+    public void markWritten(@Nullable String sessionId) {
+        if (sessionId == null || replicas.isEmpty()) return;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    lastWriteBySession.put(sessionId, LocalDateTime.now());
+                }
+            });
+        } else {
+            lastWriteBySession.put(sessionId, LocalDateTime.now());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.datasource.replicas.heartbeat-interval:1000}")
+    public void heartbeat() {
+        if (replicas.isEmpty()) return;
+
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            primary.update(WRITE_HEARTBEAT_SQL, Timestamp.valueOf(now));
+        } catch (RuntimeException ex) {
+            log.warn("Replication heartbeat not written on primary.", ex);
+            return;
+        }
+
+        for (Replica replica : replicas) {
+            try {
+                Timestamp beatAt = replica.jdbcTemplate.queryForObject(READ_HEARTBEAT_SQL, Timestamp.class);
+                replica.replicatedUpTo = beatAt == null ? LocalDateTime.MIN : beatAt.toLocalDateTime();
+                replica.lagMs = Duration.between(replica.replicatedUpTo, LocalDateTime.now()).toMillis();
+            } catch (RuntimeException ex) {
+                replica.lagMs = -1;
+            }
+
+            boolean healthy = replica.lagMs >= 0 && replica.lagMs <= maxLag.toMillis();
+            if (healthy != replica.healthy) {
+                log.warn("Replica {} {} (lag: {} ms).", replica.name, healthy ? "back in use" : "out of use", replica.lagMs);
+            }
+            replica.healthy = healthy;
+        }
+
+        // Writes older than max-lag are on every replica in use
+        LocalDateTime expired = now.minus(maxLag);
+        lastWriteBySession.values().removeIf(lastWrite -> lastWrite.isBefore(expired));
+    }
+
+    // Replica pools are not beans: closed with the router (inferred destroy method)
+    public void close() throws Exception {
+        for (DataSource dataSource : replicaDataSources.values()) {
+            if (dataSource instanceof AutoCloseable closeable) closeable.close();
+        }
+    }
+
+    private static class Replica {
+        private final String name;
+        private final JdbcTemplate jdbcTemplate;
+        private volatile boolean healthy = false;
+        private volatile LocalDateTime replicatedUpTo = LocalDateTime.MIN;
+        private volatile long lagMs = -1;
+
+        Replica(String name, JdbcTemplate jdbcTemplate) {
+            this.name = name;
+            this.jdbcTemplate = jdbcTemplate;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import jakarta.annotation.Nullable;
+
+/**
+ * Session of the request being served on this thread: read-your-writes routing of read-only transactions,
+ * and shard of its transactions.
+ */
+public final class ReplicaRoutingContext {
+
+    private static final ThreadLocal<String> SESSION_ID = new ThreadLocal<>();
+
+    private ReplicaRoutingContext() {
+    }
+
+    public static void setSessionId(@Nullable String sessionId) {
+        if (sessionId == null || sessionId.isBlank()) {
+            SESSION_ID.remove();
+        } else {
+            SESSION_ID.set(sessionId);
+        }
+    }
+
+    @Nullable
+    public static String getSessionId() {
+        return SESSION_ID.get();
+    }
+
+    public static void clear() {
+        SESSION_ID.remove();
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Binds the X-Session-ID of the request to the thread serving it (ReplicaRoutingContext): replica and shard
+ * routing. Requests of a session being moved to another shard are refused (503, retry in a moment).
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ReplicaRoutingFilter extends OncePerRequestFilter {
+
+    private final ShardRouter shardRouter;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String sessionId = request.getHeader("X-Session-ID");
+        if (sessionId != null && sessionId.isBlank()) sessionId = null;
+
+        if (!shardRouter.enter(sessionId)) {
+            log.info("Session ID: {} is being moved to another shard. Request refused.", sessionId);
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Session is being moved, retry in a moment.");
+            return;
+        }
+
+        ReplicaRoutingContext.setSessionId(sessionId);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ReplicaRoutingContext.clear();
+            ShardContext.clear();
+            shardRouter.exit(sessionId);
+        }
+    }
+}
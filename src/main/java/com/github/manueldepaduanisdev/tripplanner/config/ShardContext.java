@@ -0,0 +1,95 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import jakarta.annotation.Nullable;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Shard the work on this thread runs on, when it's not the one of the request session (ReplicaRoutingContext):
+ * background jobs (one shard at a time), workers (shard of the task) and new sessions.
+ * Not bound and no session -> home shard.
+ */
+public final class ShardContext {
+
+    private static final ThreadLocal<Integer> SHARD = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    public static void set(@Nullable Integer shard) {
+        if (shard == null) {
+            SHARD.remove();
+        } else {
+            SHARD.set(shard);
+        }
+    }
+
+    @Nullable
+    public static Integer get() {
+        return SHARD.get();
+    }
+
+    public static void clear() {
+        SHARD.remove();
+    }
+
+    /**
+     * Run on the shard (null -> not bound), then back to the previous one
+     */
+    public static void runOn(@Nullable Integer shard, Runnable action) {
+        callOn(shard, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public static <T> T callOn(@Nullable Integer shard, Supplier<T> action) {
+        Integer previous = SHARD.get();
+        set(shard);
+        try {
+            return action.get();
+        } finally {
+            set(previous);
+        }
+    }
+
+    /**
+     * Bind the shard until the current transaction completes, then back to the previous one.
+     * For a shard known only inside the transaction (new session), before its first statement
+     * @throws IllegalStateException if no transaction is active
+     */
+    public static void bindForTransaction(@Nullable Integer shard) {
+        Integer previous = SHARD.get();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                set(previous);
+            }
+        });
+        set(shard);
+    }
+
+    /**
+     * Task running on the shard bound now, on whatever thread runs it. Also a TaskDecorator (ShardContext::wrap)
+     */
+    public static Runnable wrap(Runnable task) {
+        Integer shard = SHARD.get();
+        return () -> runOn(shard, task);
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Integer shard = SHARD.get();
+        return () -> {
+            Integer previous = SHARD.get();
+            set(shard);
+            try {
+                return task.call();
+            } finally {
+                set(previous);
+            }
+        };
+    }
+}
@@ -0,0 +1,253 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Session -> shard. Every itinerary access is scoped by session, so a session and everything it owns
+ * (guest session, itineraries, locations, outbox, archive, idempotency keys) live on one shard.
+ * Reference data (geo_data, import jobs) stays on the home shard (0).
+ * Owner shard by rendezvous hashing: adding a shard moves only the sessions it wins (~1/N), the others stay.
+ * Sessions not moved yet are routed where their data is (placements) until ShardRebalanceService moves them.
+ */
+@Slf4j
+public class ShardRouter {
+
+    public static final int HOME = 0;
+
+    // Shard pools by index (0 = spring.datasource). Shards are only appended: the index is part of the hash
+    private final List<DataSource> shards;
+
+    // Map<session ID, shard holding its data> for sessions whose data is not on their owner shard yet
+    private final Map<String, Integer> placements = new ConcurrentHashMap<>();
+
+    // Sessions being moved (requests refused) and requests running per session
+    private final Set<String> fenced = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    private final ExecutorService scatterThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<Counter> connections = new ArrayList<>();
+
+    public ShardRouter(List<DataSource> shards, MeterRegistry meterRegistry) {
+        this.shards = List.copyOf(shards);
+
+        for (int shard = 0; shard < shards.size(); shard++) {
+            connections.add(Counter.builder("datasource.shard.connections").tag("shard", String.valueOf(shard))
+                    .description("Connections (transactions) routed to the shard").register(meterRegistry));
+        }
+        Gauge.builder("datasource.shard.misplaced", placements, Map::size)
+                .description("Sessions not on their owner shard yet (to rebalance)").register(meterRegistry);
+
+        log.info("ShardRouter initialized. Shards: {}", shards.size());
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public DataSource getShardDataSource(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * @return shard that should hold the session, whatever the shard holding it now
+     */
+    public int ownerOf(String sessionId) {
+        if (shards.size() == 1) return HOME;
+
+        long sessionHash = fnv1a64(sessionId);
+        int owner = HOME;
+        long best = Long.MIN_VALUE;
+
+        // Rendezvous (highest random weight): highest score of (session, shard) wins
+        for (int shard = 0; shard < shards.size(); shard++) {
+            long score = mix64(sessionHash ^ mix64(shard + 1L));
+            if (score > best) {
+                best = score;
+                owner = shard;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * @return shard holding the session data now
+     */
+    public int shardOf(String sessionId) {
+        Integer placed = placements.get(sessionId);
+        return placed != null ? placed : ownerOf(sessionId);
+    }
+
+    /**
+     * Shard of the work on this thread: bound shard, else shard of the request session, else home
+     */
+    public int currentShard() {
+        Integer bound = ShardContext.get();
+        if (bound != null) return bound;
+
+        String sessionId = ReplicaRoutingContext.getSessionId();
+        return sessionId == null ? HOME : shardOf(sessionId);
+    }
+
+    // True if the work on this thread is bound to a shard (or a session): false -> lookups have to ask every shard
+    public boolean isRouted() {
+        return ShardContext.get() != null || ReplicaRoutingContext.getSessionId() != null;
+    }
+
+    // Called by the routing data source for every connection it hands out
+    int route() {
+        int shard = currentShard();
+        connections.get(shard).increment();
+        return shard;
+    }
+
+    // --- Runs on every shard ---
+
+    /**
+     * Action on each shard, one after the other, bound to it
+     */
+    public void forEachShard(IntConsumer action) {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            int current = shard;
+            ShardContext.runOn(current, () -> action.accept(current));
+        }
+    }
+
+    /**
+     * Scatter-gather: action on every shard at the same time (virtual threads, each bound to its shard)
+     * @return results in shard order (null results included)
+     */
+    public <T> List<T> scatter(IntFunction<T> action) {
+        if (shards.size() == 1) {
+            return Collections.singletonList(ShardContext.callOn(HOME, () -> action.apply(HOME)));
+        }
+
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            int current = shard;
+            futures.add(scatterThreads.submit(() -> ShardContext.callOn(current, () -> action.apply(current))));
+        }
+
+        List<T> results = new ArrayList<>(shards.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shards.", ex);
+        } catch (ExecutionException ex) {
+            futures.forEach(future -> future.cancel(true));
+            if (ex.getCause() instanceof RuntimeException cause) throw cause;
+            throw new IllegalStateException(ex.getCause());
+        }
+        return results;
+    }
+
+    // --- Rebalance: placements and fencing of the sessions being moved ---
+
+    // Session data found on a shard that is not its owner
+    public void place(String sessionId, int shard) {
+        if (shard == ownerOf(sessionId)) {
+            placements.remove(sessionId);
+        } else {
+            placements.put(sessionId, shard);
+        }
+    }
+
+    // Map<session ID, shard holding it> of the sessions to move
+    public Map<String, Integer> getPlacements() {
+        return Map.copyOf(placements);
+    }
+
+    /**
+     * Request of the session started. False -> the session is being moved: refuse the request
+     */
+    public boolean enter(@Nullable String sessionId) {
+        if (sessionId == null) return true;
+
+        // Counted inside compute: exit can't remove the entry between lookup and increment
+        inFlight.compute(sessionId, (id, count) -> {
+            AtomicInteger running = count == null ? new AtomicInteger() : count;
+            running.incrementAndGet();
+            return running;
+        });
+        if (fenced.contains(sessionId)) {
+            exit(sessionId);
+            return false;
+        }
+        return true;
+    }
+
+    public void exit(@Nullable String sessionId) {
+        if (sessionId == null) return;
+
+        inFlight.computeIfPresent(sessionId, (id, count) -> count.decrementAndGet() == 0 ? null : count);
+    }
+
+    /**
+     * Refuse new requests of the session and wait for the running ones
+     * @return false if some are still running after timeoutMs (not fenced)
+     */
+    public boolean fence(String sessionId, long timeoutMs) throws InterruptedException {
+        fenced.add(sessionId);
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (inFlight.containsKey(sessionId)) {
+            if (System.currentTimeMillis() >= deadline) {
+                fenced.remove(sessionId);
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    public void unfence(String sessionId) {
+        fenced.remove(sessionId);
+    }
+
+    // Shard pools are closed with the router (inferred destroy method). The home pool is a bean of its own
+    public void close() throws Exception {
+        scatterThreads.shutdownNow();
+        for (int shard = 1; shard < shards.size(); shard++) {
+            if (shards.get(shard) instanceof AutoCloseable closeable) closeable.close();
+        }
+    }
+
+    private static long fnv1a64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * Connection from the shard of the work on this thread (ShardRouter.currentShard).
+ * Must be wrapped in a LazyConnectionDataSourceProxy: a transaction of a new session is bound to its shard
+ * after it begins, before its first statement.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    private final ShardRouter shardRouter;
+
+    public ShardRoutingDataSource(ShardRouter shardRouter) {
+        this.shardRouter = shardRouter;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return shardRouter.route();
+    }
+}
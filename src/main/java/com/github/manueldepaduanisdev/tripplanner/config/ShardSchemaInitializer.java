@@ -0,0 +1,52 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.SchemaValidationException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Schema of the shards other than home (home schema is kept by spring.jpa.hibernate.ddl-auto):
+ * created from the entity model on an empty shard, validated on the others.
+ * A later model change has to be applied to every shard (validation fails and logs it).
+ */
+@Component
+@Slf4j
+public class ShardSchemaInitializer implements InitializingBean {
+
+    private static final String COUNT_ITINERARY_TABLE_SQL =
+            "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_NAME) = 'ITINERARY'";
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final ShardRouter shardRouter;
+
+    public ShardSchemaInitializer(EntityManagerFactory entityManagerFactory, ShardRouter shardRouter) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.shardRouter = shardRouter;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        for (int shard = 1; shard < shardRouter.getShardCount(); shard++) {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(shardRouter.getShardDataSource(shard));
+            Integer tables = jdbcTemplate.queryForObject(COUNT_ITINERARY_TABLE_SQL, Integer.class);
+
+            // Schema manager statements go through the application DataSource: bound to the shard
+            ShardContext.set(shard);
+            try {
+                if (tables == null || tables == 0) {
+                    entityManagerFactory.getSchemaManager().create(true);
+                    log.info("Shard {} schema created.", shard);
+                } else {
+                    entityManagerFactory.getSchemaManager().validate();
+                }
+            } catch (SchemaValidationException ex) {
+                log.warn("Shard {} schema doesn't match the entity model: {}", shard, ex.getMessage());
+            } finally {
+                ShardContext.clear();
+            }
+        }
+    }
+}
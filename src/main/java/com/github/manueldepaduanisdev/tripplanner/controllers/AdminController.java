@@ -0,0 +1,99 @@
+package com.github.manueldepaduanisdev.tripplanner.controllers;
+
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.ImportFormat;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoImportJobResponseDTO;
+import com.github.manueldepaduanisdev.tripplanner.mappers.GeoImportJobMapper;
+import com.github.manueldepaduanisdev.tripplanner.services.GeoDataCacheService;
+import com.github.manueldepaduanisdev.tripplanner.services.GeoImportService;
+import com.github.manueldepaduanisdev.tripplanner.services.ShardRebalanceService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operational endpoints (caches, maintenance jobs...)
+ */
+@RestController
+@RequestMapping("/api/admin")
+@RequiredArgsConstructor
+@Slf4j
+public class AdminController {
+
+    private final GeoDataCacheService geoDataCacheService;
+    private final GeoImportService geoImportService;
+    private final GeoImportJobMapper geoImportJobMapper;
+    private final ShardRebalanceService shardRebalanceService;
+
+    /**
+     * Reload GeoData cache, e.g. after the gazetteer was reimported
+     * Method: POST
+     * Url: /api/admin/geo-cache/reload
+     * @return number of GeoData cached
+     */
+    @PostMapping("/geo-cache/reload")
+    public ResponseEntity<Map<String, Object>> reloadGeoCache() {
+        log.info("Received GeoData cache reload request.");
+
+        int cached = geoDataCacheService.reload();
+
+        return ResponseEntity.ok(Map.of("geoDataCached", cached));
+    }
+
+    /**
+     * Start (or resume) a gazetteer import from a file of the import directory (app.geo-import.directory)
+     * Method: POST
+     * Url: /api/admin/geo-import?source=allCountries.txt&format=GEONAMES
+     * @return 202 Accepted and the import job
+     */
+    @PostMapping("/geo-import")
+    public ResponseEntity<GeoImportJobResponseDTO> startGeoImport(
+            @RequestParam String source,
+            @RequestParam(defaultValue = "CSV") ImportFormat format
+    ) {
+        log.info("Received GeoData import request. Source: [{}], Format: [{}]", source, format);
+
+        GeoImportJobResponseDTO response = geoImportJobMapper.toDTO(geoImportService.startImport(source, format));
+
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+    }
+
+    /**
+     * Progress of a gazetteer import
+     * Method: GET
+     * Url: /api/admin/geo-import/{id}
+     * @return import job
+     */
+    @GetMapping("/geo-import/{id}")
+    public ResponseEntity<GeoImportJobResponseDTO> getGeoImport(@PathVariable Long id) {
+        return ResponseEntity.ok(geoImportJobMapper.toDTO(geoImportService.getJob(id)));
+    }
+
+    /**
+     * Sessions and itineraries stored on every shard, sessions still to move to their owner shard
+     * Method: GET
+     * Url: /api/admin/shards
+     * @return status per shard
+     */
+    @GetMapping("/shards")
+    public ResponseEntity<List<Map<String, Object>>> getShards() {
+        return ResponseEntity.ok(shardRebalanceService.status());
+    }
+
+    /**
+     * Move sessions to their owner shard, e.g. after a shard was added
+     * Method: POST
+     * Url: /api/admin/shards/rebalance?limit=100
+     * @return sessions moved, skipped (in progress, retried by the next call) and still to move
+     */
+    @PostMapping("/shards/rebalance")
+    public ResponseEntity<ShardRebalanceService.RebalanceResult> rebalanceShards(@RequestParam(defaultValue = "100") int limit) {
+        log.info("Received shard rebalance request. Limit: {}", limit);
+
+        return ResponseEntity.ok(shardRebalanceService.rebalance(limit));
+    }
+}
@@ -1,13 +1,14 @@
 package com.github.manueldepaduanisdev.tripplanner.controllers;
 
-import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoDataResponseDTO;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoJsonResponse;
 import com.github.manueldepaduanisdev.tripplanner.services.GeoService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-
-import java.util.List;
+import org.springframework.web.context.request.WebRequest;
 
 @RestController
 @RequestMapping("/api/geo")
@@ -20,25 +21,37 @@ public class GeoController {
     private final GeoService _geoService;
 
     /**
-     * Search geo data with optional filters
+     * Search geo data with optional filters.
+     * The body is a pre-serialized JSON array (list of GeoDataResponseDTO) written as-is, with a strong ETag:
+     * a request with a matching If-None-Match gets 304 Not Modified and no body.
      * Method: GET
      * Url: /api/geo?country=Italy&region=Lazio&Province=Rome&City=Rome
      * @return ordered and filtered geo data list
      */
-    @GetMapping
-    public ResponseEntity<List<GeoDataResponseDTO>> getGeoData(
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getGeoData(
             @RequestParam(required = false) String country,
             @RequestParam(required = false) String region,
             @RequestParam(required = false) String province,
-            @RequestParam(required = false) String city
+            @RequestParam(required = false) String city,
+            WebRequest webRequest
     ) {
         log.info("Received GeoData search request. Filters - Country: [{}], Region: [{}], Province: [{}], City: [{}]",
                 country, region, province, city);
 
-        List<GeoDataResponseDTO> results = _geoService.searchGeoData(country, region, province, city);
+        GeoJsonResponse results = _geoService.searchGeoDataJson(country, region, province, city);
+
+        // Compares If-None-Match with the ETag
+        if (webRequest.checkNotModified(results.eTag())) {
+            log.info("GeoData search not modified. ETag: {}", results.eTag());
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(results.eTag()).build();
+        }
 
-        log.info("GeoData search completed. Found {} matching results.", results.size());
+        log.info("GeoData search completed. Found {} matching results.", results.count());
 
-        return ResponseEntity.ok(results);
+        return ResponseEntity.ok()
+                .eTag(results.eTag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(results.body());
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,10 @@
 package com.github.manueldepaduanisdev.tripplanner.controllers;
 
 import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryVersionRow;
 import com.github.manueldepaduanisdev.tripplanner.dto.request.ItineraryRequestDTO;
 import com.github.manueldepaduanisdev.tripplanner.dto.response.ItineraryResponseDTO;
+import com.github.manueldepaduanisdev.tripplanner.services.IdempotencyService;
 import com.github.manueldepaduanisdev.tripplanner.services.ItineraryService;
 import com.github.manueldepaduanisdev.tripplanner.services.ItineraryTaskManagerService;
 import jakarta.validation.Valid;
@@ -11,10 +13,13 @@ import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @RestController
@@ -26,18 +31,21 @@ public class ItineraryController {
 
     private ItineraryService itineraryService;
     private ItineraryTaskManagerService taskManagerService;
+    private IdempotencyService idempotencyService;
 
     /**
      *
      * @param itinerary body
      * @param sessionId optional session id
+     * @param idempotencyKey optional, client generated. Retries with the same key get the itinerary created by the first request
      * @return 202 Accepted and itinerary saved
      */
     @PostMapping
     public ResponseEntity<ItineraryResponseDTO> create(
             @RequestBody @Valid ItineraryRequestDTO itinerary,
             // Read from header the session id
-            @RequestHeader(value = "X-Session-ID", required = false) String sessionId
+            @RequestHeader(value = "X-Session-ID", required = false) String sessionId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey
     ) {
         log.info("Received request to create a new itinerary. Title: '{}', SessionID present: {}",
                 itinerary.getTitle(), (sessionId != null && !sessionId.isBlank()));
@@ -48,19 +56,38 @@ public class ItineraryController {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Error: Select just one current stop.");
         }
 
-        ItineraryResponseDTO response = itineraryService.createItinerary(itinerary, sessionId);
-        log.info("Itinerary created successfully with ID: {}. Assigned SessionID: {}", response.getId(), response.getSessionId());
+        ItineraryResponseDTO response;
+        boolean replayed = false;
 
-        // Start worker to process new itinerary (asynchronously)
-        taskManagerService.submitTask(response.getId());
-        log.info("Async processing task submitted for itinerary ID: {}", response.getId());
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            response = itineraryService.createItinerary(itinerary, sessionId);
+        } else {
+            if (idempotencyKey.length() > 255) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Idempotency-Key must be at most 255 characters.");
+            }
 
-        response.setEstimatedWaitSeconds(
-                taskManagerService.calculateTimeRemaining(response.getId(), response.getUpdatedAt())
+            String requestHash = idempotencyService.fingerprint(itinerary, sessionId);
+            IdempotencyService.Outcome<ItineraryResponseDTO> outcome = idempotencyService.execute(idempotencyKey, requestHash,
+                    () -> itineraryService.createItinerary(itinerary, sessionId, idempotencyKey, requestHash),
+                    // Retry: current state of the itinerary created by the first request
+                    record -> itineraryService.getById(record.getSessionId(), record.getItineraryId()));
+            response = outcome.value();
+            replayed = outcome.replayed();
+        }
+        log.info("Itinerary {} with ID: {}. Assigned SessionID: {}", replayed ? "already created" : "created successfully",
+                response.getId(), response.getSessionId());
+
+        // Worker (asynchronously) is started by the outbox relay, once the itinerary is committed
+        // Completed right away if its route was already computed (route cache)
+        response.setEstimatedWaitSeconds(isFinal(response.getStatus())
+                ? 0L
+                : taskManagerService.calculateTimeRemaining(response.getSessionId(), response.getId(), response.getUpdatedAt())
         );
         // Return again session id
         return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .eTag(itineraryETag(response.getVersion(), response.getStatus(), response.getProcessedStops(), response.getEstimatedWaitSeconds()))
                 .header("X-Session-ID", response.getSessionId())
+                .header("Idempotent-Replayed", String.valueOf(replayed))
                 .body(response);
     }
 
@@ -69,13 +96,15 @@ public class ItineraryController {
      * @param id itinerary
      * @param itinerary new itinerary body
      * @param sessionId session id
+     * @param ifMatch optional ETag of the version the client has modified -> 412 if it's not the current one anymore
      * @return itinerary updated
      */
     @PutMapping("/{id}")
     public ResponseEntity<ItineraryResponseDTO> update(
             @PathVariable @NotBlank String id,
             @RequestBody @Valid ItineraryRequestDTO itinerary,
-            @RequestHeader(value = "X-Session-ID", required = true) String sessionId
+            @RequestHeader(value = "X-Session-ID", required = true) String sessionId,
+            @RequestHeader(value = "If-Match", required = false) String ifMatch
     ) {
         log.info("Received request to update itinerary ID: {} for SessionID: {}", id, sessionId);
 
@@ -90,18 +119,18 @@ public class ItineraryController {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Error: Select just one current stop.");
         }
 
-        ItineraryResponseDTO response = itineraryService.updateItinerary(sessionId, id, itinerary);
+        ItineraryResponseDTO response = itineraryService.updateItinerary(sessionId, id, itinerary, expectedVersion(ifMatch));
         log.info("Itinerary ID: {} updated successfully. Status set to QUEUED.", id);
 
-        // Start worker to process new itinerary (asynchronously)
-        taskManagerService.submitTask(response.getId());
-        log.info("Async processing task re-submitted for itinerary ID: {}", response.getId());
-
-        response.setEstimatedWaitSeconds(
-                taskManagerService.calculateTimeRemaining(response.getId(), response.getUpdatedAt())
+        // Worker (asynchronously) is restarted by the outbox relay, once the update is committed
+        // Completed right away if its route was already computed (route cache)
+        response.setEstimatedWaitSeconds(isFinal(response.getStatus())
+                ? 0L
+                : taskManagerService.calculateTimeRemaining(response.getSessionId(), response.getId(), response.getUpdatedAt())
         );
         // Return again session id
         return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .eTag(itineraryETag(response.getVersion(), response.getStatus(), response.getProcessedStops(), response.getEstimatedWaitSeconds()))
                 .header("X-Session-ID", response.getSessionId())
                 .body(response);
     }
@@ -110,12 +139,14 @@ public class ItineraryController {
      * Update itinerary next stop
      * @param id itinerary id
      * @param sessionId session id
+     * @param ifMatch optional ETag of the version the client has modified -> 412 if it's not the current one anymore
      * @return itinerary updated
      */
     @PatchMapping("/{id}/next-stop")
     public ResponseEntity<ItineraryResponseDTO> updateNextStop(
             @PathVariable @NotBlank String id,
-            @RequestHeader(value = "X-Session-ID", required = true) String sessionId
+            @RequestHeader(value = "X-Session-ID", required = true) String sessionId,
+            @RequestHeader(value = "If-Match", required = false) String ifMatch
     ) {
         log.info("Received request to update next stop with itinerary ID: {} for SessionID: {}", id, sessionId);
 
@@ -124,23 +155,26 @@ public class ItineraryController {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Error: SessionId missing.");
         }
 
-        ItineraryResponseDTO response = itineraryService.updateNextStop(sessionId, id);
+        ItineraryResponseDTO response = itineraryService.updateNextStop(sessionId, id, expectedVersion(ifMatch));
         log.info("Itinerary ID: {} updated successfully. Status set to QUEUED.", id);
 
-        taskManagerService.submitTask(response.getId());
-        log.info("Async processing task re-submitted for itinerary ID: {}", response.getId());
-
-        response.setEstimatedWaitSeconds(
-                taskManagerService.calculateTimeRemaining(response.getId(), response.getUpdatedAt())
+        // Worker (asynchronously) is restarted by the outbox relay, once the update is committed
+        // Completed right away if its route was already computed (route cache)
+        response.setEstimatedWaitSeconds(isFinal(response.getStatus())
+                ? 0L
+                : taskManagerService.calculateTimeRemaining(response.getSessionId(), response.getId(), response.getUpdatedAt())
         );
         // Return again session id
         return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .eTag(itineraryETag(response.getVersion(), response.getStatus(), response.getProcessedStops(), response.getEstimatedWaitSeconds()))
                 .header("X-Session-ID", response.getSessionId())
                 .body(response);
     }
 
     /**
-     * Get the itinerary list filtered by status
+     * Get the itinerary list filtered by status.
+     * Response has an ETag built from the itineraries versions: with a matching If-None-Match -> 304, without loading locations.
+     * The ETag doesn't cover the estimated waits (one queue count each): they're refreshed with the next change of the list.
      * @param status status filter
      * @param sessionId session id
      * @return Itinerary list
@@ -148,7 +182,8 @@ public class ItineraryController {
     @GetMapping()
     public ResponseEntity<List<ItineraryResponseDTO>> get(
             @RequestParam(required = false) Status status,
-            @RequestHeader(value = "X-Session-ID", required = true) String sessionId
+            @RequestHeader(value = "X-Session-ID", required = true) String sessionId,
+            WebRequest webRequest
     ) {
         log.info("Fetching itinerary list for SessionID: {}. Filter Status: {}", sessionId, status);
 
@@ -157,26 +192,43 @@ public class ItineraryController {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Error: SessionId missing.");
         }
 
+        // Cheap versions lookup first, no other query: the ETag is built from the version rows only
+        StringBuilder listVersion = new StringBuilder();
+        for (ItineraryVersionRow version : itineraryService.getVersions(sessionId, status)) {
+            listVersion.append(version.id()).append(":v").append(version.version())
+                    .append('-').append(version.status())
+                    .append('-').append(version.processedStops())
+                    .append('-').append(version.updatedAt()).append(';');
+        }
+        String eTag = "\"" + DigestUtils.md5DigestAsHex(listVersion.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+
+        if (webRequest.checkNotModified(eTag)) {
+            log.info("Itinerary list for SessionID: {} not modified.", sessionId);
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .header("X-Session-ID", sessionId)
+                    .build();
+        }
+
         List<ItineraryResponseDTO> response = itineraryService.getList(sessionId, status);
 
-        response.forEach(itinerary -> {
-            var waitSeconds = 0L;
-            if(itinerary.getStatus() != Status.FAILED && itinerary.getStatus() != Status.COMPLETED) {
-                waitSeconds = taskManagerService.calculateTimeRemaining(itinerary.getId(), itinerary.getUpdatedAt());
-            }
-            itinerary.setEstimatedWaitSeconds(waitSeconds);
-        });
+        // Only for a list actually sent, and for itineraries still waiting
+        response.forEach(itinerary -> itinerary.setEstimatedWaitSeconds(isFinal(itinerary.getStatus())
+                ? 0L
+                : taskManagerService.calculateTimeRemaining(sessionId, itinerary.getId(), itinerary.getUpdatedAt())));
 
         log.info("Returning {} itineraries for SessionID: {}", response.size(), sessionId);
 
         // Return again session id
         return ResponseEntity.status(HttpStatus.OK)
+                .eTag(eTag)
                 .header("X-Session-ID", sessionId)
                 .body(response);
     }
 
     /**
-     * Get itinerary by id
+     * Get itinerary by id.
+     * Response has an ETag built from the itinerary version: with a matching If-None-Match -> 304, without loading locations.
      * @param id itinerary id
      * @param sessionId session id
      * @return itinerary detail
@@ -184,7 +236,8 @@ public class ItineraryController {
     @GetMapping("/{id}")
     public ResponseEntity<ItineraryResponseDTO> getById(
             @PathVariable @NotBlank String id,
-            @RequestHeader(value = "X-Session-ID", required = true) String sessionId
+            @RequestHeader(value = "X-Session-ID", required = true) String sessionId,
+            WebRequest webRequest
     ) {
         log.info("Fetching details for itinerary ID: {} and SessionID: {}", id, sessionId);
 
@@ -193,20 +246,61 @@ public class ItineraryController {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Error: SessionId missing.");
         }
 
-        ItineraryResponseDTO response = itineraryService.getById(sessionId, id);
+        ItineraryVersionRow version = itineraryService.getVersion(sessionId, id);
+        long waitSeconds = estimatedWaitSeconds(sessionId, version);
+        String eTag = itineraryETag(version.version(), version.status(), version.processedStops(), waitSeconds);
 
-        // If status is not failed or completed -> calculate time remaining. Else time remaining is 0
-        response.setEstimatedWaitSeconds(
-                (response.getStatus() != Status.FAILED && response.getStatus() != Status.COMPLETED)
-                        ? taskManagerService.calculateTimeRemaining(response.getId(), response.getUpdatedAt())
-                        : 0
-        );
+        if (webRequest.checkNotModified(eTag)) {
+            log.debug("Itinerary ID: {} not modified. ETag: {}", id, eTag);
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .header("X-Session-ID", sessionId)
+                    .build();
+        }
+
+        ItineraryResponseDTO response = itineraryService.getById(sessionId, id);
+        response.setEstimatedWaitSeconds(waitSeconds);
 
         log.debug("Itinerary details retrieved successfully for ID: {}", id);
 
         // Return again session id
         return ResponseEntity.status(HttpStatus.OK)
+                .eTag(eTag)
                 .header("X-Session-ID", response.getSessionId())
                 .body(response);
     }
-}
\ No newline at end of file
+
+    // If status is not failed or completed -> calculate time remaining. Else time remaining is 0
+    private long estimatedWaitSeconds(String sessionId, ItineraryVersionRow version) {
+        return isFinal(version.status())
+                ? 0L
+                : taskManagerService.calculateTimeRemaining(sessionId, version.id(), version.updatedAt());
+    }
+
+    private static boolean isFinal(Status status) {
+        return status == Status.FAILED || status == Status.COMPLETED;
+    }
+
+    // Version (user changes) + status (worker transitions) + progress (processed stops, and wait seconds change while the queue moves)
+    private static String itineraryETag(Long version, Status status, Integer processedStops, Long waitSeconds) {
+        return "\"v" + version + "-" + status + "-" + processedStops + "-" + waitSeconds + "\"";
+    }
+
+    // Version of an If-Match ETag ("v<version>-..."). No header or "*" -> no check
+    private static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) return null;
+
+        String eTag = ifMatch.trim();
+        if (eTag.startsWith("W/")) eTag = eTag.substring(2);
+        eTag = eTag.replace("\"", "");
+
+        int end = eTag.indexOf('-');
+        try {
+            if (!eTag.startsWith("v") || end < 0) throw new NumberFormatException(eTag);
+            return Long.parseLong(eTag.substring(1, end));
+        } catch (NumberFormatException ex) {
+            log.warn("Unrecognized If-Match header: {}", ifMatch);
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Error: If-Match doesn't match any itinerary version.");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.manueldepaduanisdev.tripplanner.domain;
+
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+import jakarta.persistence.*;
+import lombok.*;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+
+/**
+ * Finished itinerary moved out of itinerary / itinerary_location. Read-only.
+ * payload is the gzip of its rows (JSON array of ItineraryLocationRow). The other columns serve lookups and
+ * conditional GETs without reading it.
+ */
+@Entity
+@Table(name = "itinerary_archive", indexes = {
+        @Index(name = "idx_itinerary_archive_session_status", columnList = "session_id, status")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ArchivedItinerary implements Persistable<String> {
+    @Id
+    private String id;
+
+    @Column(name = "session_id", nullable = false)
+    private String sessionId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status;
+
+    @Column(name = "version", nullable = false)
+    private long version;
+
+    @Column(name = "processed_stops", nullable = false)
+    private int processedStops;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "archived_at", nullable = false)
+    private LocalDateTime archivedAt;
+
+    @Lob
+    @Column(nullable = false)
+    private byte[] payload;
+
+    // Inserted once, never merged
+    @Transient
+    @Builder.Default
+    private boolean newRecord = true;
+
+    @Override
+    public boolean isNew() {
+        return newRecord;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markPersisted() {
+        this.newRecord = false;
+    }
+}
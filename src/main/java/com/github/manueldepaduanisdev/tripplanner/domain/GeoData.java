@@ -4,7 +4,10 @@ import jakarta.persistence.*;
 import lombok.*;
 
 @Entity
-@Table(name = "geo_data")
+@Table(name = "geo_data", uniqueConstraints = {
+        // Natural key: a gazetteer re-import updates the rows already stored instead of duplicating them
+        @UniqueConstraint(name = "uk_geo_data_natural_key", columnNames = {"country", "region_key", "province_key", "city"})
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -30,4 +33,13 @@ public class GeoData {
 
     @Column(nullable = false)
     private Double longitude;
+
+    // region and province without NULLs (never equal to each other in a unique index), computed by the database
+    @Column(name = "region_key", insertable = false, updatable = false,
+            columnDefinition = "VARCHAR(255) GENERATED ALWAYS AS (COALESCE(region, ''))")
+    private String regionKey;
+
+    @Column(name = "province_key", insertable = false, updatable = false,
+            columnDefinition = "VARCHAR(255) GENERATED ALWAYS AS (COALESCE(province, ''))")
+    private String provinceKey;
 }
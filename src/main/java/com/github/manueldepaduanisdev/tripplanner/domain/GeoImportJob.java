@@ -0,0 +1,64 @@
+package com.github.manueldepaduanisdev.tripplanner.domain;
+
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.ImportFormat;
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.ImportStatus;
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Gazetteer import run. linesRead is the checkpoint: every line before it is already stored,
+ * so a restarted import skips them.
+ */
+@Entity
+@Table(name = "geo_import_job")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class GeoImportJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 1024)
+    private String source;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private ImportFormat format;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private ImportStatus status;
+
+    @Column(name = "lines_read", nullable = false)
+    private long linesRead;
+
+    @Column(name = "rows_imported", nullable = false)
+    private long rowsImported;
+
+    @Column(name = "rows_rejected", nullable = false)
+    private long rowsRejected;
+
+    @Column(name = "rows_duplicated", nullable = false)
+    private long rowsDuplicated;
+
+    @Column(name = "error_message", length = 1024)
+    private String errorMessage;
+
+    @CreationTimestamp
+    @Column(name = "started_at", nullable = false)
+    private LocalDateTime startedAt;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
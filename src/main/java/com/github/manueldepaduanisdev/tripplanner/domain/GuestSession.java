@@ -0,0 +1,35 @@
+package com.github.manueldepaduanisdev.tripplanner.domain;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Session of a guest user. Id is the X-Session-ID handed out at the first itinerary creation.
+ */
+@Entity
+@Table(name = "guest_session")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class GuestSession {
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id; // UUID
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "last_activity_at")
+    private LocalDateTime lastActivityAt;
+
+    @Column(name = "itinerary_count", nullable = false)
+    @ColumnDefault("0")
+    private int itineraryCount;
+}
@@ -0,0 +1,61 @@
+package com.github.manueldepaduanisdev.tripplanner.domain;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+
+/**
+ * Itinerary created for an Idempotency-Key, to answer retries of the same request with it.
+ * Always inserted (never merged): a key already used by another instance fails with a key violation.
+ */
+@Entity
+@Table(name = "idempotency_record", indexes = {
+        @Index(name = "idx_idempotency_record_created_at", columnList = "created_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class IdempotencyRecord implements Persistable<String> {
+    @Id
+    @Column(name = "idempotency_key", length = 255)
+    private String idempotencyKey;
+
+    // SHA-256 of the request (body and session): same key with another request is refused
+    @Column(name = "request_hash", length = 64, nullable = false)
+    private String requestHash;
+
+    @Column(name = "itinerary_id", nullable = false)
+    private String itineraryId;
+
+    @Column(name = "session_id", nullable = false)
+    private String sessionId;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Transient
+    @Builder.Default
+    private boolean newRecord = true;
+
+    @Override
+    public String getId() {
+        return idempotencyKey;
+    }
+
+    @Override
+    public boolean isNew() {
+        return newRecord;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markPersisted() {
+        this.newRecord = false;
+    }
+}
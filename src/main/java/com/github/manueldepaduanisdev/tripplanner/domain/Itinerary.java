@@ -3,6 +3,8 @@ package com.github.manueldepaduanisdev.tripplanner.domain;
 import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -11,7 +13,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "itinerary")
+@Table(name = "itinerary", indexes = {
+        // findBySessionIdAndStatus / session lookups
+        @Index(name = "idx_itinerary_session_status", columnList = "session_id, status"),
+        // countLocations -> queue position (active statuses ordered by update date)
+        @Index(name = "idx_itinerary_status_updated", columnList = "status, updated_at, created_at")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -33,12 +40,33 @@ public class Itinerary {
     private Status status;
 
     @CreationTimestamp
-    @Column(nullable = false)
+    @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt;
 
     @UpdateTimestamp
+    @Column(name = "updated_at")
     private LocalDateTime updatedAt;
 
+    // Denormalized size of itineraryLocations, so queue counts don't need to join locations
+    @Column(name = "location_count", nullable = false)
+    @ColumnDefault("0")
+    private int locationCount;
+
+    // Result of the processing (remaining route from the current stop). Null until COMPLETED
+    @Column(name = "route_distance_km")
+    private Double routeDistanceKm;
+
+    // Stops of the current version already processed. Written behind by the worker (ProgressWriteBehindService)
+    @Column(name = "processed_stops", nullable = false)
+    @ColumnDefault("0")
+    private int processedStops;
+
+    // Bumped by every user change (optimistic lock). Worker status transitions are compare-and-set on it, without bumping it
+    @Version
+    @Column(name = "version", nullable = false)
+    @ColumnDefault("0")
+    private long version;
+
     @OneToMany(mappedBy = "itinerary", cascade = CascadeType.ALL, orphanRemoval = true)
     @ToString.Exclude
     @Builder.Default
@@ -55,5 +83,21 @@ public class Itinerary {
             newLocations.forEach(loc -> loc.setItinerary(this));
             this.itineraryLocations.addAll(newLocations);
         }
+
+        this.locationCount = this.itineraryLocations.size();
+    }
+
+    /**
+     * Keep location_count aligned with the locations list, whatever path was used to fill it (builder, setter...).
+     * A not loaded collection can't have been changed, so it's skipped (and not loaded during flush).
+     */
+    @PrePersist
+    @PreUpdate
+    void syncLocationCount() {
+        if (this.itineraryLocations == null) {
+            this.locationCount = 0;
+        } else if (Hibernate.isInitialized(this.itineraryLocations)) {
+            this.locationCount = this.itineraryLocations.size();
+        }
     }
 }
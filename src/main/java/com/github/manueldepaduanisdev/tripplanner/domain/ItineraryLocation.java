@@ -5,7 +5,9 @@ import jakarta.persistence.*;
 import lombok.*;
 
 @Entity
-@Table(name = "itinerary_location")
+@Table(name = "itinerary_location", indexes = {
+        @Index(name = "idx_itinerary_location_itinerary", columnList = "itinerary_id, order_index")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -16,14 +18,16 @@ public class ItineraryLocation {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private long id;
 
-    @Column(nullable = false)
+    @Column(name = "order_index", nullable = false)
     private int orderIndex;
 
     @Column(nullable = false)
     private boolean currentStop = false;
 
-    @ManyToOne(fetch = FetchType.EAGER)
-    @JoinColumn(name = "geo_data_id", nullable = false)
+    // Reference data: served by GeoDataCacheService. Lives on the home shard only: no FK from the other shards
+    // (ids are checked against the geo cache when locations are created)
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "geo_data_id", nullable = false, foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private GeoData geoData;
 
     @ManyToOne
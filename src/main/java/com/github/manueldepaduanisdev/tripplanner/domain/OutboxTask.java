@@ -0,0 +1,36 @@
+package com.github.manueldepaduanisdev.tripplanner.domain;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Itinerary to process, written in the same transaction of the itinerary change.
+ * dispatchedAt null -> still to hand to the executor. The row is deleted once its task has ended.
+ */
+@Entity
+@Table(name = "outbox_task", indexes = {
+        @Index(name = "idx_outbox_task_dispatched", columnList = "dispatched_at, id")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboxTask {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "itinerary_id", nullable = false)
+    private String itineraryId;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "dispatched_at")
+    private LocalDateTime dispatchedAt;
+}
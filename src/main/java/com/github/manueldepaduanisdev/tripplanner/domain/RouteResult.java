@@ -0,0 +1,39 @@
+package com.github.manueldepaduanisdev.tripplanner.domain;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Processing result of a route, shared by every itinerary with the same stops (content-addressed).
+ * routeKey is the SHA-256 of the ordered geo ids, of the current stop position and of the geo dataset checksum:
+ * coordinates changed by an import give new keys, results of the old dataset are purged.
+ */
+@Entity
+@Table(name = "route_result")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RouteResult {
+    @Id
+    @Column(name = "route_key", length = 64)
+    private String routeKey;
+
+    @Column(name = "distance_km", nullable = false)
+    private double distanceKm;
+
+    @Column(name = "stop_count", nullable = false)
+    private int stopCount;
+
+    // GeoDataCacheService.checksum the route was computed with. Null on rows older than the column
+    @Column(name = "geo_checksum")
+    private Long geoChecksum;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,20 @@
+package com.github.manueldepaduanisdev.tripplanner.dto.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Gazetteer file formats supported by the GeoData import
+ */
+@Getter
+@AllArgsConstructor
+public enum ImportFormat {
+    // country,region,province,city,latitude,longitude (same columns as data.sql), optional header
+    CSV(','),
+    // Same columns as CSV, tab separated
+    TSV('\t'),
+    // GeoNames dump (e.g. allCountries.txt): tab separated, only populated places (feature class P) are imported
+    GEONAMES('\t');
+
+    private final char separator;
+}
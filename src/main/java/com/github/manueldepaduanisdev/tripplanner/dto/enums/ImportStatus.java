@@ -0,0 +1,12 @@
+package com.github.manueldepaduanisdev.tripplanner.dto.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum ImportStatus {
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,27 @@
+package com.github.manueldepaduanisdev.tripplanner.dto.projection;
+
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+
+import java.time.LocalDateTime;
+
+/**
+ * Flat read-only row: one itinerary location with its itinerary columns.
+ * Geo data is referenced by id only and resolved from GeoDataCacheService.
+ * Location columns are null for itineraries without locations (LEFT JOIN).
+ */
+public record ItineraryLocationRow(
+        String id,
+        String title,
+        Status status,
+        String sessionId,
+        LocalDateTime createdAt,
+        LocalDateTime updatedAt,
+        long version,
+        Double routeDistanceKm,
+        int processedStops,
+        Long locationId,
+        Integer orderIndex,
+        Boolean currentStop,
+        Long geoId
+) {
+}
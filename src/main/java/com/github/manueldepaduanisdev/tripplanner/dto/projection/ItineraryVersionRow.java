@@ -0,0 +1,19 @@
+package com.github.manueldepaduanisdev.tripplanner.dto.projection;
+
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+
+import java.time.LocalDateTime;
+
+/**
+ * Columns that change every time an itinerary changes: enough to tell if a client copy is still fresh.
+ * Version changes on user edits, status on worker transitions, processed stops while it's processed.
+ */
+public record ItineraryVersionRow(
+        String id,
+        long version,
+        Status status,
+        int processedStops,
+        LocalDateTime createdAt,
+        LocalDateTime updatedAt
+) {
+}
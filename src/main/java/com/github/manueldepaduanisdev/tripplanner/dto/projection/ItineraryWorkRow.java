@@ -0,0 +1,12 @@
+package com.github.manueldepaduanisdev.tripplanner.dto.projection;
+
+/**
+ * What the worker needs to process an itinerary: the version it's processing and its stops, one row per location.
+ * geoId and currentStop are null for itineraries without locations (LEFT JOIN).
+ */
+public record ItineraryWorkRow(
+        long version,
+        Long geoId,
+        Boolean currentStop
+) {
+}
@@ -0,0 +1,29 @@
+package com.github.manueldepaduanisdev.tripplanner.dto.response;
+
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.ImportFormat;
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.ImportStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GeoImportJobResponseDTO {
+    private Long id;
+    private String source;
+    private ImportFormat format;
+    private ImportStatus status;
+    private long linesRead;
+    private long rowsImported;
+    private long rowsRejected;
+    private long rowsDuplicated;
+    private String errorMessage;
+    private LocalDateTime startedAt;
+    private LocalDateTime updatedAt;
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,10 @@
+package com.github.manueldepaduanisdev.tripplanner.dto.response;
+
+/**
+ * Pre-serialized geo search result
+ * @param body UTF-8 JSON array of GeoDataResponseDTO
+ * @param eTag strong ETag of body
+ * @param count number of elements in body
+ */
+public record GeoJsonResponse(byte[] body, String eTag, int count) {
+}
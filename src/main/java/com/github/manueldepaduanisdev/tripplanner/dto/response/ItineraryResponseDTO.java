@@ -20,7 +20,10 @@ public class ItineraryResponseDTO {
     private String sessionId;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
+    private Long version;
     private Long estimatedWaitSeconds;
+    private Double routeDistanceKm;
+    private Integer processedStops;
 
     private List<LocationResponseDTO> itineraryLocations;
 
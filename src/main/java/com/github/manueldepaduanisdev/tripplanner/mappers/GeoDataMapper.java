@@ -3,11 +3,15 @@ package com.github.manueldepaduanisdev.tripplanner.mappers;
 import com.github.manueldepaduanisdev.tripplanner.domain.GeoData;
 import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoDataResponseDTO;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper(componentModel = "spring")
 public interface GeoDataMapper {
 
     GeoDataResponseDTO toDTO(GeoData entity);
 
+    // Natural key columns are computed by the database
+    @Mapping(target = "regionKey", ignore = true)
+    @Mapping(target = "provinceKey", ignore = true)
     GeoData toEntity(GeoDataResponseDTO dto);
 }
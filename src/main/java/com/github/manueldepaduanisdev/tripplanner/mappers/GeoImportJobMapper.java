@@ -0,0 +1,11 @@
+package com.github.manueldepaduanisdev.tripplanner.mappers;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.GeoImportJob;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoImportJobResponseDTO;
+import org.mapstruct.Mapper;
+
+@Mapper(componentModel = "spring")
+public interface GeoImportJobMapper {
+
+    GeoImportJobResponseDTO toDTO(GeoImportJob entity);
+}
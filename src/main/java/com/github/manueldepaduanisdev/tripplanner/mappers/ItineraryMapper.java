@@ -12,5 +12,7 @@ public interface ItineraryMapper {
 
     ItineraryResponseDTO toDTO(Itinerary entity);
 
+    // Kept in sync by the entity with its locations
+    @Mapping(target = "locationCount", ignore = true)
     Itinerary toEntity(ItineraryResponseDTO dto);
 }
@@ -0,0 +1,62 @@
+package com.github.manueldepaduanisdev.tripplanner.mappers;
+
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryLocationRow;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.ItineraryResponseDTO;
+import com.github.manueldepaduanisdev.tripplanner.services.GeoDataCacheService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assemble response DTOs from flat projection rows in a single pass, without hydrating entities.
+ * Rows of the same itinerary are expected next to each other and ordered by location order index.
+ */
+@Component
+@RequiredArgsConstructor
+public class ItineraryProjectionMapper {
+
+    private final GeoDataCacheService geoDataCacheService;
+
+    public List<ItineraryResponseDTO> toDTOs(List<ItineraryLocationRow> rows) {
+        // Map<Itinerary ID, DTO> keeping query order
+        Map<String, ItineraryResponseDTO> itineraries = new LinkedHashMap<>();
+
+        for (ItineraryLocationRow row : rows) {
+            ItineraryResponseDTO itinerary = itineraries.computeIfAbsent(row.id(), id -> toItineraryDTO(row));
+
+            if (row.locationId() != null) {
+                itinerary.getItineraryLocations().add(toLocationDTO(row));
+            }
+        }
+
+        return new ArrayList<>(itineraries.values());
+    }
+
+    private ItineraryResponseDTO toItineraryDTO(ItineraryLocationRow row) {
+        return ItineraryResponseDTO.builder()
+                .id(row.id())
+                .title(row.title())
+                .status(row.status())
+                .sessionId(row.sessionId())
+                .createdAt(row.createdAt())
+                .updatedAt(row.updatedAt())
+                .version(row.version())
+                .routeDistanceKm(row.routeDistanceKm())
+                .processedStops(row.processedStops())
+                .itineraryLocations(new ArrayList<>())
+                .build();
+    }
+
+    private ItineraryResponseDTO.LocationResponseDTO toLocationDTO(ItineraryLocationRow row) {
+        return ItineraryResponseDTO.LocationResponseDTO.builder()
+                .id(row.locationId())
+                .orderIndex(row.orderIndex())
+                .currentStop(Boolean.TRUE.equals(row.currentStop()))
+                .geoData(geoDataCacheService.getDTO(row.geoId()))
+                .build();
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.manueldepaduanisdev.tripplanner.repositories;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.ArchivedItinerary;
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryVersionRow;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ArchivedItineraryRepository extends JpaRepository<ArchivedItinerary, String> {
+
+    @Query("SELECT a FROM ArchivedItinerary a WHERE a.id = :id AND a.sessionId = :sessionId")
+    Optional<ArchivedItinerary> findByIdAndSessionId(@Param("sessionId") String sessionId, @Param("id") String id);
+
+    @Query("SELECT a FROM ArchivedItinerary a " +
+            "WHERE (:status is NULL OR a.status = :status) AND a.sessionId = :sessionId " +
+            "ORDER BY a.createdAt, a.id")
+    List<ArchivedItinerary> findBySessionIdAndStatus(@Param("sessionId") String sessionId, @Param("status") Status status);
+
+    // --- Versions only (payload not read), for conditional GETs ---
+
+    String VERSION_ROW_SELECT = "SELECT new com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryVersionRow(" +
+            "a.id, a.version, a.status, a.processedStops, a.createdAt, a.updatedAt) " +
+            "FROM ArchivedItinerary a ";
+
+    @Query(VERSION_ROW_SELECT + "WHERE a.id = :id AND a.sessionId = :sessionId")
+    Optional<ItineraryVersionRow> findVersionById(@Param("sessionId") String sessionId, @Param("id") String id);
+
+    @Query(VERSION_ROW_SELECT +
+            "WHERE (:status is NULL OR a.status = :status) AND a.sessionId = :sessionId " +
+            "ORDER BY a.createdAt, a.id")
+    List<ItineraryVersionRow> findVersionsBySessionIdAndStatus(@Param("sessionId") String sessionId, @Param("status") Status status);
+}
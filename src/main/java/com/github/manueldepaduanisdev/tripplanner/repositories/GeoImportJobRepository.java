@@ -0,0 +1,38 @@
+package com.github.manueldepaduanisdev.tripplanner.repositories;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.GeoImportJob;
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.ImportStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface GeoImportJobRepository extends JpaRepository<GeoImportJob, Long> {
+
+    Optional<GeoImportJob> findFirstBySourceAndStatusNotOrderByIdDesc(String source, ImportStatus status);
+
+    // Checkpoint, written in the same transaction of the rows it refers to
+    @Modifying
+    @Query("UPDATE GeoImportJob j SET j.linesRead = :linesRead, j.rowsImported = :rowsImported, " +
+            "j.rowsRejected = :rowsRejected, j.rowsDuplicated = :rowsDuplicated, j.updatedAt = :date " +
+            "WHERE j.id = :id")
+    int updateProgress(@Param("id") Long id,
+                       @Param("linesRead") long linesRead,
+                       @Param("rowsImported") long rowsImported,
+                       @Param("rowsRejected") long rowsRejected,
+                       @Param("rowsDuplicated") long rowsDuplicated,
+                       @Param("date") LocalDateTime date);
+
+    @Modifying
+    @Query("UPDATE GeoImportJob j SET j.status = :status, j.errorMessage = :errorMessage, " +
+            "j.finishedAt = :date, j.updatedAt = :date WHERE j.id = :id")
+    int finish(@Param("id") Long id,
+               @Param("status") ImportStatus status,
+               @Param("errorMessage") String errorMessage,
+               @Param("date") LocalDateTime date);
+}
@@ -0,0 +1,19 @@
+package com.github.manueldepaduanisdev.tripplanner.repositories;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.GuestSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface GuestSessionRepository extends JpaRepository<GuestSession, String> {
+
+    @Modifying
+    @Query("UPDATE GuestSession s SET s.itineraryCount = s.itineraryCount + 1, s.lastActivityAt = :date " +
+            "WHERE s.id = :sessionId")
+    int incrementItineraryCount(@Param("sessionId") String sessionId, @Param("date") LocalDateTime date);
+}
@@ -0,0 +1,27 @@
+package com.github.manueldepaduanisdev.tripplanner.repositories;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+    // Keys out of the retry window
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.createdAt < :date")
+    int deleteCreatedBefore(@Param("date") LocalDateTime date);
+
+    // Same key out of the retry window, not purged yet: free to use again
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.idempotencyKey = :key AND r.createdAt < :date")
+    int deleteExpired(@Param("key") String idempotencyKey, @Param("date") LocalDateTime date);
+}
@@ -3,19 +3,29 @@ package com.github.manueldepaduanisdev.tripplanner.repositories;
 
 import com.github.manueldepaduanisdev.tripplanner.domain.Itinerary;
 import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryLocationRow;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryVersionRow;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryWorkRow;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface ItineraryRepository extends JpaRepository<Itinerary, String> {
 
-@Query("SELECT COUNT(l) FROM Itinerary i JOIN i.itineraryLocations l " +
+    // Sum of the denormalized location_count: no join with itinerary_location, served by idx_itinerary_status_updated
+    @Query("SELECT COALESCE(SUM(i.locationCount), 0L) FROM Itinerary i " +
             "WHERE " +
             "(i.id = :itineraryId) " +
             "OR " +
@@ -25,11 +35,11 @@ public interface ItineraryRepository extends JpaRepository<Itinerary, String> {
     long countLocations(@Param("itineraryId") String itineraryId,
                            @Param("date") LocalDateTime date);
 
+    // GeoData not joined: it's on the home shard only, resolved from GeoDataCacheService by id
     @Query("SELECT DISTINCT i FROM Itinerary i " +
             "LEFT JOIN FETCH i.itineraryLocations loc " +
-            "LEFT JOIN FETCH loc.geoData " +
             "WHERE i.id = :id AND (:sessionId IS NULL OR i.sessionId = :sessionId)")
-    Optional<Itinerary> findByIdWithLocationsAndGeoData(@Param("sessionId") String sessionId, @Param("id") String id);
+    Optional<Itinerary> findByIdWithLocations(@Param("sessionId") String sessionId, @Param("id") String id);
 
     @Query("SELECT DISTINCT i FROM Itinerary i " +
             "LEFT JOIN FETCH i.itineraryLocations loc " +
@@ -37,9 +47,104 @@ public interface ItineraryRepository extends JpaRepository<Itinerary, String> {
             "WHERE (:status is NULL OR i.status = :status) AND i.sessionId = :sessionId")
     List<Itinerary> findBySessionIdAndStatus(@Param("sessionId") String sessionId, @Param("status") Status status);
 
-    @Query("SELECT DISTINCT i FROM Itinerary i " +
-            "LEFT JOIN FETCH i.itineraryLocations loc " +
-            "LEFT JOIN FETCH loc.geoData " +
-            "WHERE i.sessionId = :sessionId")
-    Optional<Itinerary> findFirstBySessionId(String sessionId);
+    // --- Read-only projections: flat rows straight into DTOs, no managed entities ---
+
+    String LOCATION_ROW_SELECT = "SELECT new com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryLocationRow(" +
+            "i.id, i.title, i.status, i.sessionId, i.createdAt, i.updatedAt, i.version, i.routeDistanceKm, i.processedStops, " +
+            "loc.id, loc.orderIndex, loc.currentStop, loc.geoData.id) " +
+            "FROM Itinerary i " +
+            "LEFT JOIN i.itineraryLocations loc ";
+
+    @Query(LOCATION_ROW_SELECT +
+            "WHERE i.id = :id AND i.sessionId = :sessionId " +
+            "ORDER BY loc.orderIndex")
+    List<ItineraryLocationRow> findRowsById(@Param("sessionId") String sessionId, @Param("id") String id);
+
+    @Query(LOCATION_ROW_SELECT +
+            "WHERE (:status is NULL OR i.status = :status) AND i.sessionId = :sessionId " +
+            "ORDER BY i.createdAt, i.id, loc.orderIndex")
+    List<ItineraryLocationRow> findRowsBySessionIdAndStatus(@Param("sessionId") String sessionId, @Param("status") Status status);
+
+    // --- Versions only (no locations), for conditional GETs ---
+
+    String VERSION_ROW_SELECT = "SELECT new com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryVersionRow(" +
+            "i.id, i.version, i.status, i.processedStops, i.createdAt, i.updatedAt) " +
+            "FROM Itinerary i ";
+
+    @Query(VERSION_ROW_SELECT + "WHERE i.id = :id AND i.sessionId = :sessionId")
+    Optional<ItineraryVersionRow> findVersionById(@Param("sessionId") String sessionId, @Param("id") String id);
+
+    @Query(VERSION_ROW_SELECT +
+            "WHERE (:status is NULL OR i.status = :status) AND i.sessionId = :sessionId " +
+            "ORDER BY i.createdAt, i.id")
+    List<ItineraryVersionRow> findVersionsBySessionIdAndStatus(@Param("sessionId") String sessionId, @Param("status") Status status);
+
+    // --- Worker: one read of the stops to process, then status transitions ---
+
+    @Query("SELECT new com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryWorkRow(i.version, loc.geoData.id, loc.currentStop) " +
+            "FROM Itinerary i " +
+            "LEFT JOIN i.itineraryLocations loc " +
+            "WHERE i.id = :id " +
+            "ORDER BY loc.orderIndex")
+    List<ItineraryWorkRow> findWorkRowsById(@Param("id") String id);
+
+    // Worker checkpoint: has the itinerary been changed since the version it's processing?
+    @Query("SELECT i.version FROM Itinerary i WHERE i.id = :id")
+    Optional<Long> findCurrentVersion(@Param("id") String id);
+
+    // --- Worker status transitions: compare-and-set on version, no row lock ---
+
+    // Move from expected status only if the itinerary is still the version the worker has read.
+    // 0 -> a user changed it in the meantime, or another delivery of the same task already moved it
+    @Transactional
+    @Modifying
+    @Query("UPDATE Itinerary i SET i.status = :status, i.updatedAt = :date " +
+            "WHERE i.id = :id AND i.version = :version AND i.status = :expectedStatus")
+    int transitionStatus(@Param("id") String id,
+                         @Param("version") long version,
+                         @Param("expectedStatus") Status expectedStatus,
+                         @Param("status") Status status,
+                         @Param("date") LocalDateTime date);
+
+    // COMPLETED with its route, same compare-and-set of transitionStatus
+    @Transactional
+    @Modifying
+    @Query("UPDATE Itinerary i SET i.status = 'COMPLETED', i.routeDistanceKm = :distanceKm, i.processedStops = i.locationCount, i.updatedAt = :date " +
+            "WHERE i.id = :id AND i.version = :version AND i.status = :expectedStatus")
+    int completeWithRoute(@Param("id") String id,
+                          @Param("version") long version,
+                          @Param("expectedStatus") Status expectedStatus,
+                          @Param("distanceKm") double distanceKm,
+                          @Param("date") LocalDateTime date);
+
+    // --- Archival of finished itineraries ---
+
+    // Finished before the date, oldest first. Locked until the archiving transaction ends: a concurrent edit waits, then fails
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT i.id FROM Itinerary i " +
+            "WHERE (i.status = 'COMPLETED' OR i.status = 'FAILED') " +
+            "AND ((i.updatedAt IS NULL AND i.createdAt < :date) OR (i.updatedAt IS NOT NULL AND i.updatedAt < :date)) " +
+            "ORDER BY i.updatedAt")
+    List<String> findArchivableIds(@Param("date") LocalDateTime date, Limit limit);
+
+    @Query(LOCATION_ROW_SELECT +
+            "WHERE i.id IN :ids " +
+            "ORDER BY i.id, loc.orderIndex")
+    List<ItineraryLocationRow> findRowsByIds(@Param("ids") Collection<String> ids);
+
+    @Modifying
+    @Query("DELETE FROM ItineraryLocation l WHERE l.itinerary.id IN :ids")
+    int deleteLocationsByItineraryIds(@Param("ids") Collection<String> ids);
+
+    @Modifying
+    @Query("DELETE FROM Itinerary i WHERE i.id IN :ids")
+    int deleteByIds(@Param("ids") Collection<String> ids);
+
+    // --- Recovery of itineraries left by a stopped application ---
+
+    // Processing interrupted by a shutdown: back to the queue, whatever the version
+    @Transactional
+    @Modifying
+    @Query("UPDATE Itinerary i SET i.status = 'QUEUED', i.updatedAt = :date WHERE i.status = 'PROCESSING'")
+    int requeueProcessing(@Param("date") LocalDateTime date);
 }
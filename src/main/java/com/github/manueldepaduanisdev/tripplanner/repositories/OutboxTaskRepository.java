@@ -0,0 +1,45 @@
+package com.github.manueldepaduanisdev.tripplanner.repositories;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.OutboxTask;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboxTaskRepository extends JpaRepository<OutboxTask, Long> {
+
+    // Oldest tasks not handed to the executor yet
+    List<OutboxTask> findByDispatchedAtIsNullOrderByIdAsc(Limit limit);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxTask t SET t.dispatchedAt = :date WHERE t.id = :id")
+    int markDispatched(@Param("id") Long id, @Param("date") LocalDateTime date);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxTask t SET t.dispatchedAt = NULL WHERE t.id = :id")
+    int releaseDispatched(@Param("id") Long id);
+
+    // Tasks dispatched by a previous run of the application: its executor queue is gone
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxTask t SET t.dispatchedAt = NULL WHERE t.dispatchedAt IS NOT NULL")
+    int resetDispatched();
+
+    // Itineraries waiting for processing without a task (written before the outbox, or by a crash before it existed)
+    @Transactional
+    @Modifying
+    @Query("INSERT INTO OutboxTask (itineraryId, createdAt) " +
+            "SELECT i.id, :date FROM Itinerary i " +
+            "WHERE (i.status = 'QUEUED' OR i.status = 'PROCESSING') " +
+            "AND NOT EXISTS (SELECT t.id FROM OutboxTask t WHERE t.itineraryId = i.id)")
+    int enqueueOrphans(@Param("date") LocalDateTime date);
+}
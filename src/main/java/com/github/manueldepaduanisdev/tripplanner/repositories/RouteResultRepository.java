@@ -0,0 +1,19 @@
+package com.github.manueldepaduanisdev.tripplanner.repositories;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.RouteResult;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface RouteResultRepository extends JpaRepository<RouteResult, String> {
+
+    // Results computed on another geo dataset: their keys are never looked up again
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM RouteResult r WHERE r.geoChecksum IS NULL OR r.geoChecksum <> :geoChecksum")
+    int deleteOtherDatasets(@Param("geoChecksum") long geoChecksum);
+}
@@ -0,0 +1,246 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardContext;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
+import com.github.manueldepaduanisdev.tripplanner.domain.GeoData;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoDataResponseDTO;
+import com.github.manueldepaduanisdev.tripplanner.mappers.GeoDataMapper;
+import com.github.manueldepaduanisdev.tripplanner.repositories.GeoDataRepository;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Read-mostly cache of GeoData reference data.
+ * Holds an immutable columnar GeoSnapshot, swapped as a whole on reload, so reads need no lock and no SQL.
+ * Entities and DTOs are materialized only when asked for (HTTP boundary, new itinerary locations).
+ * At startup the data comes from the binary geo snapshot when it's still aligned with DB (row count, max id, content checksum).
+ * geo_data is on the home shard only: queries run there, in their own transaction (callers may be in one on a session shard).
+ */
+@Service
+@Slf4j
+public class GeoDataCacheService {
+
+    private final GeoDataRepository geoDataRepository;
+    private final GeoDataMapper geoDataMapper;
+    private final TransactionTemplate homeTransaction;
+    private final Path snapshotPath;
+
+    private volatile GeoSnapshot store;
+
+    public GeoDataCacheService(
+            GeoDataRepository geoDataRepository,
+            GeoDataMapper geoDataMapper,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.geo-snapshot.path}") String snapshotPath
+    ) {
+        this.geoDataRepository = geoDataRepository;
+        this.geoDataMapper = geoDataMapper;
+        this.snapshotPath = Path.of(snapshotPath);
+
+        this.homeTransaction = new TransactionTemplate(transactionManager);
+        this.homeTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.homeTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Load the cache once the application (and data.sql) is ready: from snapshot if fresh, from DB otherwise.
+     * First of the ready listeners: the warm-up searches it
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public synchronized void onApplicationReady() {
+        long start = System.currentTimeMillis();
+
+        GeoSnapshot snapshot = readSnapshot();
+
+        if (snapshot != null && onHomeShard(() -> snapshot.matches(geoDataRepository.count(), geoDataRepository.findMaxId(),
+                geoDataRepository.checksum()))) {
+            this.store = snapshot;
+            log.info("GeoData cache loaded from snapshot {}. Cached {} GeoData in {} ms.",
+                    snapshotPath, snapshot.size(), System.currentTimeMillis() - start);
+            return;
+        }
+
+        log.info("GeoData snapshot {} missing or stale. Rebuilding it from DB.", snapshotPath);
+        reload();
+    }
+
+    /**
+     * Rebuild the cache (and the snapshot) from DB. To call every time the gazetteer changes.
+     * @return number of GeoData cached
+     */
+    public synchronized int reload() {
+        long start = System.currentTimeMillis();
+
+        // Checksum read first: a row changed meanwhile makes the snapshot stale (rebuilt), never wrongly fresh
+        GeoSnapshot snapshot = onHomeShard(() -> {
+            long checksum = geoDataRepository.checksum();
+            return GeoSnapshot.build(geoDataRepository.findAll(), checksum);
+        });
+        writeSnapshot(snapshot);
+
+        this.store = snapshot;
+
+        log.info("GeoData cache reloaded. Cached {} GeoData in {} ms.", snapshot.size(), System.currentTimeMillis() - start);
+        return snapshot.size();
+    }
+
+    /**
+     * @return content checksum of the cached dataset: changes with every reload that changed a row
+     */
+    public long checksum() {
+        return getStore().checksum();
+    }
+
+    /**
+     * @param ids GeoData ids
+     * @return Map<ID, GeoData> with the ids found, missing ones are not in the map. Entities are detached.
+     * Ids not cached yet (gazetteer changed without reload) are read from DB.
+     */
+    public Map<Long, GeoData> findAllById(Collection<Long> ids) {
+        GeoSnapshot current = getStore();
+        Map<Long, GeoData> found = new HashMap<>();
+        Set<Long> missing = new HashSet<>();
+
+        for (Long id : ids) {
+            int position = id == null ? -1 : current.positionOf(id);
+            if (position >= 0) {
+                found.putIfAbsent(id, current.toEntity(position));
+            } else if (id != null) {
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            log.warn("GeoData IDs: {} not found in cache. Falling back to DB.", missing);
+            onHomeShard(() -> geoDataRepository.findAllById(missing)).forEach(geoData -> found.put(geoData.getId(), geoData));
+        }
+
+        return found;
+    }
+
+    /**
+     * @param id GeoData id
+     * @return DTO built from cache. If the id is not cached yet (gazetteer changed without reload) it's read from DB.
+     */
+    @Nullable
+    public GeoDataResponseDTO getDTO(@Nullable Long id) {
+        if (id == null) return null;
+
+        GeoSnapshot current = getStore();
+        int position = current.positionOf(id);
+        if (position >= 0) return current.toDTO(position);
+
+        log.warn("GeoData ID: {} not found in cache. Falling back to DB.", id);
+        return onHomeShard(() -> geoDataRepository.findById(id)
+                .map(geoDataMapper::toDTO)
+                .orElse(null));
+    }
+
+    /**
+     * Case-insensitive "contains" search on country, region, province and city, served from memory
+     * @return an ascending ordered and filtered list of geo data
+     */
+    public List<GeoDataResponseDTO> search(@Nullable String country, @Nullable String region,
+                                           @Nullable String province, @Nullable String city) {
+        GeoSnapshot current = getStore();
+
+        return Arrays.stream(current.search(country, region, province, city))
+                .mapToObj(current::toDTO)
+                .toList();
+    }
+
+    /**
+     * @param count max rows
+     * @return first rows in country, region, province, city order (e.g. synthetic requests of the warm-up)
+     */
+    public List<GeoDataResponseDTO> sample(int count) {
+        GeoSnapshot current = getStore();
+        List<GeoDataResponseDTO> sample = new ArrayList<>();
+
+        for (int rank = 0; rank < Math.min(count, current.size()); rank++) {
+            sample.add(current.toDTO(current.sortedPosition(rank)));
+        }
+        return sample;
+    }
+
+    /**
+     * Same search, already encoded as a JSON array
+     * @return result body and the store it was built from, so callers can tell when it's outdated
+     */
+    public GeoJsonSearch searchJson(@Nullable String country, @Nullable String region,
+                                    @Nullable String province, @Nullable String city) {
+        GeoSnapshot current = getStore();
+        int[] positions = current.search(country, region, province, city);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(positions.length * 128 + 2);
+        body.write('[');
+        for (int i = 0; i < positions.length; i++) {
+            if (i > 0) body.write(',');
+            body.writeBytes(current.toJson(positions[i]));
+        }
+        body.write(']');
+
+        return new GeoJsonSearch(current, body.toByteArray(), positions.length);
+    }
+
+    /**
+     * @return true if the search was built from the store currently in use
+     */
+    public boolean isCurrent(GeoJsonSearch search) {
+        return search.store() == this.store;
+    }
+
+    private GeoSnapshot getStore() {
+        GeoSnapshot current = this.store;
+        if (current == null) {
+            // Accessed before ApplicationReadyEvent
+            onApplicationReady();
+            current = this.store;
+        }
+        return current;
+    }
+
+    // Own transaction bound to the home shard, whatever the transaction (and shard) of the caller
+    private <T> T onHomeShard(Supplier<T> query) {
+        return ShardContext.callOn(ShardRouter.HOME, () -> homeTransaction.execute(status -> query.get()));
+    }
+
+    @Nullable
+    private GeoSnapshot readSnapshot() {
+        try {
+            return GeoSnapshot.read(snapshotPath);
+        } catch (IOException ex) {
+            log.warn("Unable to read GeoData snapshot {}.", snapshotPath, ex);
+            return null;
+        }
+    }
+
+    // The snapshot only speeds up the next startup: failing to write it is not an error
+    private void writeSnapshot(GeoSnapshot snapshot) {
+        try {
+            snapshot.write(snapshotPath);
+            log.info("GeoData snapshot written to {}.", snapshotPath);
+        } catch (IOException ex) {
+            log.warn("Unable to write GeoData snapshot {}.", snapshotPath, ex);
+        }
+    }
+
+    public record GeoJsonSearch(GeoSnapshot store, byte[] body, int count) {
+    }
+}
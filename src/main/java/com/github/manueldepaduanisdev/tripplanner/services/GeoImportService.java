@@ -0,0 +1,342 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.GeoImportJob;
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.ImportFormat;
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.ImportStatus;
+import com.github.manueldepaduanisdev.tripplanner.repositories.GeoImportJobRepository;
+import jakarta.annotation.Nullable;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Streaming import of large gazetteer files into geo_data.
+ * Rows are validated, deduplicated and written with JDBC batches of MERGE statements on the natural key.
+ * Every batch commits together with its checkpoint, so a failed/stopped import restarts where it left.
+ * Only files under app.geo-import.directory can be imported.
+ */
+@Service
+@Slf4j
+@Validated
+public class GeoImportService {
+
+    // Upsert on the natural key, so rows already imported (by an interrupted run or a previous import) are not duplicated.
+    // Missing region / province compared as '' (uk_geo_data_natural_key): NULL never matches NULL
+    private static final String MERGE_SQL = "MERGE INTO geo_data g " +
+            "USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), " +
+            "CAST(? AS DOUBLE PRECISION), CAST(? AS DOUBLE PRECISION))) AS v (country, region, province, city, latitude, longitude) " +
+            "ON g.country = v.country AND g.region_key = COALESCE(v.region, '') " +
+            "AND g.province_key = COALESCE(v.province, '') AND g.city = v.city " +
+            "WHEN MATCHED THEN UPDATE SET latitude = v.latitude, longitude = v.longitude " +
+            "WHEN NOT MATCHED THEN INSERT (country, region, province, city, latitude, longitude) " +
+            "VALUES (v.country, v.region, v.province, v.city, v.latitude, v.longitude)";
+
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    // GeoNames dump columns
+    private static final int GEONAMES_NAME = 1;
+    private static final int GEONAMES_LATITUDE = 4;
+    private static final int GEONAMES_LONGITUDE = 5;
+    private static final int GEONAMES_FEATURE_CLASS = 6;
+    private static final int GEONAMES_COUNTRY_CODE = 8;
+    private static final int GEONAMES_ADMIN1_CODE = 10;
+    private static final int GEONAMES_ADMIN2_CODE = 11;
+
+    private final GeoImportJobRepository jobRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final GeoDataCacheService geoDataCacheService;
+    private final Executor importExecutor;
+    private final Path importDirectory;
+    private final int batchSize;
+
+    // Sources being imported right now, to avoid two runs on the same file
+    private final Set<String> runningSources = ConcurrentHashMap.newKeySet();
+
+    public GeoImportService(
+            GeoImportJobRepository jobRepository,
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            GeoDataCacheService geoDataCacheService,
+            @Qualifier("geoImportExecutor") Executor importExecutor,
+            @Value("${app.geo-import.directory:./data/import}") String importDirectory,
+            @Value("${app.geo-import.batch-size:5000}") int batchSize
+    ) {
+        this.jobRepository = jobRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.geoDataCacheService = geoDataCacheService;
+        this.importExecutor = importExecutor;
+        this.importDirectory = Path.of(importDirectory).toAbsolutePath().normalize();
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Start (or resume, if a previous run on the same file didn't complete) an import in background.
+     * @param source path of the file, relative to the import directory
+     * @param format file format
+     * @return import job, to follow the progress
+     */
+    public GeoImportJob startImport(@NotBlank String source, @NotNull ImportFormat format) {
+        Path path = resolveSource(source);
+
+        String normalizedSource = path.toString();
+
+        if (!runningSources.add(normalizedSource)) {
+            log.warn("Import refused: an import of {} is already running.", normalizedSource);
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "An import of " + source + " is already running.");
+        }
+
+        try {
+            GeoImportJob job = jobRepository.findFirstBySourceAndStatusNotOrderByIdDesc(normalizedSource, ImportStatus.COMPLETED)
+                    .filter(previous -> previous.getFormat() == format)
+                    .map(previous -> {
+                        log.info("Resuming import job ID: {} of {} from line {}.", previous.getId(), normalizedSource, previous.getLinesRead());
+                        previous.setStatus(ImportStatus.RUNNING);
+                        previous.setErrorMessage(null);
+                        previous.setFinishedAt(null);
+                        return previous;
+                    })
+                    .orElseGet(() -> GeoImportJob.builder()
+                            .source(normalizedSource)
+                            .format(format)
+                            .status(ImportStatus.RUNNING)
+                            .build());
+
+            GeoImportJob savedJob = jobRepository.save(job);
+
+            importExecutor.execute(() -> runImport(savedJob));
+            log.info("Import job ID: {} submitted. Source: {}, Format: {}", savedJob.getId(), normalizedSource, format);
+
+            return savedJob;
+        } catch (RuntimeException ex) {
+            runningSources.remove(normalizedSource);
+            if (ex instanceof TaskRejectedException) {
+                log.warn("Import of {} rejected by the import executor.", normalizedSource);
+            }
+            throw ex;
+        }
+    }
+
+    public GeoImportJob getJob(@NotNull Long id) {
+        return jobRepository.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "No import job found for ID: " + id));
+    }
+
+    // Real path of a readable file inside the import directory (no "..", absolute paths or links leading out of it)
+    private Path resolveSource(String source) {
+        Path path;
+        try {
+            path = importDirectory.resolve(source).normalize();
+            if (path.startsWith(importDirectory) && Files.isReadable(path)) {
+                path = path.toRealPath();
+                if (path.startsWith(importDirectory.toRealPath())) return path;
+            }
+        } catch (InvalidPathException | IOException ex) {
+            log.debug("Import source {} not resolved.", source, ex);
+        }
+
+        log.warn("Import refused: file {} not found in the import directory {} or not readable.", source, importDirectory);
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "File not found in the import directory or not readable: " + source);
+    }
+
+    private void runImport(GeoImportJob job) {
+        long start = System.currentTimeMillis();
+        ImportProgress progress = new ImportProgress(job);
+        // Natural keys of the current batch: duplicates across batches are merged by the database
+        Set<String> seenKeys = new HashSet<>();
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        long lineNumber = 0;
+
+        log.info("Import job ID: {} started. Skipping {} lines already imported.", job.getId(), job.getLinesRead());
+
+        try (FileChannel channel = FileChannel.open(Path.of(job.getSource()), StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8), READ_BUFFER_SIZE)) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                // Already stored by a previous run
+                if (lineNumber <= job.getLinesRead() || line.isBlank()) continue;
+
+                Object[] row = parse(line, job.getFormat());
+
+                if (row == null) {
+                    // First line not parsable is the header
+                    if (lineNumber > 1) progress.rejected++;
+                } else if (!seenKeys.add(naturalKey(row))) {
+                    progress.duplicated++;
+                } else {
+                    batch.add(row);
+                }
+
+                if (batch.size() >= batchSize) {
+                    writeBatch(progress, batch, lineNumber);
+                    seenKeys.clear();
+                }
+            }
+
+            writeBatch(progress, batch, lineNumber);
+
+            transactionTemplate.executeWithoutResult(status ->
+                    jobRepository.finish(job.getId(), ImportStatus.COMPLETED, null, LocalDateTime.now()));
+
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            log.info("Import job ID: {} completed in {} ms. Imported: {}, Rejected: {}, Duplicated: {} (~{} rows/s)",
+                    job.getId(), elapsed, progress.imported, progress.rejected, progress.duplicated,
+                    progress.imported * 1000 / elapsed);
+
+        } catch (Exception ex) {
+            log.error("Import job ID: {} failed at line {}. It can be resumed from the last checkpoint.", job.getId(), lineNumber, ex);
+
+            transactionTemplate.executeWithoutResult(status ->
+                    jobRepository.finish(job.getId(), ImportStatus.FAILED, truncate(ex.getMessage()), LocalDateTime.now()));
+        } finally {
+            runningSources.remove(job.getSource());
+        }
+
+        // Imported rows must be visible to geo lookups
+        if (progress.imported > job.getRowsImported()) {
+            geoDataCacheService.reload();
+        }
+    }
+
+    // Write rows and checkpoint atomically
+    private void writeBatch(ImportProgress progress, List<Object[]> batch, long linesRead) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!batch.isEmpty()) {
+                jdbcTemplate.batchUpdate(MERGE_SQL, batch);
+            }
+            progress.imported += batch.size();
+            jobRepository.updateProgress(progress.jobId, linesRead, progress.imported, progress.rejected,
+                    progress.duplicated, LocalDateTime.now());
+        });
+
+        log.debug("Import job ID: {} checkpoint at line {}. Imported so far: {}", progress.jobId, linesRead, progress.imported);
+        batch.clear();
+    }
+
+    /**
+     * @return country, region, province, city, latitude, longitude. Null if the line is not valid.
+     */
+    @Nullable
+    static Object[] parse(String line, ImportFormat format) {
+        List<String> fields = split(line, format.getSeparator(), format == ImportFormat.CSV);
+
+        String country, region, province, city, latitude, longitude;
+
+        if (format == ImportFormat.GEONAMES) {
+            if (fields.size() <= GEONAMES_ADMIN2_CODE || !"P".equals(fields.get(GEONAMES_FEATURE_CLASS))) return null;
+            country = fields.get(GEONAMES_COUNTRY_CODE);
+            region = fields.get(GEONAMES_ADMIN1_CODE);
+            province = fields.get(GEONAMES_ADMIN2_CODE);
+            city = fields.get(GEONAMES_NAME);
+            latitude = fields.get(GEONAMES_LATITUDE);
+            longitude = fields.get(GEONAMES_LONGITUDE);
+        } else {
+            if (fields.size() < 6) return null;
+            country = fields.get(0);
+            region = fields.get(1);
+            province = fields.get(2);
+            city = fields.get(3);
+            latitude = fields.get(4);
+            longitude = fields.get(5);
+        }
+
+        if (country.isBlank() || city.isBlank()) return null;
+
+        double lat, lon;
+        try {
+            lat = Double.parseDouble(latitude);
+            lon = Double.parseDouble(longitude);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+
+        if (lat < -90 || lat > 90 || lon < -180 || lon > 180) return null;
+
+        return new Object[]{country.strip(), emptyToNull(region), emptyToNull(province), city.strip(), lat, lon};
+    }
+
+    private static List<String> split(String line, char separator, boolean quoted) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted && c == '"') {
+                // Escaped quote inside a quoted field
+                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else if (c == separator && !inQuotes) {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+
+        fields.add(current.toString());
+        return fields;
+    }
+
+    private static String naturalKey(Object[] row) {
+        return row[0] + "|" + row[1] + "|" + row[2] + "|" + row[3];
+    }
+
+    @Nullable
+    private static String emptyToNull(String value) {
+        return value == null || value.isBlank() ? null : value.strip();
+    }
+
+    @Nullable
+    private static String truncate(@Nullable String message) {
+        return message == null || message.length() <= 1024 ? message : message.substring(0, 1024);
+    }
+
+    // Counters of a running import
+    private static class ImportProgress {
+        private final Long jobId;
+        private long imported;
+        private long rejected;
+        private long duplicated;
+
+        private ImportProgress(GeoImportJob job) {
+            this.jobId = job.getId();
+            this.imported = job.getRowsImported();
+            this.rejected = job.getRowsRejected();
+            this.duplicated = job.getRowsDuplicated();
+        }
+    }
+}
@@ -1,25 +1,40 @@
 package com.github.manueldepaduanisdev.tripplanner.services;
 
-import com.github.manueldepaduanisdev.tripplanner.domain.GeoData;
 import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoDataResponseDTO;
-import com.github.manueldepaduanisdev.tripplanner.mappers.GeoDataMapper;
-import com.github.manueldepaduanisdev.tripplanner.repositories.GeoDataRepository;
-import lombok.RequiredArgsConstructor;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoJsonResponse;
+import jakarta.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Service used to retrieve Geo Data information
  */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class GeoService {
 
-    private final GeoDataRepository _geoDataRepository;
-    private final GeoDataMapper geoDataMapper;
+    private final GeoDataCacheService _geoDataCacheService;
+
+    // LRU of whole search results, already serialized, bounded by the size of their bodies.
+    // Map<normalized filters, result>. Guarded by itself, with _jsonCacheBytes
+    private final LinkedHashMap<String, CachedJson> _jsonResults = new LinkedHashMap<>(16, 0.75f, true);
+    private final long _jsonCacheMaxBytes;
+    private long _jsonCacheBytes;
+
+    public GeoService(
+            GeoDataCacheService geoDataCacheService,
+            @Value("${app.geo-json-cache.max-bytes:16777216}") long jsonCacheMaxBytes
+    ) {
+        this._geoDataCacheService = geoDataCacheService;
+        this._jsonCacheMaxBytes = jsonCacheMaxBytes;
+    }
 
     /**
      *
@@ -30,15 +45,70 @@ public class GeoService {
      * @return an ascending ordered and filtered list of geo data
      */
     public List<GeoDataResponseDTO> searchGeoData(String country, String region, String province, String city) {
-        log.info("Searching GeoData in DB. Params -> Country: [{}], Region: [{}], Province: [{}], City: [{}]",
+        log.info("Searching GeoData in cache. Params -> Country: [{}], Region: [{}], Province: [{}], City: [{}]",
                 country, region, province, city);
 
-        List<GeoData> geoDataList = _geoDataRepository.searchGeoData(country, region, province, city);
+        // Served by the in-memory geo store, DTOs are materialized only for the matching rows
+        List<GeoDataResponseDTO> results = _geoDataCacheService.search(country, region, province, city);
+
+        log.info("Search finished. Retrieved {} GeoData.", results.size());
+
+        return results;
+    }
+
+    /**
+     * Same of searchGeoData, but already serialized as JSON with its ETag.
+     * Results are cached per query until the geo store is reloaded.
+     * @return pre-serialized, ascending ordered and filtered list of geo data
+     */
+    public GeoJsonResponse searchGeoDataJson(@Nullable String country, @Nullable String region,
+                                             @Nullable String province, @Nullable String city) {
+        // Filters are case-insensitive: same query, same result
+        String key = normalize(country) + '\u0001' + normalize(region) + '\u0001' + normalize(province) + '\u0001' + normalize(city);
+
+        CachedJson cached;
+        synchronized (_jsonResults) {
+            cached = _jsonResults.get(key);
+        }
+        if (cached != null && _geoDataCacheService.isCurrent(cached.search())) {
+            log.debug("GeoData JSON search served from cache. Key: [{}]", key);
+            return cached.response();
+        }
 
-        log.info("Search finished. Retrieved and mapping {} GeoData entities.", geoDataList.size());
+        GeoDataCacheService.GeoJsonSearch search = _geoDataCacheService.searchJson(country, region, province, city);
+        String eTag = "\"" + DigestUtils.md5DigestAsHex(search.body()) + "\"";
+        GeoJsonResponse response = new GeoJsonResponse(search.body(), eTag, search.count());
+
+        cacheJson(key, new CachedJson(search, response));
+        log.info("GeoData JSON search built and cached. Found {} results. ETag: {}", search.count(), eTag);
+
+        return response;
+    }
+
+    // Least recently used results evicted until the cache is back under max-bytes
+    private void cacheJson(String key, CachedJson json) {
+        long bytes = json.response().body().length;
+        if (bytes > _jsonCacheMaxBytes) {
+            log.debug("GeoData JSON search too large to be cached ({} bytes). Key: [{}]", bytes, key);
+            return;
+        }
+
+        synchronized (_jsonResults) {
+            CachedJson previous = _jsonResults.put(key, json);
+            _jsonCacheBytes += bytes - (previous == null ? 0 : previous.response().body().length);
+
+            Iterator<CachedJson> eldest = _jsonResults.values().iterator();
+            while (_jsonCacheBytes > _jsonCacheMaxBytes) {
+                _jsonCacheBytes -= eldest.next().response().body().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private static String normalize(@Nullable String filter) {
+        return filter == null ? "\u0000" : filter.toLowerCase(Locale.ROOT);
+    }
 
-        return geoDataList.stream()
-                .map(geoDataMapper::toDTO) // For each element
-                .toList();
+    private record CachedJson(GeoDataCacheService.GeoJsonSearch search, GeoJsonResponse response) {
     }
-}
\ No newline at end of file
+}
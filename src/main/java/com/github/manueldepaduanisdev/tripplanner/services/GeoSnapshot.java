@@ -0,0 +1,466 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.GeoData;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoDataResponseDTO;
+import jakarta.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compact, versioned, columnar image of the geo dataset.
+ * <pre>
+ * header:     magic | format version | row count | max geo id | content checksum (computed by the DB)
+ * dictionary: count | (length | UTF-8 bytes)*   -> countries, regions and provinces, stored once
+ * columns:    ids long[n] (ascending) | country/region/province refs int[n] (-1 = null)
+ *             | latitudes double[n] | longitudes double[n] | city offsets int[n+1] | city UTF-8 bytes
+ * index:      positions int[n] ordered by country, region, province, city
+ * </pre>
+ * When read from file the columns are views over a read-only memory mapping, so nothing is copied on heap.
+ * It's also the in-memory geo store: no entity or DTO is kept, they are materialized on demand from the columns.
+ */
+public final class GeoSnapshot {
+
+    private static final int MAGIC = 0x47454F53; // "GEOS"
+    private static final int FORMAT_VERSION = 2;
+    private static final int NULL_REF = -1;
+
+    // Nulls first, as an SQL ORDER BY country, region, province, city
+    private static final Comparator<String> NULLS_FIRST = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private final int size;
+    private final long maxId;
+    private final long checksum;
+    private final String[] dictionary;
+    // Search keys: lowercased once per snapshot, not per query. Cities built on the first city search
+    private final String[] lowerDictionary;
+    private volatile String[] lowerCities;
+    private final LongBuffer ids;
+    private final IntBuffer countryRefs;
+    private final IntBuffer regionRefs;
+    private final IntBuffer provinceRefs;
+    private final DoubleBuffer latitudes;
+    private final DoubleBuffer longitudes;
+    private final IntBuffer cityOffsets;
+    private final ByteBuffer cityBytes;
+    private final IntBuffer sortedPositions;
+
+    private GeoSnapshot(int size, long maxId, long checksum, String[] dictionary, LongBuffer ids,
+                        IntBuffer countryRefs, IntBuffer regionRefs, IntBuffer provinceRefs,
+                        DoubleBuffer latitudes, DoubleBuffer longitudes,
+                        IntBuffer cityOffsets, ByteBuffer cityBytes, IntBuffer sortedPositions) {
+        this.size = size;
+        this.maxId = maxId;
+        this.checksum = checksum;
+        this.dictionary = dictionary;
+        this.lowerDictionary = Arrays.stream(dictionary).map(entry -> entry.toLowerCase(Locale.ROOT)).toArray(String[]::new);
+        this.ids = ids;
+        this.countryRefs = countryRefs;
+        this.regionRefs = regionRefs;
+        this.provinceRefs = provinceRefs;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.cityOffsets = cityOffsets;
+        this.cityBytes = cityBytes;
+        this.sortedPositions = sortedPositions;
+    }
+
+    /**
+     * Build the snapshot from the GeoData entities
+     * @param checksum content checksum of the dataset they were read from (GeoDataRepository.checksum)
+     */
+    public static GeoSnapshot build(Collection<GeoData> geoData, long checksum) {
+        List<GeoData> rows = new ArrayList<>(geoData);
+        rows.sort(Comparator.comparing(GeoData::getId));
+
+        int size = rows.size();
+        Map<String, Integer> dictionaryIndex = new LinkedHashMap<>();
+        long[] ids = new long[size];
+        int[] countryRefs = new int[size];
+        int[] regionRefs = new int[size];
+        int[] provinceRefs = new int[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        int[] cityOffsets = new int[size + 1];
+        ByteArrayOutputStream cityBytes = new ByteArrayOutputStream();
+
+        for (int i = 0; i < size; i++) {
+            GeoData row = rows.get(i);
+            ids[i] = row.getId();
+            countryRefs[i] = intern(dictionaryIndex, row.getCountry());
+            regionRefs[i] = intern(dictionaryIndex, row.getRegion());
+            provinceRefs[i] = intern(dictionaryIndex, row.getProvince());
+            latitudes[i] = row.getLatitude();
+            longitudes[i] = row.getLongitude();
+            cityOffsets[i] = cityBytes.size();
+            cityBytes.writeBytes(row.getCity().getBytes(StandardCharsets.UTF_8));
+        }
+        cityOffsets[size] = cityBytes.size();
+
+        // Ordered index, in search result order
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, Comparator
+                .comparing((Integer pos) -> rows.get(pos).getCountry(), NULLS_FIRST)
+                .thenComparing(pos -> rows.get(pos).getRegion(), NULLS_FIRST)
+                .thenComparing(pos -> rows.get(pos).getProvince(), NULLS_FIRST)
+                .thenComparing(pos -> rows.get(pos).getCity(), NULLS_FIRST));
+        int[] sortedPositions = new int[size];
+        for (int i = 0; i < size; i++) sortedPositions[i] = order[i];
+
+        return new GeoSnapshot(
+                size,
+                size == 0 ? 0 : ids[size - 1],
+                checksum,
+                dictionaryIndex.keySet().toArray(new String[0]),
+                LongBuffer.wrap(ids),
+                IntBuffer.wrap(countryRefs),
+                IntBuffer.wrap(regionRefs),
+                IntBuffer.wrap(provinceRefs),
+                DoubleBuffer.wrap(latitudes),
+                DoubleBuffer.wrap(longitudes),
+                IntBuffer.wrap(cityOffsets),
+                ByteBuffer.wrap(cityBytes.toByteArray()),
+                IntBuffer.wrap(sortedPositions)
+        );
+    }
+
+    /**
+     * Memory map a snapshot file
+     * @return null if the file doesn't exist or was written with another format version
+     */
+    @Nullable
+    public static GeoSnapshot read(Path path) throws IOException {
+        if (!Files.isReadable(path)) return null;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 28 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null;
+
+            int size = buffer.getInt();
+            long maxId = buffer.getLong();
+            long checksum = buffer.getLong();
+
+            String[] dictionary = new String[buffer.getInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            LongBuffer ids = section(buffer, size * Long.BYTES).asLongBuffer();
+            IntBuffer countryRefs = section(buffer, size * Integer.BYTES).asIntBuffer();
+            IntBuffer regionRefs = section(buffer, size * Integer.BYTES).asIntBuffer();
+            IntBuffer provinceRefs = section(buffer, size * Integer.BYTES).asIntBuffer();
+            DoubleBuffer latitudes = section(buffer, size * Double.BYTES).asDoubleBuffer();
+            DoubleBuffer longitudes = section(buffer, size * Double.BYTES).asDoubleBuffer();
+            IntBuffer cityOffsets = section(buffer, (size + 1) * Integer.BYTES).asIntBuffer();
+            ByteBuffer cityBytes = section(buffer, buffer.getInt());
+            IntBuffer sortedPositions = section(buffer, size * Integer.BYTES).asIntBuffer();
+
+            return new GeoSnapshot(size, maxId, checksum, dictionary, ids, countryRefs, regionRefs, provinceRefs,
+                    latitudes, longitudes, cityOffsets, cityBytes, sortedPositions);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException ex) {
+            // Truncated/corrupted file
+            return null;
+        }
+    }
+
+    /**
+     * Write the snapshot to file. Written on a temp file and then moved, so readers never see a partial file.
+     */
+    public void write(Path path) throws IOException {
+        byte[][] dictionaryBytes = new byte[dictionary.length][];
+        long dictionaryLength = Integer.BYTES;
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionaryBytes[i] = dictionary[i].getBytes(StandardCharsets.UTF_8);
+            dictionaryLength += Integer.BYTES + dictionaryBytes[i].length;
+        }
+
+        long totalLength = 3 * Integer.BYTES + 2 * Long.BYTES
+                + dictionaryLength
+                + (long) size * (Long.BYTES + 3 * Integer.BYTES + 2 * Double.BYTES)
+                + (long) (size + 1) * Integer.BYTES
+                + Integer.BYTES + cityBytes.limit()
+                + (long) size * Integer.BYTES;
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, totalLength);
+
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(size).putLong(maxId).putLong(checksum);
+
+            buffer.putInt(dictionary.length);
+            for (byte[] bytes : dictionaryBytes) {
+                buffer.putInt(bytes.length).put(bytes);
+            }
+
+            for (int i = 0; i < size; i++) buffer.putLong(ids.get(i));
+            for (int i = 0; i < size; i++) buffer.putInt(countryRefs.get(i));
+            for (int i = 0; i < size; i++) buffer.putInt(regionRefs.get(i));
+            for (int i = 0; i < size; i++) buffer.putInt(provinceRefs.get(i));
+            for (int i = 0; i < size; i++) buffer.putDouble(latitudes.get(i));
+            for (int i = 0; i < size; i++) buffer.putDouble(longitudes.get(i));
+            for (int i = 0; i <= size; i++) buffer.putInt(cityOffsets.get(i));
+            buffer.putInt(cityBytes.limit()).put(cityBytes.duplicate().rewind());
+            for (int i = 0; i < size; i++) buffer.putInt(sortedPositions.get(i));
+
+            buffer.force();
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return true if the snapshot was built from a dataset with this row count, max id and content checksum
+     * (rows changed in place too)
+     */
+    public boolean matches(long rowCount, long maxId, long checksum) {
+        return this.size == rowCount && this.maxId == maxId && this.checksum == checksum;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Content checksum of the dataset it was built from
+    public long checksum() {
+        return checksum;
+    }
+
+    public long id(int position) {
+        return ids.get(position);
+    }
+
+    public String country(int position) {
+        return lookup(countryRefs.get(position));
+    }
+
+    @Nullable
+    public String region(int position) {
+        return lookup(regionRefs.get(position));
+    }
+
+    @Nullable
+    public String province(int position) {
+        return lookup(provinceRefs.get(position));
+    }
+
+    public String city(int position) {
+        int start = cityOffsets.get(position);
+        byte[] bytes = new byte[cityOffsets.get(position + 1) - start];
+        cityBytes.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public double latitude(int position) {
+        return latitudes.get(position);
+    }
+
+    public double longitude(int position) {
+        return longitudes.get(position);
+    }
+
+    /**
+     * @param rank 0..size-1 in country, region, province, city order
+     * @return position of the row with that rank
+     */
+    public int sortedPosition(int rank) {
+        return sortedPositions.get(rank);
+    }
+
+    /**
+     * @param id GeoData id
+     * @return position of the row, or -1 if the id is not in the snapshot (binary search, ids are ascending)
+     */
+    public int positionOf(long id) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = ids.get(mid);
+
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Case-insensitive "contains" search (as SQL LOWER(column) LIKE %filter%). Null filters are ignored.
+     * @return positions of the matching rows, in country, region, province, city order
+     */
+    public int[] search(@Nullable String country, @Nullable String region, @Nullable String province, @Nullable String city) {
+        // Dictionary filters are evaluated once per dictionary entry, not once per row
+        boolean[] countryMatches = matchDictionary(country);
+        boolean[] regionMatches = matchDictionary(region);
+        boolean[] provinceMatches = matchDictionary(province);
+        String cityFilter = city == null ? null : city.toLowerCase(Locale.ROOT);
+        String[] cityKeys = cityFilter == null ? null : lowerCities();
+
+        int[] result = new int[size];
+        int found = 0;
+
+        for (int rank = 0; rank < size; rank++) {
+            int position = sortedPositions.get(rank);
+
+            if (matchesRef(countryMatches, countryRefs.get(position))
+                    && matchesRef(regionMatches, regionRefs.get(position))
+                    && matchesRef(provinceMatches, provinceRefs.get(position))
+                    && (cityFilter == null || cityKeys[position].contains(cityFilter))) {
+                result[found++] = position;
+            }
+        }
+
+        return Arrays.copyOf(result, found);
+    }
+
+    /**
+     * Materialize a response DTO
+     */
+    public GeoDataResponseDTO toDTO(int position) {
+        return GeoDataResponseDTO.builder()
+                .id(id(position))
+                .country(country(position))
+                .region(region(position))
+                .province(province(position))
+                .city(city(position))
+                .latitude(latitude(position))
+                .longitude(longitude(position))
+                .build();
+    }
+
+    /**
+     * @return the row as UTF-8 JSON, same fields of GeoDataResponseDTO. Encoded on demand: whole results are
+     * cached by GeoService (bounded in bytes), rows are not kept
+     */
+    public byte[] toJson(int position) {
+        StringBuilder builder = new StringBuilder(128)
+                .append("{\"id\":").append(id(position))
+                .append(",\"country\":");
+        appendJsonString(builder, country(position));
+        builder.append(",\"region\":");
+        appendJsonString(builder, region(position));
+        builder.append(",\"province\":");
+        appendJsonString(builder, province(position));
+        builder.append(",\"city\":");
+        appendJsonString(builder, city(position));
+        builder.append(",\"latitude\":").append(latitude(position))
+                .append(",\"longitude\":").append(longitude(position))
+                .append('}');
+
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Materialize a (detached) GeoData entity
+     */
+    public GeoData toEntity(int position) {
+        return GeoData.builder()
+                .id(id(position))
+                .country(country(position))
+                .region(region(position))
+                .province(province(position))
+                .city(city(position))
+                .latitude(latitude(position))
+                .longitude(longitude(position))
+                .build();
+    }
+
+    // Built at most a few times if searched concurrently at first (same content), then shared by every search
+    private String[] lowerCities() {
+        String[] keys = lowerCities;
+        if (keys == null) {
+            keys = new String[size];
+            for (int position = 0; position < size; position++) {
+                keys[position] = city(position).toLowerCase(Locale.ROOT);
+            }
+            lowerCities = keys;
+        }
+        return keys;
+    }
+
+    @Nullable
+    private String lookup(int ref) {
+        return ref == NULL_REF ? null : dictionary[ref];
+    }
+
+    // Null filter -> null (everything matches). Else which dictionary entries contain the filter.
+    @Nullable
+    private boolean[] matchDictionary(@Nullable String filter) {
+        if (filter == null) return null;
+
+        String lowerFilter = filter.toLowerCase(Locale.ROOT);
+        boolean[] matches = new boolean[dictionary.length];
+        for (int i = 0; i < lowerDictionary.length; i++) {
+            matches[i] = lowerDictionary[i].contains(lowerFilter);
+        }
+        return matches;
+    }
+
+    private static boolean matchesRef(@Nullable boolean[] matches, int ref) {
+        if (matches == null) return true;
+        // As in SQL, a null value never matches a filter
+        return ref != NULL_REF && matches[ref];
+    }
+
+    private static void appendJsonString(StringBuilder builder, @Nullable String value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        builder.append('"');
+    }
+
+    private static int intern(Map<String, Integer> dictionaryIndex, @Nullable String value) {
+        if (value == null) return NULL_REF;
+        return dictionaryIndex.computeIfAbsent(value, v -> dictionaryIndex.size());
+    }
+
+    // Next section of the buffer as an independent big endian view
+    private static ByteBuffer section(ByteBuffer buffer, int length) {
+        ByteBuffer section = buffer.slice(buffer.position(), length).order(ByteOrder.BIG_ENDIAN);
+        buffer.position(buffer.position() + length);
+        return section;
+    }
+}
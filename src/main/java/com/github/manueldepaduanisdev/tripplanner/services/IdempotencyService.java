@@ -0,0 +1,260 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
+import com.github.manueldepaduanisdev.tripplanner.domain.IdempotencyRecord;
+import com.github.manueldepaduanisdev.tripplanner.domain.Itinerary;
+import com.github.manueldepaduanisdev.tripplanner.repositories.IdempotencyRecordRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Nullable;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.server.ResponseStatusException;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Idempotency-Key support for itinerary creation. Retries of a request within the ttl get the itinerary created
+ * by the first one instead of a new itinerary (and a new task).
+ * Duplicates arriving while the first one is running wait for it (same future). Completed keys are kept
+ * in memory (LRU) and in idempotency_record, written in the transaction that creates the itinerary
+ * (on the shard of its session: looked up on every shard when the request has no session).
+ */
+@Service
+@Slf4j
+@Validated
+public class IdempotencyService {
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final ShardRouter shardRouter;
+    private final JsonMapper jsonMapper;
+    private final MeterRegistry meterRegistry;
+    private final Duration ttl;
+
+    // Map<idempotency key, record of the first request>, for requests still running
+    private final Map<String, CompletableFuture<IdempotencyRecord>> inFlight = new ConcurrentHashMap<>();
+
+    // LRU of completed keys. Map<idempotency key, record>
+    private final Map<String, IdempotencyRecord> completed;
+
+    public IdempotencyService(
+            IdempotencyRecordRepository idempotencyRecordRepository,
+            ShardRouter shardRouter,
+            JsonMapper jsonMapper,
+            MeterRegistry meterRegistry,
+            @Value("${app.idempotency.ttl:PT24H}") Duration ttl,
+            @Value("${app.idempotency.max-entries:10000}") int maxEntries
+    ) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.shardRouter = shardRouter;
+        this.jsonMapper = jsonMapper;
+        this.meterRegistry = meterRegistry;
+        this.ttl = ttl;
+        this.completed = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IdempotencyRecord> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Run the action once per key.
+     * @param action first request: must call record in its transaction
+     * @param replay answer for a retry, from the record of the first request
+     * @return result of the action, or of replay if the key was already used (or is being used) by the same request
+     */
+    public <T> Outcome<T> execute(@NotBlank String idempotencyKey, @NotBlank String requestHash,
+                                  @NotNull Supplier<T> action, @NotNull Function<IdempotencyRecord, T> replay) {
+        Optional<IdempotencyRecord> done = findCompleted(idempotencyKey);
+        if (done.isPresent()) {
+            return replayed(done.get(), requestHash, replay, "replayed");
+        }
+
+        CompletableFuture<IdempotencyRecord> own = new CompletableFuture<>();
+        CompletableFuture<IdempotencyRecord> running = inFlight.putIfAbsent(idempotencyKey, own);
+
+        if (running != null) {
+            // Duplicate of a request still running: same outcome, no second itinerary
+            log.info("Request with Idempotency-Key: {} already running. Waiting for it.", idempotencyKey);
+            return replayed(await(running), requestHash, replay, "collapsed");
+        }
+
+        try {
+            // Completed between the first lookup and the registration
+            done = findCompleted(idempotencyKey);
+            if (done.isPresent()) {
+                own.complete(done.get());
+                return replayed(done.get(), requestHash, replay, "replayed");
+            }
+
+            T result;
+            try {
+                result = action.get();
+            } catch (DataIntegrityViolationException ex) {
+                // Key stored meanwhile by another instance: its itinerary is the one to return
+                IdempotencyRecord stored = findCompleted(idempotencyKey).orElseThrow(() -> ex);
+                own.complete(stored);
+                return replayed(stored, requestHash, replay, "replayed");
+            }
+
+            findCompleted(idempotencyKey).ifPresentOrElse(own::complete, () -> own.completeExceptionally(
+                    new IllegalStateException("No record stored for Idempotency-Key: " + idempotencyKey)));
+            count("new");
+            return new Outcome<>(result, false);
+
+        } catch (RuntimeException ex) {
+            // Failed (e.g. invalid request): waiting duplicates fail the same way, a later retry runs again
+            own.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(idempotencyKey, own);
+        }
+    }
+
+    /**
+     * Store the key with the created itinerary. Must be called in the transaction that creates it:
+     * the key is used if and only if the itinerary is committed.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(@NotBlank String idempotencyKey, @NotBlank String requestHash, @NotNull Itinerary itinerary) {
+        IdempotencyRecord record = IdempotencyRecord.builder()
+                .idempotencyKey(idempotencyKey)
+                .requestHash(requestHash)
+                .itineraryId(itinerary.getId())
+                .sessionId(itinerary.getSessionId())
+                .createdAt(LocalDateTime.now())
+                .build();
+
+        // Expired but not purged yet: the key is free again. Same transaction, rolled back with it
+        idempotencyRecordRepository.deleteExpired(idempotencyKey, record.getCreatedAt().minus(ttl));
+        // Flushed now: a key stored by another instance fails here, not at commit
+        idempotencyRecordRepository.saveAndFlush(record);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    completed.put(idempotencyKey, record);
+                }
+            });
+        } else {
+            completed.put(idempotencyKey, record);
+        }
+    }
+
+    /**
+     * @return SHA-256 of the request body and of the session it's sent with
+     */
+    public String fingerprint(@NotNull Object request, @Nullable String sessionId) {
+        byte[] body = jsonMapper.writeValueAsBytes(request);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(sessionId).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return HexFormat.of().formatHex(digest.digest(body));
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JVM must provide SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.idempotency.purge-interval:3600000}")
+    public void purgeExpired() {
+        LocalDateTime expired = LocalDateTime.now().minus(ttl);
+
+        shardRouter.forEachShard(shard -> {
+            int purged = idempotencyRecordRepository.deleteCreatedBefore(expired);
+            if (purged > 0) {
+                log.info("{} expired idempotency keys purged (shard {}).", purged, shard);
+            }
+        });
+    }
+
+    // Record of a completed key still in the retry window: memory first, then DB
+    private Optional<IdempotencyRecord> findCompleted(String idempotencyKey) {
+        LocalDateTime oldest = LocalDateTime.now().minus(ttl);
+
+        IdempotencyRecord record = completed.get(idempotencyKey);
+        if (record == null) {
+            record = findStored(idempotencyKey);
+            if (record != null) completed.put(idempotencyKey, record);
+        }
+
+        return Optional.ofNullable(record)
+                .filter(stored -> stored.getCreatedAt() == null || stored.getCreatedAt().isAfter(oldest));
+    }
+
+    // New session (no X-Session-ID): its shard is only known once created, the key can be on any of them
+    private IdempotencyRecord findStored(String idempotencyKey) {
+        if (shardRouter.isRouted()) {
+            return idempotencyRecordRepository.findById(idempotencyKey).orElse(null);
+        }
+
+        return shardRouter.scatter(shard -> idempotencyRecordRepository.findById(idempotencyKey).orElse(null)).stream()
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private <T> Outcome<T> replayed(IdempotencyRecord record, String requestHash, Function<IdempotencyRecord, T> replay, String result) {
+        if (!record.getRequestHash().equals(requestHash)) {
+            log.warn("Idempotency-Key: {} reused with a different request.", record.getIdempotencyKey());
+            throw new ResponseStatusException(
+                    HttpStatus.UNPROCESSABLE_CONTENT,
+                    "Idempotency-Key already used with a different request."
+            );
+        }
+
+        log.info("Request with Idempotency-Key: {} already served. Returning itinerary ID: {}", record.getIdempotencyKey(), record.getItineraryId());
+        count(result);
+        return new Outcome<>(replay.apply(record), true);
+    }
+
+    private static IdempotencyRecord await(CompletableFuture<IdempotencyRecord> running) {
+        try {
+            return running.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) throw cause;
+            throw ex;
+        }
+    }
+
+    private void count(String result) {
+        meterRegistry.counter("idempotency.requests", "result", result).increment();
+    }
+
+    /**
+     * @param value result of the request
+     * @param replayed true if the key was already used: value is the outcome of the first request
+     */
+    public record Outcome<T>(T value, boolean replayed) {
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
+import com.github.manueldepaduanisdev.tripplanner.domain.ArchivedItinerary;
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryLocationRow;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryVersionRow;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.ItineraryResponseDTO;
+import com.github.manueldepaduanisdev.tripplanner.mappers.ItineraryProjectionMapper;
+import com.github.manueldepaduanisdev.tripplanner.repositories.ArchivedItineraryRepository;
+import com.github.manueldepaduanisdev.tripplanner.repositories.ItineraryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Nullable;
+import jakarta.validation.constraints.NotBlank;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.validation.annotation.Validated;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Lifecycle of finished itineraries: COMPLETED / FAILED ones not changed for max-age are moved from the hot tables
+ * (itinerary, itinerary_location) to itinerary_archive, one row each with its rows gzipped.
+ * Moved in small batches, one every batch-interval (on each shard), so foreground queries don't compete with it.
+ * Archived itineraries stay readable (read-through), but can't be changed anymore.
+ */
+@Service
+@Slf4j
+@Validated
+public class ItineraryArchiveService {
+
+    private static final TypeReference<List<ItineraryLocationRow>> ROWS_TYPE = new TypeReference<>() {
+    };
+
+    private final ItineraryRepository itineraryRepository;
+    private final ArchivedItineraryRepository archivedItineraryRepository;
+    private final ItineraryProjectionMapper itineraryProjectionMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardRouter shardRouter;
+    private final JsonMapper jsonMapper;
+
+    private final boolean enabled;
+    private final Duration maxAge;
+    private final int batchSize;
+
+    private final Counter archivedCounter;
+
+    public ItineraryArchiveService(
+            ItineraryRepository itineraryRepository,
+            ArchivedItineraryRepository archivedItineraryRepository,
+            ItineraryProjectionMapper itineraryProjectionMapper,
+            TransactionTemplate transactionTemplate,
+            ShardRouter shardRouter,
+            JsonMapper jsonMapper,
+            MeterRegistry meterRegistry,
+            @Value("${app.archive.enabled:true}") boolean enabled,
+            @Value("${app.archive.max-age:P30D}") Duration maxAge,
+            @Value("${app.archive.batch-size:100}") int batchSize
+    ) {
+        this.itineraryRepository = itineraryRepository;
+        this.archivedItineraryRepository = archivedItineraryRepository;
+        this.itineraryProjectionMapper = itineraryProjectionMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.shardRouter = shardRouter;
+        this.jsonMapper = jsonMapper;
+        this.enabled = enabled;
+        this.maxAge = maxAge;
+        this.batchSize = batchSize;
+
+        this.archivedCounter = Counter.builder("itinerary.archived")
+                .description("Itineraries moved to the archive").register(meterRegistry);
+    }
+
+    // --- Archival ---
+
+    // Rate limited: at most batch-size itineraries per batch-interval
+    @Scheduled(fixedDelayString = "${app.archive.batch-interval:1000}", initialDelayString = "${app.archive.initial-delay:60000}")
+    public void archiveNextBatch() {
+        if (!enabled) return;
+
+        LocalDateTime finishedBefore = LocalDateTime.now().minus(maxAge);
+
+        shardRouter.forEachShard(shard -> {
+            Integer archived = transactionTemplate.execute(tx -> archiveBatch(finishedBefore));
+
+            if (archived != null && archived > 0) {
+                archivedCounter.increment(archived);
+                log.info("{} finished itineraries archived (shard {}).", archived, shard);
+            }
+        });
+    }
+
+    /**
+     * Move one batch of itineraries finished before the date. Must run in a transaction.
+     * @return itineraries archived
+     */
+    int archiveBatch(LocalDateTime finishedBefore) {
+        List<String> ids = itineraryRepository.findArchivableIds(finishedBefore, Limit.of(batchSize));
+        if (ids.isEmpty()) return 0;
+
+        // Map<itinerary ID, its rows>
+        Map<String, List<ItineraryLocationRow>> rowsById = itineraryRepository.findRowsByIds(ids).stream()
+                .collect(Collectors.groupingBy(ItineraryLocationRow::id, LinkedHashMap::new, Collectors.toList()));
+
+        LocalDateTime now = LocalDateTime.now();
+        archivedItineraryRepository.saveAll(rowsById.values().stream()
+                .map(rows -> toArchive(rows, now))
+                .toList());
+
+        itineraryRepository.deleteLocationsByItineraryIds(rowsById.keySet());
+        itineraryRepository.deleteByIds(rowsById.keySet());
+
+        return rowsById.size();
+    }
+
+    // --- Read-through ---
+
+    @Transactional(readOnly = true)
+    public Optional<ItineraryResponseDTO> find(@NotBlank String sessionId, @NotBlank String id) {
+        return archivedItineraryRepository.findByIdAndSessionId(sessionId, id)
+                .map(this::toDTO);
+    }
+
+    @Transactional(readOnly = true)
+    public List<ItineraryResponseDTO> findAll(@NotBlank String sessionId, @Nullable Status status) {
+        return archivedItineraryRepository.findBySessionIdAndStatus(sessionId, status).stream()
+                .map(this::toDTO)
+                .toList();
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<ItineraryVersionRow> findVersion(@NotBlank String sessionId, @NotBlank String id) {
+        return archivedItineraryRepository.findVersionById(sessionId, id);
+    }
+
+    @Transactional(readOnly = true)
+    public List<ItineraryVersionRow> findVersions(@NotBlank String sessionId, @Nullable Status status) {
+        return archivedItineraryRepository.findVersionsBySessionIdAndStatus(sessionId, status);
+    }
+
+    // --- Internals ---
+
+    private ArchivedItinerary toArchive(List<ItineraryLocationRow> rows, LocalDateTime archivedAt) {
+        ItineraryLocationRow itinerary = rows.get(0);
+
+        return ArchivedItinerary.builder()
+                .id(itinerary.id())
+                .sessionId(itinerary.sessionId())
+                .status(itinerary.status())
+                .version(itinerary.version())
+                .processedStops(itinerary.processedStops())
+                .createdAt(itinerary.createdAt())
+                .updatedAt(itinerary.updatedAt())
+                .archivedAt(archivedAt)
+                .payload(gzip(jsonMapper.writeValueAsBytes(rows)))
+                .build();
+    }
+
+    private ItineraryResponseDTO toDTO(ArchivedItinerary archived) {
+        List<ItineraryLocationRow> rows = jsonMapper.readValue(gunzip(archived.getPayload()), ROWS_TYPE);
+        ItineraryResponseDTO itinerary = itineraryProjectionMapper.toDTOs(rows).get(0);
+
+        // Finished: nothing left to wait for
+        itinerary.setEstimatedWaitSeconds(0L);
+        return itinerary;
+    }
+
+    static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] gunzip(byte[] data) {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return gzip.readAllBytes();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
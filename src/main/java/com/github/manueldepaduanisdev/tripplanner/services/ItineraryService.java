@@ -1,27 +1,33 @@
 package com.github.manueldepaduanisdev.tripplanner.services;
 
+import com.github.manueldepaduanisdev.tripplanner.config.ReplicaRouter;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardContext;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
 import com.github.manueldepaduanisdev.tripplanner.domain.GeoData;
 import com.github.manueldepaduanisdev.tripplanner.domain.Itinerary;
 import com.github.manueldepaduanisdev.tripplanner.domain.ItineraryLocation;
+import com.github.manueldepaduanisdev.tripplanner.domain.RouteResult;
 import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryLocationRow;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryVersionRow;
 import com.github.manueldepaduanisdev.tripplanner.dto.request.ItineraryRequestDTO;
 import com.github.manueldepaduanisdev.tripplanner.dto.response.ItineraryResponseDTO;
 import com.github.manueldepaduanisdev.tripplanner.mappers.ItineraryMapper;
-import com.github.manueldepaduanisdev.tripplanner.repositories.GeoDataRepository;
+import com.github.manueldepaduanisdev.tripplanner.mappers.ItineraryProjectionMapper;
 import com.github.manueldepaduanisdev.tripplanner.repositories.ItineraryRepository;
 import jakarta.annotation.Nullable;
-import jakarta.transaction.Transactional;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Parent itinerary service.
@@ -32,31 +38,57 @@ import java.util.stream.Collectors;
 @Validated
 public class ItineraryService {
 
+    // Same order as the list queries (createdAt, id), hot and archive
+    private static final Comparator<ItineraryResponseDTO> CREATION_ORDER = Comparator
+            .comparing(ItineraryResponseDTO::getCreatedAt, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ItineraryResponseDTO::getId);
+
     private final ItineraryRepository itineraryRepository;
-    private final GeoDataRepository geoDataRepository;
+    private final GeoDataCacheService geoDataCacheService;
     private final ItineraryTaskManagerService taskManagerService;
+    private final SessionService sessionService;
+    private final OutboxService outboxService;
+    private final RouteResultCacheService routeResultCacheService;
+    private final IdempotencyService idempotencyService;
+    private final ProgressWriteBehindService progressWriteBehindService;
+    private final ItineraryArchiveService itineraryArchiveService;
+    private final ReplicaRouter replicaRouter;
+    private final ShardRouter shardRouter;
     private final ItineraryMapper itineraryMapper;
+    private final ItineraryProjectionMapper itineraryProjectionMapper;
 
-    @Transactional // If something fail -> rollback all.
+    @Transactional
     public ItineraryResponseDTO createItinerary(@NotNull ItineraryRequestDTO request, @Nullable String sessionId) {
+        return createItinerary(request, sessionId, null, null);
+    }
+
+    /**
+     * @param idempotencyKey if present, stored with the itinerary (same transaction) to answer retries with it
+     * @param requestHash fingerprint of the request, stored with the key
+     */
+    @Transactional // If something fail -> rollback all.
+    public ItineraryResponseDTO createItinerary(@NotNull ItineraryRequestDTO request, @Nullable String sessionId,
+                                                @Nullable String idempotencyKey, @Nullable String requestHash) {
         log.info("Creating new itinerary. Title: '{}', SessionID provided: {}", request.getTitle(), sessionId != null);
 
         // If session id passed is not present in db -> error
-        if(sessionId != null && !sessionId.isBlank()) {
-            itineraryRepository.findFirstBySessionId(sessionId)
-                .orElseThrow(() -> {
-                    log.error("This session ID: {}, is not valid.", sessionId);
-                    return new ResponseStatusException(
-                            HttpStatus.BAD_REQUEST,
-                            "This session ID: " + sessionId + ", is not valid."
-                    );
-                });
+        String finalSessionId;
+        if (sessionId != null && !sessionId.isBlank()) {
+            if (!sessionService.exists(sessionId)) {
+                log.error("This session ID: {}, is not valid.", sessionId);
+                throw new ResponseStatusException(
+                        HttpStatus.BAD_REQUEST,
+                        "This session ID: " + sessionId + ", is not valid."
+                );
+            }
+            finalSessionId = sessionId;
+        } else {
+            finalSessionId = sessionService.createSession().getId();
+            // New session: no statement run by this transaction yet (UUID assigned at persist, inserted at flush),
+            // so its connection is taken on the shard of the new session. Bound until the transaction ends
+            ShardContext.bindForTransaction(shardRouter.shardOf(finalSessionId));
         }
 
-        String finalSessionId = (sessionId == null || sessionId.isBlank())
-                ? UUID.randomUUID().toString()
-                : sessionId;
-
         // Create new itinerary entity
         Itinerary newItinerary = Itinerary.builder()
                 .title(request.getTitle())
@@ -67,8 +99,26 @@ public class ItineraryService {
 
         newItinerary.setItineraryLocations(createLocations(newItinerary, request.getLocations()));
 
+        // Same route already computed -> completed right away, never queued
+        Optional<RouteResult> cachedRoute = findCachedRoute(newItinerary);
+        cachedRoute.ifPresent(route -> {
+            newItinerary.setStatus(Status.COMPLETED);
+            newItinerary.setRouteDistanceKm(route.getDistanceKm());
+            newItinerary.setProcessedStops(newItinerary.getItineraryLocations().size());
+        });
+
         // Saved itinerary
         Itinerary savedItinerary = itineraryRepository.save(newItinerary);
+        sessionService.registerItinerary(finalSessionId);
+        // Next reads of this session from the primary, until replicas have this itinerary
+        replicaRouter.markWritten(finalSessionId);
+        if (idempotencyKey != null) {
+            idempotencyService.record(idempotencyKey, requestHash, savedItinerary);
+        }
+        // Processed once committed
+        if (cachedRoute.isEmpty()) {
+            outboxService.enqueue(savedItinerary.getId());
+        }
 
         log.info("Itinerary created successfully. ID: {}, SessionID: {}", savedItinerary.getId(), savedItinerary.getSessionId());
 
@@ -77,23 +127,31 @@ public class ItineraryService {
     }
 
     @Transactional
-    public ItineraryResponseDTO updateItinerary(@NotBlank String sessionId, @NotBlank String id, @NotNull ItineraryRequestDTO request) {
+    public ItineraryResponseDTO updateItinerary(@NotBlank String sessionId, @NotBlank String id, @NotNull ItineraryRequestDTO request,
+                                                @Nullable Long expectedVersion) {
         log.info("Updating itinerary ID: {} for SessionID: {}", id, sessionId);
 
-        Itinerary itinerary = itineraryRepository.findByIdWithLocationsAndGeoData(sessionId, id)
+        Itinerary itinerary = itineraryRepository.findByIdWithLocations(sessionId, id)
                 .orElseThrow(() -> {
                     log.error("Itinerary to update not found with ID: {}.", id);
-                    return new ResponseStatusException(
-                            HttpStatus.NOT_FOUND,
-                            "No itinerary found for sessionId: " + sessionId + " and ID: : " + id
-                    );
+                    return notFoundOrArchived(sessionId, id);
                 });
 
+        checkVersion(itinerary, expectedVersion);
+        replicaRouter.markWritten(sessionId);
+        attachGeoData(itinerary);
+
         List<ItineraryLocation> newLocations = createLocations(itinerary, request.getLocations());
         itinerary.setTitle(request.getTitle());
         itinerary.setItineraryLocations(newLocations);
 
+        Optional<RouteResult> cachedRoute = findCachedRoute(itinerary);
+        if (cachedRoute.isPresent()) {
+            return itineraryMapper.toDTO(completeFromCache(itinerary, cachedRoute.get()));
+        }
+
         Itinerary itineraryUpdated = taskManagerService.handleUpdateInQueue(itinerary);
+        outboxService.enqueue(id);
 
         log.info("Itinerary ID: {} updated and sent to queue.", id);
 
@@ -101,15 +159,19 @@ public class ItineraryService {
     }
 
     @Transactional
-    public ItineraryResponseDTO updateNextStop(@NotBlank String sessionId, @NotBlank String id) {
+    public ItineraryResponseDTO updateNextStop(@NotBlank String sessionId, @NotBlank String id, @Nullable Long expectedVersion) {
         log.info("Updating next stop request for itinerary ID: {} - SessionID: {}", id, sessionId);
 
-        Itinerary itinerary = itineraryRepository.findByIdWithLocationsAndGeoData(sessionId, id)
+        Itinerary itinerary = itineraryRepository.findByIdWithLocations(sessionId, id)
                 .orElseThrow(() -> {
                     log.error("Itinerary not found. ID: {}", id);
-                    return new ResponseStatusException(HttpStatus.NOT_FOUND, "Itinerary not found");
+                    return notFoundOrArchived(sessionId, id);
                 });
 
+        checkVersion(itinerary, expectedVersion);
+        replicaRouter.markWritten(sessionId);
+        attachGeoData(itinerary);
+
         List<ItineraryLocation> locations = itinerary.getItineraryLocations();
 
         // 1. Find location with active current stop. If no one, value will be null
@@ -148,8 +210,15 @@ public class ItineraryService {
                     (currentStop != null ? currentStop.getOrderIndex() : "START"),
                     nextStop.getOrderIndex());
 
-            // Update db and rerun worker
+            // Same remaining route already computed -> no rerun
+            Optional<RouteResult> cachedRoute = findCachedRoute(itinerary);
+            if (cachedRoute.isPresent()) {
+                return itineraryMapper.toDTO(completeFromCache(itinerary, cachedRoute.get()));
+            }
+
+            // Update db and rerun worker (once committed)
             Itinerary itineraryUpdated = taskManagerService.handleUpdateInQueue(itinerary);
+            outboxService.enqueue(id);
             return itineraryMapper.toDTO(itineraryUpdated);
 
         } else {
@@ -161,18 +230,53 @@ public class ItineraryService {
         }
     }
 
+    // Read-only: flat projection rows, no entities in the persistence context. Progress not written yet merged in.
+    // Archived itineraries (finished) merged in creation order with the hot ones
+    @Transactional(readOnly = true)
     public List<ItineraryResponseDTO> getList(@NotBlank String sessionId, @Nullable Status status) {
         log.info("Retrieving itinerary list. SessionID: {}, Status Filter: {}", sessionId, status);
 
-        return itineraryRepository.findBySessionIdAndStatus(sessionId, status).stream()
-                .map(itineraryMapper::toDTO)
-                .toList();
+        List<ItineraryResponseDTO> itineraries = itineraryProjectionMapper.toDTOs(itineraryRepository.findRowsBySessionIdAndStatus(sessionId, status));
+        itineraries.forEach(progressWriteBehindService::merge);
+
+        if (isFinalOrAny(status)) {
+            itineraries.addAll(itineraryArchiveService.findAll(sessionId, status));
+            itineraries.sort(CREATION_ORDER);
+        }
+        return itineraries;
     }
 
+    @Transactional(readOnly = true)
     public ItineraryResponseDTO getById(@NotBlank String sessionId, @NotBlank String id) {
         log.info("Fetching itinerary details. ID: {}, SessionID: {}", id, sessionId);
 
-        Itinerary itinerary = itineraryRepository.findByIdWithLocationsAndGeoData(sessionId, id)
+        List<ItineraryLocationRow> rows = itineraryRepository.findRowsById(sessionId, id);
+
+        if (rows.isEmpty()) {
+            // Read-through: finished and archived
+            return itineraryArchiveService.find(sessionId, id)
+                    .orElseThrow(() -> {
+                        log.error("Itinerary not found with ID: {}.", id);
+                        return new ResponseStatusException(
+                                HttpStatus.NOT_FOUND,
+                                "No itinerary found for sessionId: " + sessionId + " and ID: : " + id
+                        );
+                    });
+        }
+
+        ItineraryResponseDTO itinerary = itineraryProjectionMapper.toDTOs(rows).get(0);
+        progressWriteBehindService.merge(itinerary);
+        return itinerary;
+    }
+
+    /**
+     * Cheap lookup (no locations) of what identifies the current state of an itinerary
+     */
+    @Transactional(readOnly = true)
+    public ItineraryVersionRow getVersion(@NotBlank String sessionId, @NotBlank String id) {
+        return itineraryRepository.findVersionById(sessionId, id)
+                .map(progressWriteBehindService::merge)
+                .or(() -> itineraryArchiveService.findVersion(sessionId, id))
                 .orElseThrow(() -> {
                     log.error("Itinerary not found with ID: {}.", id);
                     return new ResponseStatusException(
@@ -180,8 +284,99 @@ public class ItineraryService {
                             "No itinerary found for sessionId: " + sessionId + " and ID: : " + id
                     );
                 });
+    }
+
+    /**
+     * Same of getVersion, for the itineraries that getList would return
+     */
+    @Transactional(readOnly = true)
+    public List<ItineraryVersionRow> getVersions(@NotBlank String sessionId, @Nullable Status status) {
+        List<ItineraryVersionRow> versions = new ArrayList<>(itineraryRepository.findVersionsBySessionIdAndStatus(sessionId, status).stream()
+                .map(progressWriteBehindService::merge)
+                .toList());
+
+        if (isFinalOrAny(status)) {
+            versions.addAll(itineraryArchiveService.findVersions(sessionId, status));
+        }
+        return versions;
+    }
+
+    // Only finished itineraries are archived
+    private static boolean isFinalOrAny(@Nullable Status status) {
+        return status == null || status == Status.COMPLETED || status == Status.FAILED;
+    }
 
-        return itineraryMapper.toDTO(itinerary);
+    // Archived itineraries are read-only: 409 instead of 404
+    private ResponseStatusException notFoundOrArchived(String sessionId, String id) {
+        if (itineraryArchiveService.findVersion(sessionId, id).isPresent()) {
+            log.warn("Itinerary ID: {} is archived. Changes refused.", id);
+            return new ResponseStatusException(HttpStatus.CONFLICT, "Itinerary " + id + " is archived and can't be changed anymore.");
+        }
+        return new ResponseStatusException(
+                HttpStatus.NOT_FOUND,
+                "No itinerary found for sessionId: " + sessionId + " and ID: : " + id
+        );
+    }
+
+    // If-Match: client copy must be the current version. Changes after this check are caught by the optimistic lock
+    private void checkVersion(@NotNull Itinerary itinerary, @Nullable Long expectedVersion) {
+        if (expectedVersion != null && expectedVersion != itinerary.getVersion()) {
+            log.warn("Itinerary ID: {} version mismatch. Expected: {}, Current: {}",
+                    itinerary.getId(), expectedVersion, itinerary.getVersion());
+            throw new ResponseStatusException(
+                    HttpStatus.PRECONDITION_FAILED,
+                    "Itinerary was modified (current version: " + itinerary.getVersion() + "). Reload it and retry."
+            );
+        }
+    }
+
+    // Route result of the itinerary stops as they are now (not persisted yet)
+    private Optional<RouteResult> findCachedRoute(@NotNull Itinerary itinerary) {
+        List<ItineraryLocation> stops = itinerary.getItineraryLocations().stream()
+                .sorted(Comparator.comparingInt(ItineraryLocation::getOrderIndex))
+                .toList();
+
+        int currentStopIndex = 0;
+        for (int i = 0; i < stops.size(); i++) {
+            if (stops.get(i).isCurrentStop()) {
+                currentStopIndex = i;
+                break;
+            }
+        }
+
+        return routeResultCacheService.find(RouteResultCacheService.key(
+                stops.stream().map(location -> location.getGeoData().getId()).toList(), currentStopIndex,
+                geoDataCacheService.checksum()));
+    }
+
+    // Like handleUpdateInQueue, but straight to COMPLETED: a running task sees the new version and stops
+    private Itinerary completeFromCache(@NotNull Itinerary itinerary, @NotNull RouteResult route) {
+        itinerary.setStatus(Status.COMPLETED);
+        itinerary.setRouteDistanceKm(route.getDistanceKm());
+        itinerary.setProcessedStops(itinerary.getItineraryLocations().size());
+        itinerary.setUpdatedAt(LocalDateTime.now());
+        itineraryRepository.saveAndFlush(itinerary);
+
+        log.info("Itinerary ID: {} route already computed. Completed from route cache, not queued.", itinerary.getId());
+
+        return itinerary;
+    }
+
+    // GeoData of the loaded locations (lazy references, not on this shard) from the geo cache
+    private void attachGeoData(@NotNull Itinerary itinerary) {
+        List<ItineraryLocation> locations = itinerary.getItineraryLocations();
+        if (locations.isEmpty()) return;
+
+        Map<Long, GeoData> geoDataMap = geoDataCacheService.findAllById(locations.stream()
+                .map(location -> location.getGeoData().getId())
+                .toList());
+
+        for (ItineraryLocation location : locations) {
+            GeoData geoData = geoDataMap.get(location.getGeoData().getId());
+            if (geoData != null) {
+                location.setGeoData(geoData);
+            }
+        }
     }
 
     private List<ItineraryLocation> createLocations(@NotNull Itinerary entity, @NotNull List<ItineraryRequestDTO.LocationRequest> request) {
@@ -191,17 +386,15 @@ public class ItineraryService {
                 .map(ItineraryRequestDTO.LocationRequest::getGeoId)
                 .toList();
 
-        List<GeoData> geoDataList = geoDataRepository.findAllById(geoIds);
+        // Map<ID, GeoData>, resolved from cache (SQL on the home shard only for ids not cached)
+        Map<Long, GeoData> geoDataMap = geoDataCacheService.findAllById(geoIds);
 
-        if (geoDataList.size() != geoIds.size()) {
-            log.warn("GeoData mismatch. Requested IDs count: {}, Found in DB: {}", geoIds.size(), geoDataList.size());
+        // Same stop twice is refused too: one location per GeoData in an itinerary
+        if (geoDataMap.size() != geoIds.size()) {
+            log.warn("GeoData mismatch. Requested IDs count: {}, Found in cache: {}", geoIds.size(), geoDataMap.size());
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "One or more GeoData IDs provided do not exist.");
         }
 
-        // Map<ID, GeoData>
-        Map<Long, GeoData> geoDataMap = geoDataList.stream()
-                .collect(Collectors.toMap(GeoData::getId, geo -> geo));
-
         List<ItineraryLocation> locationsToRet = new ArrayList<>();
 
         for (ItineraryRequestDTO.LocationRequest locDto : request) {
@@ -1,5 +1,7 @@
 package com.github.manueldepaduanisdev.tripplanner.services;
 
+import com.github.manueldepaduanisdev.tripplanner.config.ShardContext;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
 import com.github.manueldepaduanisdev.tripplanner.domain.Itinerary;
 import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
 import com.github.manueldepaduanisdev.tripplanner.repositories.ItineraryRepository;
@@ -7,19 +9,24 @@ import jakarta.annotation.Nullable;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Task Manager in which a running task can be updated and could be stopped
+ * Task Manager in which itinerary tasks are debounced and coalesced: at most one task per itinerary,
+ * updates of a running itinerary are picked up by its worker instead of restarting it
  */
 @Service
 @Slf4j
@@ -28,87 +35,183 @@ public class ItineraryTaskManagerService {
 
     private final ItineraryWorkerService workerService;
     private final ItineraryRepository itineraryRepository;
+    private final ShardRouter shardRouter;
 
-    // Used Concurrent because many users (threads), could access to this Map simultaneously
-    private final Map<String, Future<?>> activeTasks = new ConcurrentHashMap<>();
+    // Used Concurrent because many users (threads), could access to this Map simultaneously.
+    // Entries are immutable and replaced only inside compute() (lock of the key bin, no global lock):
+    // every transition of an itinerary is atomic, transitions of different itineraries don't block each other
+    private final Map<String, TaskState> activeTasks = new ConcurrentHashMap<>();
+
+    // Generation of each run: a run can only change the entry it created (no late removal of a newer run)
+    private final AtomicLong generations = new AtomicLong();
 
     private final Long threadSleepTime;
+    private final long coalesceWindow;
+    // Stops computed at the same time (1 if processed one after the other)
+    private final int stopConcurrency;
+    private final TaskScheduler taskScheduler;
 
     public ItineraryTaskManagerService(
             ItineraryWorkerService workerService,
             ItineraryRepository itineraryRepository,
-            @Value("${app.thread.time-per-location}") Long threadSleepTime
+            ShardRouter shardRouter,
+            @Value("${app.thread.time-per-location}") Long threadSleepTime,
+            @Value("${app.thread.coalesce-window:500}") long coalesceWindow,
+            @Value("${app.worker.parallel.enabled:true}") boolean parallelStops,
+            @Value("${app.worker.parallel.max-concurrency:64}") int maxConcurrency,
+            @Qualifier("coalesceTaskScheduler") @Nullable TaskScheduler taskScheduler
     ) {
         this.workerService = workerService;
         this.itineraryRepository = itineraryRepository;
+        this.shardRouter = shardRouter;
         this.threadSleepTime = threadSleepTime;
-        log.info("ItineraryTaskManagerService initialized. Configured sleep time per location: {} ms", threadSleepTime);
+        this.coalesceWindow = taskScheduler == null ? 0L : coalesceWindow;
+        this.stopConcurrency = parallelStops ? Math.max(1, maxConcurrency) : 1;
+        this.taskScheduler = taskScheduler;
+        log.info("ItineraryTaskManagerService initialized. Configured sleep time per location: {} ms, coalesce window: {} ms",
+                threadSleepTime, this.coalesceWindow);
     }
 
     /**
-     * Method in which is created a new process itinerary task and send it to queue.
+     * Method in which a process itinerary task is requested.
+     * Requests arriving within the coalesce window are merged in a single task, started when the window ends.
+     * Requests for a running task are merged in it: its worker picks the newest version up (or runs once more).
      * @param itineraryId To find and process itinerary
+     * @return task, completed when the worker has processed every request merged in it
+     * @throws org.springframework.core.task.TaskRejectedException if the executor is full (no window only:
+     *         with a window the returned task completes with it)
      */
-    public void submitTask(@NotBlank String itineraryId) {
+    public CompletableFuture<Void> submitTask(@NotBlank String itineraryId) {
         log.info("Submitting new asynchronous task for itinerary ID: {}", itineraryId);
 
-        CompletableFuture<Void> future = workerService.processItinerary(itineraryId);
-        activeTasks.put(itineraryId, future);
+        TaskState created = new TaskState(generations.incrementAndGet(), Phase.WAITING, new CompletableFuture<>());
+        TaskState task = activeTasks.compute(itineraryId, (id, current) -> {
+            if (current == null) return created;
 
-        future.whenComplete((result, exception) -> {
-            activeTasks.remove(itineraryId);
-            if (exception != null) {
-                log.error("Task for itinerary ID: {} failed with exception.", itineraryId, exception);
-            } else {
-                log.info("Task for itinerary ID: {} completed successfully. Removed from active tasks map.", itineraryId);
-            }
+            // Running -> the worker could already be past its last checkpoint: run once more at the end
+            return current.phase() == Phase.RUNNING ? current.with(Phase.RERUN) : current;
         });
 
-        log.info("Task registered and running for id: {}", itineraryId);
+        if (task != created) {
+            log.info("Task for itinerary ID: {} already {} (generation {}). Request merged into it.",
+                    itineraryId, task.phase(), task.generation());
+            return task.done();
+        }
+
+        if (coalesceWindow <= 0) {
+            dispatch(itineraryId, task.generation(), true);
+        } else {
+            // Started on the shard of the itinerary (the one of this thread)
+            taskScheduler.schedule(ShardContext.wrap(() -> dispatch(itineraryId, task.generation(), false)),
+                    Instant.now().plusMillis(coalesceWindow));
+            log.info("Task for itinerary ID: {} will start in {} ms, merging requests until then.", itineraryId, coalesceWindow);
+        }
+
+        return task.done();
     }
 
     /**
-     * If is present a running task with the key passed:
-     * COMPLETED -> Nothing
-     * QUEUED/PROCESSING -> Stop it, get updated one, change status and restart it.
-     * @param itineraryToUpdate key to get active tasks in threads pool
+     * Itinerary updated by a user: reset to QUEUED, version bumped.
+     * A running task is not stopped: its worker sees the new version at the next stop and continues with it.
+     * @param itineraryToUpdate itinerary changed
      */
     public Itinerary handleUpdateInQueue(@NotNull Itinerary itineraryToUpdate) {
         String itineraryId = itineraryToUpdate.getId();
-        log.info("Handling update request (stop & requeue) for itinerary ID: {}", itineraryId);
-
-        Future<?> runningTask = activeTasks.get(itineraryId);
-
-        if (runningTask != null) {
-            // If task is running
-            if (!runningTask.isDone()) {
-                // This will force the InterruptedException in WorkerService.
-                boolean cancelled = runningTask.cancel(true);
-                log.info("Attempted to stop running task for itinerary ID: {}. Result: {}",
-                        itineraryId, cancelled ? "SUCCESS" : "FAIL");
-            } else {
-                log.info("Task for itinerary ID: {} was found in map but is already done.", itineraryId);
-            }
-            // Clean not at all running task
-            activeTasks.remove(itineraryId);
-        } else {
-            log.info("No active task found to cancel for itinerary ID: {}. Proceeding with status update.", itineraryId);
+        log.info("Handling update request (requeue) for itinerary ID: {}", itineraryId);
+
+        TaskState activeTask = activeTasks.get(itineraryId);
+        if (activeTask != null) {
+            log.info("Task for itinerary ID: {} is {}. It will process the updated version.", itineraryId, activeTask.phase());
         }
 
         itineraryToUpdate.setStatus(Status.QUEUED);
-        itineraryRepository.save(itineraryToUpdate);
+        // Progress is of the processed version: the new one starts over (stops already computed are counted again quickly)
+        itineraryToUpdate.setProcessedStops(0);
+        // Always dirty: the whole row is written back (status included, even if the worker changed it after our read)
+        // and the version is bumped, so the worker can't apply status transitions on the old version anymore.
+        // Flushed now to surface version conflicts here and return the new version.
+        itineraryToUpdate.setUpdatedAt(LocalDateTime.now());
+        itineraryRepository.saveAndFlush(itineraryToUpdate);
 
         log.info("Itinerary ID: {} status reset to QUEUED and saved.", itineraryId);
 
         return itineraryToUpdate;
     }
 
-    public long calculateTimeRemaining(@NotBlank String itineraryId, @Nullable LocalDateTime date) {
+    // WAITING -> RUNNING of the given generation, then start the worker
+    private void dispatch(String itineraryId, long generation, boolean rethrowRejection) {
+        TaskState running = activeTasks.computeIfPresent(itineraryId, (id, current) ->
+                current.generation() == generation && current.phase() == Phase.WAITING ? current.with(Phase.RUNNING) : current);
+
+        if (running == null || running.generation() != generation || running.phase() != Phase.RUNNING) {
+            log.warn("Task generation {} for itinerary ID: {} is not waiting anymore. Dispatch skipped.", generation, itineraryId);
+            return;
+        }
+
+        CompletableFuture<Void> future;
+        try {
+            future = workerService.processItinerary(itineraryId);
+        } catch (RuntimeException ex) {
+            // Executor full (or worker failed to start): nothing runs, the requests have to be submitted again
+            activeTasks.computeIfPresent(itineraryId, (id, current) -> current.generation() == generation ? null : current);
+            running.done().completeExceptionally(ex);
+            log.warn("Task for itinerary ID: {} not started: {}", itineraryId, ex.getMessage());
+
+            if (rethrowRejection) throw ex;
+            return;
+        }
+
+        log.info("Task registered and running for id: {} (generation {})", itineraryId, generation);
+
+        future.whenComplete((result, exception) -> complete(itineraryId, generation, exception));
+    }
+
+    // RUNNING -> removed, or RERUN -> WAITING under a new generation and started again
+    private void complete(String itineraryId, long generation, @Nullable Throwable exception) {
+        TaskState[] ended = new TaskState[1];
+        TaskState next = activeTasks.computeIfPresent(itineraryId, (id, current) -> {
+            if (current.generation() != generation) return current;
+
+            ended[0] = current;
+            return current.phase() == Phase.RERUN
+                    ? new TaskState(generations.incrementAndGet(), Phase.WAITING, current.done())
+                    : null;
+        });
+
+        if (ended[0] == null) {
+            log.warn("Task generation {} for itinerary ID: {} ended but its entry was already replaced.", generation, itineraryId);
+            return;
+        }
+
+        if (next != null && next.done() == ended[0].done()) {
+            log.info("Task for itinerary ID: {} ended with requests merged while running. Running again (generation {}).",
+                    itineraryId, next.generation());
+            dispatch(itineraryId, next.generation(), false);
+        } else if (exception != null) {
+            log.error("Task for itinerary ID: {} failed with exception.", itineraryId, exception);
+            ended[0].done().completeExceptionally(exception);
+        } else {
+            log.info("Task for itinerary ID: {} completed successfully. Removed from active tasks map.", itineraryId);
+            ended[0].done().complete(null);
+        }
+    }
+
+    // Itineraries with a task waiting or running
+    int activeTaskCount() {
+        return activeTasks.size();
+    }
+
+    // Queue aggregate, read-only: served by a replica when there's one.
+    // The worker pool is one for every shard: itineraries ahead are counted on every shard (scatter-gather)
+    @Transactional(readOnly = true)
+    public long calculateTimeRemaining(@NotBlank String sessionId, @NotBlank String itineraryId, @Nullable LocalDateTime date) {
         if (itineraryId == null || itineraryId.isBlank()) return 0L;
 
         LocalDateTime comparisonDate = date;
         if (comparisonDate == null) {
-            Optional<Itinerary> currentItinerary = itineraryRepository.findById(itineraryId);
+            // Itinerary on the shard of its session
+            Integer shard = sessionId == null ? ShardContext.get() : Integer.valueOf(shardRouter.shardOf(sessionId));
+            Optional<Itinerary> currentItinerary = ShardContext.callOn(shard, () -> itineraryRepository.findById(itineraryId));
             if (currentItinerary.isEmpty()) {
                 log.warn("Cannot calculate time remaining: Itinerary ID {} not found in DB.", itineraryId);
                 return 0L;
@@ -117,12 +220,32 @@ public class ItineraryTaskManagerService {
             comparisonDate = currentItinerary.get().getUpdatedAt();
         }
 
-        var countLocations = itineraryRepository.countLocations(itineraryId, comparisonDate);
-        long estimatedTime = (countLocations * threadSleepTime) / 1000;
+        LocalDateTime queuedBefore = comparisonDate;
+        long countLocations = shardRouter.scatter(shard -> itineraryRepository.countLocations(itineraryId, queuedBefore)).stream()
+                .mapToLong(Long::longValue)
+                .sum();
+        // Stops ahead are computed min(locations, max-concurrency) at a time
+        long parallelism = Math.max(1, Math.min(countLocations, stopConcurrency));
+        long estimatedTime = (Math.ceilDiv(countLocations, parallelism) * threadSleepTime) / 1000;
 
         log.debug("Calculated time remaining for itinerary ID: {}. Locations remaining: {}, Est. Seconds: {}",
                 itineraryId, countLocations, estimatedTime);
 
         return estimatedTime;
     }
-}
\ No newline at end of file
+
+    private enum Phase {
+        // Coalesce window open, worker not started yet
+        WAITING,
+        RUNNING,
+        // Running, and requests arrived meanwhile: run once more at the end
+        RERUN
+    }
+
+    // One per itinerary with a task waiting or running. done is shared by every request merged in the task
+    private record TaskState(long generation, Phase phase, CompletableFuture<Void> done) {
+        TaskState with(Phase newPhase) {
+            return new TaskState(generation, newPhase, done);
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package com.github.manueldepaduanisdev.tripplanner.services;
 
-import com.github.manueldepaduanisdev.tripplanner.domain.Itinerary;
-import com.github.manueldepaduanisdev.tripplanner.domain.ItineraryLocation;
+import com.github.manueldepaduanisdev.tripplanner.domain.RouteResult;
 import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryWorkRow;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoDataResponseDTO;
 import com.github.manueldepaduanisdev.tripplanner.repositories.ItineraryRepository;
 import jakarta.validation.constraints.NotBlank;
 import lombok.RequiredArgsConstructor;
@@ -14,7 +15,14 @@ import org.springframework.stereotype.Service;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This service handles "large computations" in background (asynchronously)
@@ -26,12 +34,25 @@ import java.util.concurrent.CompletableFuture;
 public class ItineraryWorkerService {
 
     private final ItineraryRepository itineraryRepository;
+    private final GeoDataCacheService geoDataCacheService;
+
+    private final StopFanOutService stopFanOutService;
+    private final RouteResultCacheService routeResultCacheService;
+    private final ProgressWriteBehindService progressWriteBehindService;
+
+    // Mean Earth radius
+    private static final double EARTH_RADIUS_KM = 6371.0088;
 
     @Value("${app.thread.time-per-location}")
     private Long threadSleepTime;
 
+    // Stops of an itinerary processed in parallel (virtual threads) instead of one after the other
+    @Value("${app.worker.parallel.enabled:true}")
+    private boolean parallelStops;
+
     /**
-     *
+     * Process the latest version of the itinerary. Changes made while processing are picked up at the next stop
+     * (checkpoint) by this same task: no restart, and stops already computed are not computed again.
      * @param itineraryId needed to find the itinerary saved on id and process it
      * @return Future
      */
@@ -39,50 +60,243 @@ public class ItineraryWorkerService {
     public CompletableFuture<Void> processItinerary(@NotBlank String itineraryId) {
         log.info("Async worker started. Processing itinerary ID: {}", itineraryId);
 
-        // Get itinerary
-        Itinerary itinerary = itineraryRepository.findByIdWithLocationsAndGeoData(null, itineraryId)
-                .orElseThrow(() -> {
-                    log.error("Worker failed: Itinerary not found in DB for ID: {}", itineraryId);
-                    return new ResponseStatusException(
-                            HttpStatus.NOT_FOUND,
-                            "No itinerary found for ID: : " + itineraryId
-                    );
-                });
+        // Get version and stops only (single read, no entities): Status writes below are single-row updates
+        List<ItineraryWorkRow> rows = itineraryRepository.findWorkRowsById(itineraryId);
+
+        if (rows.isEmpty()) {
+            log.error("Worker failed: Itinerary not found in DB for ID: {}", itineraryId);
+            throw new ResponseStatusException(
+                    HttpStatus.NOT_FOUND,
+                    "No itinerary found for ID: : " + itineraryId
+            );
+        }
 
-        // Change status to PROCESSING and save it
-        log.info("Itinerary ID: {} found. Locations to process: {}. Setting status to PROCESSING.",
-                itineraryId, itinerary.getItineraryLocations().size());
+        // Stops already computed by this task: a newer version only computes the ones it added.
+        // Written by the stop subtasks when processed in parallel
+        Set<Long> processedGeoIds = ConcurrentHashMap.newKeySet();
+
+        while (rows != null) {
+            rows = processVersion(itineraryId, rows, processedGeoIds);
+        }
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * @param rows version to process
+     * @return rows of a newer version to continue with, null if there's nothing else to do
+     */
+    private List<ItineraryWorkRow> processVersion(String itineraryId, List<ItineraryWorkRow> rows, Set<Long> processedGeoIds) {
+        // Every status change below is applied only if nobody changed the itinerary after this read
+        long version = rows.get(0).version();
+        List<ItineraryWorkRow> stops = rows.stream()
+                .filter(row -> row.geoId() != null)
+                .toList();
+        List<Long> geoIds = stops.stream()
+                .map(ItineraryWorkRow::geoId)
+                .toList();
+
+        // Remaining route starts from the current stop (first one if none)
+        int currentStopIndex = Math.max(0, IntStream.range(0, stops.size())
+                .filter(i -> Boolean.TRUE.equals(stops.get(i).currentStop()))
+                .findFirst()
+                .orElse(0));
+        // Coordinates the route is computed with: a reload meanwhile stores it under the old dataset, never served
+        long geoChecksum = geoDataCacheService.checksum();
+        String routeKey = RouteResultCacheService.key(geoIds, currentStopIndex, geoChecksum);
+
+        // Same route already computed (by any session) -> completed without processing it again.
+        // Not counted: the service counted the lookup of this itinerary when it was created or changed
+        Optional<RouteResult> cached = routeResultCacheService.peek(routeKey);
+        if (cached.isPresent()) {
+            if (completeWithRoute(itineraryId, version, Status.QUEUED, cached.get().getDistanceKm())) {
+                log.info("Itinerary ID: {} completed from route cache. Distance: {} km", itineraryId, cached.get().getDistanceKm());
+                return null;
+            }
+            return rowsIfChanged(itineraryId, version);
+        }
 
-        itinerary.setStatus(Status.PROCESSING);
-        itineraryRepository.save(itinerary);
+        // Change status to PROCESSING
+        log.info("Itinerary ID: {} found at version {}. Locations to process: {}. Setting status to PROCESSING.",
+                itineraryId, version, geoIds.size());
+
+        if (!transitionStatus(itineraryId, version, Status.QUEUED, Status.PROCESSING)) {
+            // Tasks are delivered at least once: a duplicate or outdated one finds it already taken or changed
+            List<ItineraryWorkRow> newerRows = rowsIfChanged(itineraryId, version);
+            if (newerRows == null) {
+                log.info("Itinerary ID: {} is not QUEUED at version {} anymore. Task skipped.", itineraryId, version);
+            }
+            return newerRows;
+        }
 
         try {
-            // Doing compute stuff... (mocked)
-            for (ItineraryLocation loc : itinerary.getItineraryLocations()) {
-                String cityName = loc.getGeoData().getCity();
-                log.info("Processing location stop: [{}]. Simulating work for {} ms...", cityName, threadSleepTime);
+            boolean allStopsDone = parallelStops
+                    ? processInParallel(itineraryId, version, geoIds, processedGeoIds)
+                    : processSequentially(itineraryId, version, geoIds, processedGeoIds);
+
+            if (!allStopsDone) {
+                // Checkpoint: changed by a user -> go on with the newest version
+                log.info("Itinerary ID: {} changed while processing version {}. Picking up the newest one.", itineraryId, version);
+                return rowsIfChanged(itineraryId, version);
+            }
+
+            // Sequence-dependent stage, joined in stop order: remaining route from the current stop
+            List<GeoDataResponseDTO> route = geoIds.subList(currentStopIndex, geoIds.size()).stream()
+                    .map(geoDataCacheService::getDTO)
+                    .toList();
+            double distanceKm = routeDistanceKm(route);
+
+            log.info("Itinerary ID: {} route: {} ({} km)", itineraryId, geoIds.subList(currentStopIndex, geoIds.size()).stream()
+                    .map(this::cityName)
+                    .collect(Collectors.joining(" -> ")), distanceKm);
+
+            // Shared with every itinerary with the same route
+            routeResultCacheService.put(RouteResult.builder()
+                    .routeKey(routeKey)
+                    .distanceKm(distanceKm)
+                    .stopCount(geoIds.size())
+                    .geoChecksum(geoChecksum)
+                    .build());
 
-                Thread.sleep(threadSleepTime);
+            // Once it's completed, change itinerary status to COMPLETED (if it's still the processed version)
+            if (!completeWithRoute(itineraryId, version, Status.PROCESSING, distanceKm)) {
+                log.info("Itinerary ID: {} changed after the last stop of version {}. Picking up the newest one.", itineraryId, version);
+                return rowsIfChanged(itineraryId, version);
             }
 
-            // Once it's completed, change itinerary status to COMPLETED and save it
-            itinerary.setStatus(Status.COMPLETED);
-            itineraryRepository.save(itinerary);
             log.info("Itinerary processing finished successfully. Status set to COMPLETED for ID: {}", itineraryId);
 
             // Just for method sign
         } catch (InterruptedException ex) {
-            // If thread is interrupted (forced by update)
+            // If thread is interrupted (executor shutdown)
             log.warn("Worker thread INTERRUPTED for itinerary ID: {}. Stopping execution.", itineraryId);
             Thread.currentThread().interrupt();
         } catch (Exception e) {
-            // If any error was thrown, change itinerary status to FAILED and save it
+            // If any error was thrown, change itinerary status to FAILED
             log.error("Unexpected error occurred while processing itinerary ID: {}. Setting status to FAILED.", itineraryId, e);
 
-            itinerary.setStatus(Status.FAILED);
-            itineraryRepository.save(itinerary);
+            transitionStatus(itineraryId, version, Status.PROCESSING, Status.FAILED);
         }
 
-        return CompletableFuture.completedFuture(null);
+        return null;
+    }
+
+    /**
+     * Stops one after the other, checking before each one if the itinerary changed
+     * @return false if it changed (remaining stops not processed)
+     */
+    private boolean processSequentially(String itineraryId, long version, List<Long> geoIds, Set<Long> processedGeoIds)
+            throws Exception {
+        // Doing compute stuff... (mocked)
+        for (int i = 0; i < geoIds.size(); i++) {
+            Long geoId = geoIds.get(i);
+            if (!isCurrentVersion(itineraryId, version)) return false;
+
+            if (processedGeoIds.contains(geoId)) {
+                log.debug("Location stop with GeoData ID: {} already computed by this task. Skipped.", geoId);
+            } else {
+                processedGeoIds.add(computeStop(geoId));
+            }
+
+            progressWriteBehindService.record(itineraryId, version, i + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Stops not computed yet, all together on virtual threads (bounded globally). If the itinerary changes
+     * while waiting, every stop still running is cancelled.
+     * @return false if it changed (stops cancelled)
+     */
+    private boolean processInParallel(String itineraryId, long version, List<Long> geoIds, Set<Long> processedGeoIds)
+            throws Exception {
+        List<Long> pending = geoIds.stream()
+                .distinct()
+                .filter(geoId -> !processedGeoIds.contains(geoId))
+                .toList();
+
+        // Stops done for this version, written by the subtasks
+        Set<Long> done = ConcurrentHashMap.newKeySet();
+        done.addAll(processedGeoIds);
+        reportProgress(itineraryId, version, geoIds, done);
+
+        // Each stop kept as soon as it's computed: not computed again by the next version if this one is cancelled
+        List<Long> computed = stopFanOutService.map(pending, geoId -> {
+                    processedGeoIds.add(computeStop(geoId));
+                    done.add(geoId);
+                    reportProgress(itineraryId, version, geoIds, done);
+                    return geoId;
+                },
+                () -> isCurrentVersion(itineraryId, version),
+                Math.max(threadSleepTime, 100L));
+
+        return computed != null;
+    }
+
+    // Stops (positions) whose location is computed
+    private void reportProgress(String itineraryId, long version, List<Long> geoIds, Set<Long> done) {
+        progressWriteBehindService.record(itineraryId, version, (int) geoIds.stream().filter(done::contains).count());
+    }
+
+    // Independent per-stop stage
+    private Long computeStop(Long geoId) throws InterruptedException {
+        // Resolved from the in-memory geo store (no SQL)
+        log.info("Processing location stop: [{}]. Simulating work for {} ms...", cityName(geoId), threadSleepTime);
+
+        Thread.sleep(threadSleepTime);
+        return geoId;
+    }
+
+    // City of the stop, its id if the geo dataset doesn't have it (reloaded without it)
+    private String cityName(Long geoId) {
+        GeoDataResponseDTO geoData = geoDataCacheService.getDTO(geoId);
+        return geoData != null ? geoData.getCity() : "GeoData ID " + geoId;
+    }
+
+    // Sum of the legs (great-circle distance). Stops without coordinates are skipped
+    static double routeDistanceKm(List<GeoDataResponseDTO> route) {
+        double distanceKm = 0;
+        GeoDataResponseDTO previous = null;
+
+        for (GeoDataResponseDTO stop : route) {
+            if (stop == null || stop.getLatitude() == null || stop.getLongitude() == null) continue;
+
+            if (previous != null) {
+                distanceKm += haversineKm(previous.getLatitude(), previous.getLongitude(), stop.getLatitude(), stop.getLongitude());
+            }
+            previous = stop;
+        }
+
+        return distanceKm;
+    }
+
+    private static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.pow(Math.sin(dLat / 2), 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.pow(Math.sin(dLon / 2), 2);
+
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(a));
+    }
+
+    // Checkpoint: cheap PK read of the version
+    private boolean isCurrentVersion(String itineraryId, long version) {
+        return itineraryRepository.findCurrentVersion(itineraryId).orElse(version) == version;
+    }
+
+    // Rows of the itinerary if its version is not the one passed anymore, else null (taken by another delivery, or deleted)
+    private List<ItineraryWorkRow> rowsIfChanged(String itineraryId, long version) {
+        List<ItineraryWorkRow> rows = itineraryRepository.findWorkRowsById(itineraryId);
+        return rows.isEmpty() || rows.get(0).version() == version ? null : rows;
+    }
+
+    // Compare-and-set to COMPLETED with the route
+    private boolean completeWithRoute(String itineraryId, long version, Status expectedStatus, double distanceKm) {
+        return itineraryRepository.completeWithRoute(itineraryId, version, expectedStatus, distanceKm, LocalDateTime.now()) > 0;
+    }
+
+    // Compare-and-set of the status
+    private boolean transitionStatus(String itineraryId, long version, Status expectedStatus, Status status) {
+        return itineraryRepository.transitionStatus(itineraryId, version, expectedStatus, status, LocalDateTime.now()) > 0;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,166 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardContext;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
+import com.github.manueldepaduanisdev.tripplanner.domain.OutboxTask;
+import com.github.manueldepaduanisdev.tripplanner.repositories.ItineraryRepository;
+import com.github.manueldepaduanisdev.tripplanner.repositories.OutboxTaskRepository;
+import jakarta.validation.constraints.NotBlank;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Transactional outbox of itinerary tasks.
+ * Tasks are written with the itinerary change (same transaction) and relayed to the executor in batches:
+ * right after commit and periodically, so tasks refused by a full executor or left by a crash are not lost.
+ * Delivery is at-least-once: the worker ignores tasks whose itinerary is no longer QUEUED or was changed.
+ * Each shard has its own outbox (written with its itineraries): relayed one shard after the other,
+ * tasks run on the shard they come from.
+ */
+@Service
+@Slf4j
+@Validated
+public class OutboxService {
+
+    private final OutboxTaskRepository outboxTaskRepository;
+    private final ItineraryRepository itineraryRepository;
+    private final ItineraryTaskManagerService taskManagerService;
+    private final ShardRouter shardRouter;
+    private final Executor relayExecutor;
+    private final int batchSize;
+
+    // One relay at a time. A drain requested while another runs -> the running one does another pass
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicBoolean drainRequested = new AtomicBoolean(false);
+
+    public OutboxService(
+            OutboxTaskRepository outboxTaskRepository,
+            ItineraryRepository itineraryRepository,
+            ItineraryTaskManagerService taskManagerService,
+            ShardRouter shardRouter,
+            @Qualifier("outboxRelayExecutor") Executor relayExecutor,
+            @Value("${app.outbox.batch-size:100}") int batchSize
+    ) {
+        this.outboxTaskRepository = outboxTaskRepository;
+        this.itineraryRepository = itineraryRepository;
+        this.taskManagerService = taskManagerService;
+        this.shardRouter = shardRouter;
+        this.relayExecutor = relayExecutor;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Store a processing task for the itinerary. Must be called in the transaction that changes it:
+     * the task exists if and only if the change is committed.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueue(@NotBlank String itineraryId) {
+        outboxTaskRepository.save(OutboxTask.builder()
+                .itineraryId(itineraryId)
+                .build());
+
+        // Relay as soon as it's committed, without waiting for the next poll.
+        // On the relay thread: here the committed transaction is still bound and would swallow the relay writes
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    relayExecutor.execute(OutboxService.this::drain);
+                } catch (TaskRejectedException ex) {
+                    // A drain is already waiting: it will see this task too
+                    log.debug("Outbox drain already pending. Task for itinerary ID: {} will be relayed by it.", itineraryId);
+                }
+            }
+        });
+
+        log.debug("Processing task stored in outbox for itinerary ID: {}", itineraryId);
+    }
+
+    // Previous run ended: its in-memory queue is lost, everything not completed has to be dispatched again
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        shardRouter.forEachShard(shard -> recover(shard, LocalDateTime.now()));
+        drain();
+    }
+
+    private void recover(int shard, LocalDateTime now) {
+        int requeued = itineraryRepository.requeueProcessing(now);
+        int reset = outboxTaskRepository.resetDispatched();
+        int orphans = outboxTaskRepository.enqueueOrphans(now);
+        if (requeued > 0 || reset > 0 || orphans > 0) {
+            log.warn("Outbox recovery (shard {}): {} itineraries left processing, {} tasks dispatched by a previous run and {} queued itineraries without task. Dispatching them again.",
+                    shard, requeued, reset, orphans);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.outbox.poll-interval:1000}")
+    public void poll() {
+        drain();
+    }
+
+    /**
+     * Hand pending tasks to the executor, oldest first. Stops at the first rejection (executor full):
+     * the remaining tasks stay in the outbox for the next drain.
+     */
+    public void drain() {
+        drainRequested.set(true);
+
+        while (drainRequested.get() && draining.compareAndSet(false, true)) {
+            drainRequested.set(false);
+            try {
+                // A full executor stops the drain of that shard only: the others still get their turn
+                shardRouter.forEachShard(this::drainBatches);
+            } finally {
+                draining.set(false);
+            }
+        }
+    }
+
+    private void drainBatches(int shard) {
+        List<OutboxTask> batch;
+        do {
+            batch = outboxTaskRepository.findByDispatchedAtIsNullOrderByIdAsc(Limit.of(batchSize));
+
+            for (OutboxTask task : batch) {
+                CompletableFuture<Void> future;
+                try {
+                    future = taskManagerService.submitTask(task.getItineraryId());
+                } catch (TaskRejectedException ex) {
+                    log.warn("Executor full. {} outbox tasks (at least) left for the next drain.", batch.size());
+                    return;
+                }
+
+                outboxTaskRepository.markDispatched(task.getId(), LocalDateTime.now());
+
+                // Completed on the worker thread: back to the shard of the task
+                future.whenComplete((result, exception) -> ShardContext.runOn(shard, () -> {
+                    if (exception instanceof TaskRejectedException) {
+                        // Refused when its coalesce window ended: back to the outbox
+                        outboxTaskRepository.releaseDispatched(task.getId());
+                    } else {
+                        // Ended (completed or failed) -> delivered
+                        outboxTaskRepository.deleteById(task.getId());
+                    }
+                }));
+            }
+        } while (batch.size() == batchSize);
+    }
+}
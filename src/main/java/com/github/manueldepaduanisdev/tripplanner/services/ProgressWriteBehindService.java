@@ -0,0 +1,211 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardContext;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryVersionRow;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.ItineraryResponseDTO;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.annotation.Validated;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Write-behind of the worker progress (stops processed of the version being processed).
+ * Workers append to a lock-free ring buffer (many producers, one flusher). It's flushed in JDBC batches of single-row
+ * UPDATEs every flush-interval, or as soon as flush-size updates are waiting, keeping only the latest per itinerary.
+ * Progress only grows within a version, and updates of another version are dropped by the UPDATE itself:
+ * a late or repeated flush can't move it back.
+ * Not flushed progress is merged into reads, and everything is flushed on shutdown.
+ * Each update is written on the shard of the worker that recorded it.
+ */
+@Service
+@Slf4j
+@Validated
+public class ProgressWriteBehindService {
+
+    private static final String UPDATE_SQL =
+            "UPDATE itinerary SET processed_stops = ? WHERE id = ? AND version = ? AND processed_stops < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int flushSize;
+
+    // Ring buffer: producers claim a slot moving head, the flusher frees it moving tail
+    private final AtomicReferenceArray<Progress> slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+
+    // Latest progress not written yet, for reads. Map<itinerary ID, progress>
+    private final Map<String, Progress> pending = new ConcurrentHashMap<>();
+
+    public ProgressWriteBehindService(
+            JdbcTemplate jdbcTemplate,
+            @Value("${app.write-behind.capacity:1024}") int capacity,
+            @Value("${app.write-behind.flush-size:256}") int flushSize
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.flushSize = flushSize;
+
+        // Power of two: slot = sequence & mask
+        int slotsCount = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(slotsCount);
+        this.mask = slotsCount - 1;
+
+        log.info("ProgressWriteBehindService initialized. Buffer slots: {}, flush size: {}", slotsCount, flushSize);
+    }
+
+    /**
+     * Progress of the version being processed. Never blocks on the DB, unless the buffer is full.
+     */
+    public void record(@NotBlank String itineraryId, long version, int processedStops) {
+        Progress progress = new Progress(itineraryId, version, processedStops, ShardContext.get());
+        pending.merge(itineraryId, progress, Progress::latest);
+
+        if (!offer(progress)) {
+            // Full: make room, and write it directly if another thread is flushing
+            flush();
+            if (!offer(progress)) {
+                write(List.of(progress));
+            }
+        }
+
+        if (head.get() - tail >= flushSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Write everything buffered. One flusher at a time: returns immediately if another one is running.
+     */
+    @Scheduled(fixedDelayString = "${app.write-behind.flush-interval:200}")
+    public void flush() {
+        if (!flushing.compareAndSet(false, true)) return;
+
+        try {
+            // Last write wins per itinerary
+            Map<String, Progress> latest = new LinkedHashMap<>();
+            long end = head.get();
+
+            for (long sequence = tail; sequence < end; sequence++) {
+                int slot = (int) sequence & mask;
+
+                // Claimed, not published yet: its producer is between claim and set
+                Progress progress;
+                while ((progress = slots.get(slot)) == null) {
+                    Thread.onSpinWait();
+                }
+
+                slots.set(slot, null);
+                tail = sequence + 1;
+
+                latest.merge(progress.itineraryId(), progress, Progress::latest);
+            }
+
+            if (!latest.isEmpty()) {
+                write(latest.values());
+            }
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // A flush still running is completed by its thread: wait for it, then write the rest
+        while (flushing.get()) {
+            Thread.onSpinWait();
+        }
+        flush();
+
+        log.info("Worker progress flushed on shutdown.");
+    }
+
+    // --- Reads: merge progress not written yet ---
+
+    public void merge(@NotNull ItineraryResponseDTO itinerary) {
+        Progress progress = pending.get(itinerary.getId());
+
+        if (progress != null && itinerary.getVersion() != null && progress.version() == itinerary.getVersion()
+                && (itinerary.getProcessedStops() == null || progress.processedStops() > itinerary.getProcessedStops())) {
+            itinerary.setProcessedStops(progress.processedStops());
+        }
+    }
+
+    public ItineraryVersionRow merge(@NotNull ItineraryVersionRow row) {
+        Progress progress = pending.get(row.id());
+
+        if (progress == null || progress.version() != row.version() || progress.processedStops() <= row.processedStops()) {
+            return row;
+        }
+
+        return new ItineraryVersionRow(row.id(), row.version(), row.status(), progress.processedStops(), row.createdAt(), row.updatedAt());
+    }
+
+    // Buffer full -> false
+    private boolean offer(Progress progress) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= slots.length()) return false;
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        slots.set((int) sequence & mask, progress);
+        return true;
+    }
+
+    private void write(Collection<Progress> progresses) {
+        // One batch per shard. Map<shard (null: not bound), progress>
+        Map<Integer, List<Progress>> byShard = new LinkedHashMap<>();
+        for (Progress progress : progresses) {
+            byShard.computeIfAbsent(progress.shard(), shard -> new ArrayList<>()).add(progress);
+        }
+
+        byShard.forEach((shard, shardProgresses) -> ShardContext.runOn(shard, () -> writeBatch(shardProgresses)));
+    }
+
+    private void writeBatch(List<Progress> progresses) {
+        List<Object[]> batch = new ArrayList<>(progresses.size());
+        for (Progress progress : progresses) {
+            batch.add(new Object[]{progress.processedStops(), progress.itineraryId(), progress.version(), progress.processedStops()});
+        }
+
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, batch);
+        } catch (RuntimeException ex) {
+            // Progress only: the next update of the same itinerary carries it again
+            log.warn("Failed to write progress of {} itineraries.", batch.size(), ex);
+            return;
+        }
+
+        // Written: not pending anymore, unless a newer one arrived meanwhile
+        progresses.forEach(progress -> pending.remove(progress.itineraryId(), progress));
+
+        log.debug("Progress written for {} itineraries.", batch.size());
+    }
+
+    record Progress(String itineraryId, long version, int processedStops, Integer shard) {
+
+        static Progress latest(Progress current, Progress update) {
+            if (update.version() != current.version()) {
+                return update.version() > current.version() ? update : current;
+            }
+            return update.processedStops() >= current.processedStops() ? update : current;
+        }
+    }
+}
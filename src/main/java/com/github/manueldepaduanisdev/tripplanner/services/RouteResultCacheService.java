@@ -0,0 +1,182 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
+import com.github.manueldepaduanisdev.tripplanner.domain.RouteResult;
+import com.github.manueldepaduanisdev.tripplanner.repositories.RouteResultRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.annotation.Validated;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Route results by content: itineraries with the same ordered stops and current stop share the same result,
+ * whatever the session. In memory (LRU, size bounded) and optionally in route_result, to survive restarts.
+ * Keys include the geo dataset checksum: after a gazetteer change (import, reload) old results are never served,
+ * and are purged every purge-interval.
+ */
+@Service
+@Slf4j
+@Validated
+public class RouteResultCacheService {
+
+    private final RouteResultRepository routeResultRepository;
+    private final GeoDataCacheService geoDataCacheService;
+    private final ShardRouter shardRouter;
+    private final boolean persistent;
+
+    // LRU. Map<route key, result>
+    private final Map<String, RouteResult> results;
+
+    private final Counter hits;
+    private final Counter misses;
+    // Lookups of the warm-up workload: own meters, so route.cache.requests and the hit ratio count real traffic only
+    private final Counter warmUpHits;
+    private final Counter warmUpMisses;
+    private volatile boolean warmingUp;
+
+    public RouteResultCacheService(
+            RouteResultRepository routeResultRepository,
+            GeoDataCacheService geoDataCacheService,
+            ShardRouter shardRouter,
+            MeterRegistry meterRegistry,
+            @Value("${app.route-cache.max-entries:10000}") int maxEntries,
+            @Value("${app.route-cache.persistent:true}") boolean persistent
+    ) {
+        this.routeResultRepository = routeResultRepository;
+        this.geoDataCacheService = geoDataCacheService;
+        this.shardRouter = shardRouter;
+        this.persistent = persistent;
+        this.results = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RouteResult> eldest) {
+                return size() > maxEntries;
+            }
+        });
+
+        this.hits = Counter.builder("route.cache.requests").tag("result", "hit")
+                .description("Route result lookups served from cache").register(meterRegistry);
+        this.misses = Counter.builder("route.cache.requests").tag("result", "miss")
+                .description("Route result lookups to compute").register(meterRegistry);
+        this.warmUpHits = Counter.builder("route.cache.warm-up.requests").tag("result", "hit")
+                .description("Route result lookups of the warm-up served from cache").register(meterRegistry);
+        this.warmUpMisses = Counter.builder("route.cache.warm-up.requests").tag("result", "miss")
+                .description("Route result lookups of the warm-up to compute").register(meterRegistry);
+        Gauge.builder("route.cache.size", results, Map::size)
+                .description("Route results kept in memory").register(meterRegistry);
+        Gauge.builder("route.cache.hit.ratio", this, RouteResultCacheService::hitRatio)
+                .description("Route result lookups served from cache, over all lookups").register(meterRegistry);
+    }
+
+    /**
+     * @param orderedGeoIds stops, in order
+     * @param currentStopIndex position of the current stop in orderedGeoIds (0 if none)
+     * @param geoChecksum GeoDataCacheService.checksum of the coordinates the route is computed with
+     * @return content key of the route: SHA-256, hex
+     */
+    public static String key(@NotNull List<Long> orderedGeoIds, int currentStopIndex, long geoChecksum) {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + Long.BYTES * orderedGeoIds.size());
+        buffer.putLong(geoChecksum);
+        buffer.putInt(currentStopIndex);
+        orderedGeoIds.forEach(buffer::putLong);
+
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(buffer.array()));
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JVM must provide SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Lookups from now on counted in route.cache.warm-up.requests, until warmUpEnded.
+     * Called before accepting traffic: every lookup meanwhile is of the warm-up
+     */
+    public void warmUpStarted() {
+        warmingUp = true;
+    }
+
+    public void warmUpEnded() {
+        warmingUp = false;
+    }
+
+    /**
+     * Lookup counted in route.cache.* metrics: once per itinerary created or changed
+     */
+    public Optional<RouteResult> find(@NotNull String routeKey) {
+        Optional<RouteResult> result = peek(routeKey);
+
+        if (warmingUp) {
+            (result.isPresent() ? warmUpHits : warmUpMisses).increment();
+        } else {
+            (result.isPresent() ? hits : misses).increment();
+        }
+        return result;
+    }
+
+    /**
+     * Same as find, not counted: lookup again of a route already counted (e.g. by the worker, before computing it)
+     */
+    public Optional<RouteResult> peek(@NotNull String routeKey) {
+        RouteResult result = results.get(routeKey);
+
+        if (result == null && persistent) {
+            result = routeResultRepository.findById(routeKey).orElse(null);
+            if (result != null) results.put(routeKey, result);
+        }
+
+        return Optional.ofNullable(result);
+    }
+
+    public void put(@NotNull RouteResult result) {
+        results.put(result.getRouteKey(), result);
+
+        if (persistent && !routeResultRepository.existsById(result.getRouteKey())) {
+            try {
+                routeResultRepository.save(result);
+            } catch (DataIntegrityViolationException ex) {
+                // Same route computed and stored by another worker meanwhile: same content
+                log.debug("Route result {} already stored.", result.getRouteKey());
+            }
+        }
+    }
+
+    // Results of another geo dataset: unreachable, their keys have another checksum. In memory and on every shard
+    @Scheduled(fixedDelayString = "${app.route-cache.purge-interval:3600000}")
+    public void purgeStale() {
+        long geoChecksum = geoDataCacheService.checksum();
+
+        synchronized (results) {
+            results.values().removeIf(result -> !Objects.equals(result.getGeoChecksum(), geoChecksum));
+        }
+
+        if (!persistent) return;
+        shardRouter.forEachShard(shard -> {
+            int purged = routeResultRepository.deleteOtherDatasets(geoChecksum);
+            if (purged > 0) {
+                log.info("{} route results of an older geo dataset purged (shard {}).", purged, shard);
+            }
+        });
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.GuestSession;
+import com.github.manueldepaduanisdev.tripplanner.repositories.GuestSessionRepository;
+import jakarta.validation.constraints.NotBlank;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Guest sessions handling. Validating a session costs a primary key lookup at most,
+ * already validated sessions are answered from memory.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+@Validated
+public class SessionService {
+
+    // Bound for the known sessions cache, least recently validated sessions evicted first
+    private static final int KNOWN_SESSIONS_MAX_SIZE = 100_000;
+
+    private final GuestSessionRepository sessionRepository;
+
+    // Sessions are never deleted, so a session seen once (committed) stays valid. LRU: get() refreshes the entry
+    private final Map<String, Boolean> knownSessions = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > KNOWN_SESSIONS_MAX_SIZE;
+        }
+    });
+
+    /**
+     * @param sessionId session id passed by the client
+     * @return true if the session was handed out by us
+     */
+    public boolean exists(@NotBlank String sessionId) {
+        if (knownSessions.get(sessionId) != null) return true;
+
+        boolean exists = sessionRepository.existsById(sessionId);
+        if (exists) {
+            remember(sessionId);
+        }
+
+        log.debug("Session ID: {} looked up in DB. Exists: {}", sessionId, exists);
+        return exists;
+    }
+
+    /**
+     * Create and store a new guest session. Known (cached) once the transaction creating it commits
+     * @return session saved
+     */
+    public GuestSession createSession() {
+        GuestSession session = sessionRepository.save(GuestSession.builder()
+                .lastActivityAt(LocalDateTime.now())
+                .build());
+
+        // A rolled back session must not be answered as valid
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    remember(session.getId());
+                }
+            });
+        } else {
+            remember(session.getId());
+        }
+        log.info("New guest session created. SessionID: {}", session.getId());
+
+        return session;
+    }
+
+    /**
+     * Update session metadata after a new itinerary was added to it. Must run inside a transaction.
+     * @param sessionId session id
+     */
+    public void registerItinerary(@NotBlank String sessionId) {
+        sessionRepository.incrementItineraryCount(sessionId, LocalDateTime.now());
+    }
+
+    private void remember(String sessionId) {
+        knownSessions.put(sessionId, Boolean.TRUE);
+    }
+}
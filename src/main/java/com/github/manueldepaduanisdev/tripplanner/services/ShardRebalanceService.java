@@ -0,0 +1,389 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardSchemaInitializer;
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shard rebalancing. When shards are added, the sessions they now own are still on their previous shard:
+ * found at startup (routed where they are meanwhile) and moved on request, one session at a time:
+ * - requests of the session are refused while it moves (503), the running ones are waited for
+ * - sessions with itineraries QUEUED / PROCESSING are left for a later pass (the worker owns them)
+ * - rows copied to the owner shard, row counts verified, committed, routing switched, then deleted from the old shard.
+ * Itinerary and session ids are kept. Location ids are generated again by the owner shard (identity column).
+ */
+@Service
+@Slf4j
+public class ShardRebalanceService {
+
+    // Session data on a shard: its guest session row, and its itineraries (hot or archived)
+    private static final String SESSION_IDS_SQL = "SELECT id FROM guest_session " +
+            "UNION SELECT session_id FROM itinerary " +
+            "UNION SELECT session_id FROM itinerary_archive";
+    private static final String SESSION_PRESENT_SQL = "SELECT (SELECT COUNT(*) FROM guest_session WHERE id = ?) " +
+            "+ (SELECT COUNT(*) FROM itinerary WHERE session_id = ?)";
+
+    private final ShardRouter shardRouter;
+    private final long fenceTimeoutMs;
+    private final Counter movedCounter;
+
+    // Map<session ID, shard> of copies left on a shard after the session was moved (deleted by the next rebalance)
+    private final Map<String, Integer> leftovers = new ConcurrentHashMap<>();
+
+    public ShardRebalanceService(
+            ShardRouter shardRouter,
+            ShardSchemaInitializer shardSchemaInitializer,
+            MeterRegistry meterRegistry,
+            @Value("${app.sharding.rebalance.fence-timeout-ms:5000}") long fenceTimeoutMs
+    ) {
+        // Schema initializer: shards are scanned once their tables exist
+        this.shardRouter = shardRouter;
+        this.fenceTimeoutMs = fenceTimeoutMs;
+        this.movedCounter = Counter.builder("datasource.shard.moved")
+                .description("Sessions moved to their owner shard").register(meterRegistry);
+
+        if (shardRouter.getShardCount() > 1) {
+            scan();
+        }
+    }
+
+    /**
+     * Sessions on a shard that doesn't own them: routed there until moved
+     */
+    private void scan() {
+        for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(shardRouter.getShardDataSource(shard));
+
+            for (String sessionId : jdbcTemplate.queryForList(SESSION_IDS_SQL, String.class)) {
+                if (sessionId == null) continue;
+
+                int owner = shardRouter.ownerOf(sessionId);
+                if (owner == shard) continue;
+
+                if (isPresent(owner, sessionId)) {
+                    // Already moved, the delete on this shard didn't happen
+                    leftovers.put(sessionId, shard);
+                } else {
+                    shardRouter.place(sessionId, shard);
+                }
+            }
+        }
+
+        log.info("Shards scanned. Sessions to move: {}, copies to delete: {}", shardRouter.getPlacements().size(), leftovers.size());
+    }
+
+    /**
+     * @return per shard: sessions and itineraries stored
+     */
+    public List<Map<String, Object>> status() {
+        List<Map<String, Object>> shards = new ArrayList<>();
+        Map<String, Integer> placements = shardRouter.getPlacements();
+
+        for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(shardRouter.getShardDataSource(shard));
+            int current = shard;
+
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("shard", shard);
+            status.put("sessions", jdbcTemplate.queryForObject("SELECT COUNT(*) FROM guest_session", Long.class));
+            status.put("itineraries", jdbcTemplate.queryForObject("SELECT COUNT(*) FROM itinerary", Long.class));
+            status.put("archivedItineraries", jdbcTemplate.queryForObject("SELECT COUNT(*) FROM itinerary_archive", Long.class));
+            status.put("sessionsToMove", placements.values().stream().filter(placed -> placed == current).count());
+            shards.add(status);
+        }
+        return shards;
+    }
+
+    /**
+     * Move up to limit sessions to their owner shard
+     */
+    public RebalanceResult rebalance(int limit) {
+        int deleted = 0;
+        for (Map.Entry<String, Integer> leftover : Map.copyOf(leftovers).entrySet()) {
+            if (deleteLeftover(leftover.getKey(), leftover.getValue())) deleted++;
+        }
+
+        int moved = 0;
+        int skipped = 0;
+        for (Map.Entry<String, Integer> placement : shardRouter.getPlacements().entrySet()) {
+            if (moved + skipped >= limit) break;
+
+            if (move(placement.getKey(), placement.getValue(), shardRouter.ownerOf(placement.getKey()))) {
+                moved++;
+            } else {
+                skipped++;
+            }
+        }
+
+        int remaining = shardRouter.getPlacements().size();
+        log.info("Rebalance done. Sessions moved: {}, skipped: {}, still to move: {}, copies deleted: {}",
+                moved, skipped, remaining, deleted);
+
+        return new RebalanceResult(moved, skipped, remaining, deleted);
+    }
+
+    // --- Move of one session ---
+
+    private boolean move(String sessionId, int from, int to) {
+        try {
+            if (!shardRouter.fence(sessionId, fenceTimeoutMs)) {
+                log.info("Session ID: {} has requests running for more than {} ms. Not moved.", sessionId, fenceTimeoutMs);
+                return false;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        try (Connection source = shardRouter.getShardDataSource(from).getConnection();
+             Connection target = shardRouter.getShardDataSource(to).getConnection()) {
+            source.setAutoCommit(false);
+            target.setAutoCommit(false);
+
+            try {
+                List<String> itineraryIds = lockSession(source, sessionId);
+                if (itineraryIds == null) {
+                    source.rollback();
+                    log.info("Session ID: {} has itineraries in progress. Left for a later rebalance.", sessionId);
+                    return false;
+                }
+
+                copySession(source, target, sessionId, itineraryIds);
+                verifyCopy(source, target, sessionId, itineraryIds);
+                target.commit();
+
+                // Copy committed: served by the owner shard from now on
+                shardRouter.place(sessionId, to);
+                movedCounter.increment();
+            } catch (SQLException | RuntimeException ex) {
+                source.rollback();
+                target.rollback();
+                log.error("Session ID: {} not moved from shard {} to shard {}.", sessionId, from, to, ex);
+                return false;
+            }
+
+            try {
+                deleteSession(source, sessionId, lockedItineraryIds(source, sessionId));
+                source.commit();
+            } catch (SQLException | RuntimeException ex) {
+                source.rollback();
+                leftovers.put(sessionId, from);
+                log.warn("Session ID: {} moved to shard {}, its copy on shard {} not deleted yet.", sessionId, to, from, ex);
+            }
+
+            log.info("Session ID: {} moved from shard {} to shard {}.", sessionId, from, to);
+            return true;
+
+        } catch (SQLException ex) {
+            log.error("Session ID: {} not moved: no connection to shard {} or {}.", sessionId, from, to, ex);
+            return false;
+        } finally {
+            shardRouter.unfence(sessionId);
+        }
+    }
+
+    private boolean deleteLeftover(String sessionId, int shard) {
+        try (Connection connection = shardRouter.getShardDataSource(shard).getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                deleteSession(connection, sessionId, lockedItineraryIds(connection, sessionId));
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+            leftovers.remove(sessionId, shard);
+            return true;
+        } catch (SQLException | RuntimeException ex) {
+            log.warn("Copy of session ID: {} on shard {} not deleted.", sessionId, shard, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Lock the session rows on the source: writers of the session (and the archival) wait until the move ends
+     * @return hot and archived itinerary ids, null if one of them is QUEUED / PROCESSING
+     */
+    @Nullable
+    private List<String> lockSession(Connection source, String sessionId) throws SQLException {
+        query(source, "SELECT id FROM guest_session WHERE id = ? FOR UPDATE", List.of(sessionId), rs -> null);
+
+        List<String> statuses = new ArrayList<>();
+        query(source, "SELECT status FROM itinerary WHERE session_id = ? FOR UPDATE", List.of(sessionId),
+                rs -> statuses.add(rs.getString(1)));
+        if (statuses.contains(Status.QUEUED.name()) || statuses.contains(Status.PROCESSING.name())) return null;
+
+        return lockedItineraryIds(source, sessionId);
+    }
+
+    private List<String> lockedItineraryIds(Connection connection, String sessionId) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        query(connection, "SELECT id FROM itinerary WHERE session_id = ? UNION SELECT id FROM itinerary_archive WHERE session_id = ?",
+                List.of(sessionId, sessionId), rs -> ids.add(rs.getString(1)));
+        return ids;
+    }
+
+    // Parents first (itinerary before its locations). Outbox tasks are not copied: no itinerary in progress
+    private void copySession(Connection source, Connection target, String sessionId, List<String> itineraryIds) throws SQLException {
+        List<Object> session = List.of(sessionId);
+        List<Object> itineraries = new ArrayList<>(itineraryIds);
+        String inItineraries = "itinerary_id IN (" + placeholders(itineraryIds.size()) + ")";
+
+        copyRows(source, target, "guest_session", "id = ?", session, null);
+        copyRows(source, target, "itinerary", "session_id = ?", session, null);
+        copyRows(source, target, "itinerary_archive", "session_id = ?", session, null);
+        copyRows(source, target, "idempotency_record", "session_id = ?", session, null);
+
+        if (itineraryIds.isEmpty()) return;
+
+        copyRows(source, target, "itinerary_location", inItineraries, itineraries, "ID");
+    }
+
+    // Same rows on both sides before the target commits (the source can't change: locked)
+    private void verifyCopy(Connection source, Connection target, String sessionId, List<String> itineraryIds) throws SQLException {
+        List<Object> session = List.of(sessionId);
+
+        verifyCount(source, target, "guest_session", "id = ?", session);
+        verifyCount(source, target, "itinerary", "session_id = ?", session);
+        verifyCount(source, target, "itinerary_archive", "session_id = ?", session);
+        verifyCount(source, target, "idempotency_record", "session_id = ?", session);
+
+        if (itineraryIds.isEmpty()) return;
+
+        List<Object> itineraries = new ArrayList<>(itineraryIds);
+        String inItineraries = "itinerary_id IN (" + placeholders(itineraryIds.size()) + ")";
+
+        verifyCount(source, target, "itinerary_location", inItineraries, itineraries);
+    }
+
+    private static void verifyCount(Connection source, Connection target, String table, String where, List<Object> params)
+            throws SQLException {
+        long expected = count(source, table, where, params);
+        long copied = count(target, table, where, params);
+
+        if (expected != copied) {
+            throw new IllegalStateException(table + ": " + copied + " rows copied of " + expected + ".");
+        }
+    }
+
+    private static long count(Connection connection, String table, String where, List<Object> params) throws SQLException {
+        long[] count = {0};
+        query(connection, "SELECT COUNT(*) FROM " + table + " WHERE " + where, params, rs -> count[0] = rs.getLong(1));
+        return count[0];
+    }
+
+    // Children first (locations before their itinerary)
+    private void deleteSession(Connection connection, String sessionId, List<String> itineraryIds) throws SQLException {
+        List<Object> session = List.of(sessionId);
+
+        if (!itineraryIds.isEmpty()) {
+            List<Object> itineraries = new ArrayList<>(itineraryIds);
+            String inItineraries = "itinerary_id IN (" + placeholders(itineraryIds.size()) + ")";
+
+            update(connection, "DELETE FROM outbox_task WHERE " + inItineraries, itineraries);
+            update(connection, "DELETE FROM itinerary_location WHERE " + inItineraries, itineraries);
+        }
+
+        update(connection, "DELETE FROM idempotency_record WHERE session_id = ?", session);
+        update(connection, "DELETE FROM itinerary_archive WHERE session_id = ?", session);
+        update(connection, "DELETE FROM itinerary WHERE session_id = ?", session);
+        update(connection, "DELETE FROM guest_session WHERE id = ?", session);
+    }
+
+    /**
+     * Copy every column of the selected rows (new columns included)
+     * @param generatedColumn identity column left to the target, null to copy it as is
+     */
+    private void copyRows(Connection source, Connection target, String table, String where, List<Object> params,
+                          @Nullable String generatedColumn) throws SQLException {
+        String orderBy = generatedColumn == null ? "" : " ORDER BY " + generatedColumn;
+
+        try (PreparedStatement select = source.prepareStatement("SELECT * FROM " + table + " WHERE " + where + orderBy)) {
+            bind(select, params);
+
+            try (ResultSet rs = select.executeQuery()) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                List<String> columns = new ArrayList<>();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    if (!metaData.getColumnName(i).equalsIgnoreCase(generatedColumn)) columns.add(metaData.getColumnName(i));
+                }
+
+                String insertSql = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + placeholders(columns.size()) + ")";
+                try (PreparedStatement insert = target.prepareStatement(insertSql)) {
+                    while (rs.next()) {
+                        for (int i = 0; i < columns.size(); i++) {
+                            insert.setObject(i + 1, rs.getObject(columns.get(i)));
+                        }
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+            }
+        }
+    }
+
+    private static void update(Connection connection, String sql, List<Object> params) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, params);
+            statement.executeUpdate();
+        }
+    }
+
+    private static void query(Connection connection, String sql, List<Object> params, RowHandler handler) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, params);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) handler.handle(rs);
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement statement, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            statement.setObject(i + 1, params.get(i));
+        }
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private boolean isPresent(int shard, String sessionId) {
+        Long rows = new JdbcTemplate(shardRouter.getShardDataSource(shard))
+                .queryForObject(SESSION_PRESENT_SQL, Long.class, sessionId, sessionId);
+        return rows != null && rows > 0;
+    }
+
+    @FunctionalInterface
+    private interface RowHandler {
+        Object handle(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * @param moved sessions moved to their owner shard
+     * @param skipped sessions not moved this time (requests or itineraries in progress, errors)
+     * @param remaining sessions still to move
+     * @param leftoversDeleted copies of already moved sessions deleted
+     */
+    public record RebalanceResult(int moved, int skipped, int remaining, int leftoversDeleted) {
+    }
+}
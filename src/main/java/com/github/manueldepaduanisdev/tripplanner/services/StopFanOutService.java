@@ -0,0 +1,93 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardContext;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Fan-out of independent per-stop stages on virtual threads, structured like a StructuredTaskScope
+ * (not used because it's still a preview API in Java 21): subtasks are forked together, joined in order,
+ * and none of them outlives the call. A failure, an interrupt or a failed checkpoint cancels all of them.
+ * Subtasks running at the same time are bounded globally, across every itinerary.
+ */
+@Service
+@Slf4j
+public class StopFanOutService {
+
+    private final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits;
+
+    public StopFanOutService(@Value("${app.worker.parallel.max-concurrency:64}") int maxConcurrency) {
+        this.permits = new Semaphore(maxConcurrency);
+        log.info("StopFanOutService initialized. Max concurrent stop subtasks: {}", maxConcurrency);
+    }
+
+    /**
+     * @param items stops to process
+     * @param stage independent per-stop stage
+     * @param stillCurrent checkpoint, evaluated every checkEveryMs while joining. False -> every subtask is cancelled
+     * @return results in the items order, null if stopped by the checkpoint
+     * @throws ExecutionException failure of a subtask, the first one in items order (the others are cancelled)
+     * @throws InterruptedException calling worker interrupted (subtasks are cancelled)
+     */
+    public <T, R> List<R> map(List<T> items, StopStage<T, R> stage, BooleanSupplier stillCurrent, long checkEveryMs)
+            throws ExecutionException, InterruptedException {
+        List<Future<R>> subtasks = new ArrayList<>(items.size());
+
+        try {
+            // Fork
+            for (T item : items) {
+                // On the shard of the calling worker
+                subtasks.add(virtualThreads.submit(ShardContext.wrap(() -> {
+                    permits.acquire();
+                    try {
+                        return stage.apply(item);
+                    } finally {
+                        permits.release();
+                    }
+                })));
+            }
+
+            // Join in order, checking the checkpoint while waiting
+            List<R> results = new ArrayList<>(items.size());
+            for (Future<R> subtask : subtasks) {
+                while (true) {
+                    try {
+                        results.add(subtask.get(checkEveryMs, TimeUnit.MILLISECONDS));
+                        break;
+                    } catch (TimeoutException ex) {
+                        if (!stillCurrent.getAsBoolean()) return null;
+                    }
+                }
+            }
+
+            return results;
+        } finally {
+            // No-op for completed subtasks, interrupts the running ones otherwise
+            subtasks.forEach(subtask -> subtask.cancel(true));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        virtualThreads.shutdownNow();
+    }
+
+    @FunctionalInterface
+    public interface StopStage<T, R> {
+        R apply(T item) throws Exception;
+    }
+}
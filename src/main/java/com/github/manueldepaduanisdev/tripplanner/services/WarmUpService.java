@@ -0,0 +1,173 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ReplicaRoutingContext;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardContext;
+import com.github.manueldepaduanisdev.tripplanner.dto.request.ItineraryRequestDTO;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoDataResponseDTO;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.ItineraryResponseDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warm-up before accepting traffic: a synthetic workload replayed through the service layer, so the first
+ * real requests don't pay for class loading, Hibernate query plans, mapper and validator initialization,
+ * and run the hot paths compiled by C1 (a few hundred calls). C2 needs thousands: reached with real traffic.
+ * - geo searches (JSON results cached, as the first users would)
+ * - itinerary create / update / next stop / reads, in a scratch transaction rolled back at the end:
+ *   nothing is stored, no task is relayed (the outbox is relayed only after commit),
+ *   no session known or marked written (both after commit). Route cache lookups counted on their own meters
+ * Readiness (/actuator/health/readiness) is REFUSING_TRAFFIC until it ends.
+ */
+@Service
+@Slf4j
+public class WarmUpService {
+
+    private final GeoService geoService;
+    private final GeoDataCacheService geoDataCacheService;
+    private final ItineraryService itineraryService;
+    private final RouteResultCacheService routeResultCacheService;
+    private final PlatformTransactionManager transactionManager;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final boolean enabled;
+    private final int iterations;
+    private final Duration maxDuration;
+
+    // -1 until the warm-up ends
+    private final AtomicLong warmUpMs = new AtomicLong(-1);
+
+    public WarmUpService(
+            GeoService geoService,
+            GeoDataCacheService geoDataCacheService,
+            ItineraryService itineraryService,
+            RouteResultCacheService routeResultCacheService,
+            PlatformTransactionManager transactionManager,
+            ApplicationEventPublisher eventPublisher,
+            MeterRegistry meterRegistry,
+            @Value("${app.warm-up.enabled:true}") boolean enabled,
+            @Value("${app.warm-up.iterations:500}") int iterations,
+            @Value("${app.warm-up.max-duration:PT30S}") Duration maxDuration
+    ) {
+        this.geoService = geoService;
+        this.geoDataCacheService = geoDataCacheService;
+        this.itineraryService = itineraryService;
+        this.routeResultCacheService = routeResultCacheService;
+        this.transactionManager = transactionManager;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.iterations = iterations;
+        this.maxDuration = maxDuration;
+
+        TimeGauge.builder("application.warm-up.time", warmUpMs, TimeUnit.MILLISECONDS, AtomicLong::get)
+                .description("Time taken by the warm-up before accepting traffic").register(meterRegistry);
+    }
+
+    /**
+     * Last of the ready listeners (geo cache loaded). Spring Boot marks the application ACCEPTING_TRAFFIC
+     * only after every ready listener returned: marked here too, explicitly, once done
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onApplicationReady() {
+        if (!enabled) return;
+
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        long start = System.currentTimeMillis();
+        long deadline = start + maxDuration.toMillis();
+
+        int iteration = 0;
+        routeResultCacheService.warmUpStarted();
+        try {
+            List<GeoDataResponseDTO> sample = geoDataCacheService.sample(2);
+            if (sample.isEmpty()) {
+                log.info("No GeoData loaded. Itinerary paths not warmed up.");
+            }
+
+            for (; iteration < iterations && System.currentTimeMillis() < deadline; iteration++) {
+                searchGeoData(sample);
+                if (!sample.isEmpty()) {
+                    replayItinerary(sample, iteration);
+                }
+            }
+        } catch (RuntimeException ex) {
+            // Only slower first requests: traffic is accepted anyway
+            log.warn("Warm-up iteration {} failed. Warm-up stopped.", iteration, ex);
+        } finally {
+            routeResultCacheService.warmUpEnded();
+            // Service calls bind the shard of the synthetic session to this (main) thread
+            ShardContext.clear();
+            ReplicaRoutingContext.clear();
+        }
+
+        warmUpMs.set(System.currentTimeMillis() - start);
+        log.info("Warm-up done: {} iterations in {} ms. Accepting traffic.", iteration, warmUpMs.get());
+
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+    }
+
+    // Country -> city drill down of the first sample, as the geo picker does
+    private void searchGeoData(List<GeoDataResponseDTO> sample) {
+        if (sample.isEmpty()) return;
+
+        GeoDataResponseDTO geo = sample.getFirst();
+        geoService.searchGeoDataJson(geo.getCountry(), null, null, null);
+        geoService.searchGeoDataJson(geo.getCountry(), geo.getRegion(), null, null);
+        geoService.searchGeoDataJson(geo.getCountry(), geo.getRegion(), geo.getProvince(), null);
+        geoService.searchGeoDataJson(geo.getCountry(), geo.getRegion(), geo.getProvince(), geo.getCity());
+        geoService.searchGeoData(geo.getCountry(), geo.getRegion(), geo.getProvince(), geo.getCity());
+    }
+
+    // Write and read paths of an itinerary of a new session. Service transactions join the scratch one
+    private void replayItinerary(List<GeoDataResponseDTO> sample, int iteration) {
+        TransactionStatus status = transactionManager.getTransaction(TransactionDefinition.withDefaults());
+        try {
+            ItineraryResponseDTO created = itineraryService.createItinerary(request(sample, iteration, false), null);
+            String sessionId = created.getSessionId();
+
+            itineraryService.updateItinerary(sessionId, created.getId(), request(sample, iteration, true), null);
+            itineraryService.updateNextStop(sessionId, created.getId(), null);
+            itineraryService.getById(sessionId, created.getId());
+            itineraryService.getList(sessionId, null);
+            itineraryService.getVersions(sessionId, null);
+        } finally {
+            transactionManager.rollback(status);
+            ShardContext.clear();
+        }
+    }
+
+    private static ItineraryRequestDTO request(List<GeoDataResponseDTO> sample, int iteration, boolean reversed) {
+        List<ItineraryRequestDTO.LocationRequest> locations = new ArrayList<>();
+        for (int i = 0; i < sample.size(); i++) {
+            GeoDataResponseDTO geo = sample.get(reversed ? sample.size() - 1 - i : i);
+            locations.add(ItineraryRequestDTO.LocationRequest.builder()
+                    .geoId(geo.getId())
+                    .orderIndex(i)
+                    .currentStop(i == 0)
+                    .build());
+        }
+
+        return ItineraryRequestDTO.builder()
+                .title("Warm-up " + iteration)
+                .locations(locations)
+                .build();
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.AdaptiveThreadPoolTaskExecutor;
+import com.github.manueldepaduanisdev.tripplanner.config.QueueWaitTaskDecorator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Sizes the itinerary worker pool from what it observes (AIMD, like TCP congestion control):
+ * - DB connection pool saturated (threads waiting for a connection) -> multiplicative decrease: more workers would only wait on the DB
+ * - tasks waiting in queue longer than the target with busy workers -> additive increase
+ *   (wait of the tasks started in the interval, or of the oldest one still queued: on a saturated pool none starts)
+ * - workers mostly idle with a queue wait under a tenth of the target -> additive decrease
+ *   (a few ms of handoff are always measured: an exact zero would almost never be seen)
+ * Queue limit follows the pool size (queue-per-thread tasks each), so the wait in queue stays bounded.
+ */
+@Service
+@Slf4j
+public class WorkerPoolTuningService {
+
+    private final AdaptiveThreadPoolTaskExecutor executor;
+    private final QueueWaitTaskDecorator queueWaitDecorator;
+    private final MeterRegistry meterRegistry;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int queuePerThread;
+    private final int maxQueueCapacity;
+    private final double targetQueueWaitMs;
+
+    private final Counter increases;
+    private final Counter decreases;
+
+    // Last observations, exposed as gauges
+    private volatile double lastQueueWaitMs;
+    private volatile double lastUtilization;
+    private volatile double lastPendingConnections;
+
+    public WorkerPoolTuningService(
+            @Qualifier("itineraryTaskExecutor") AdaptiveThreadPoolTaskExecutor executor,
+            QueueWaitTaskDecorator queueWaitDecorator,
+            MeterRegistry meterRegistry,
+            @Value("${app.worker.pool.min-size:2}") int minSize,
+            @Value("${app.worker.pool.max-size:32}") int maxSize,
+            @Value("${app.worker.pool.queue-per-thread:20}") int queuePerThread,
+            @Value("${app.worker.pool.max-queue-capacity:1000}") int maxQueueCapacity,
+            @Value("${app.worker.pool.target-queue-wait-ms:500}") double targetQueueWaitMs
+    ) {
+        this.executor = executor;
+        this.queueWaitDecorator = queueWaitDecorator;
+        this.meterRegistry = meterRegistry;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.queuePerThread = queuePerThread;
+        this.maxQueueCapacity = maxQueueCapacity;
+        this.targetQueueWaitMs = targetQueueWaitMs;
+
+        this.increases = Counter.builder("worker.pool.adjustments").tag("direction", "increase")
+                .description("Worker pool resizes up").register(meterRegistry);
+        this.decreases = Counter.builder("worker.pool.adjustments").tag("direction", "decrease")
+                .description("Worker pool resizes down").register(meterRegistry);
+
+        Gauge.builder("worker.pool.size", executor, AdaptiveThreadPoolTaskExecutor::getMaxPoolSize)
+                .description("Current worker pool size").register(meterRegistry);
+        Gauge.builder("worker.pool.queue.limit", executor, AdaptiveThreadPoolTaskExecutor::getQueueLimit)
+                .description("Tasks accepted in queue at most").register(meterRegistry);
+        Gauge.builder("worker.pool.queue.size", executor, AdaptiveThreadPoolTaskExecutor::getQueueSize)
+                .description("Tasks waiting in queue").register(meterRegistry);
+        Gauge.builder("worker.pool.queue.wait", this, tuner -> tuner.lastQueueWaitMs)
+                .description("Queue wait (ms) at the last interval: average of the tasks started, or of the oldest queued if longer").register(meterRegistry);
+        Gauge.builder("worker.pool.utilization", this, tuner -> tuner.lastUtilization)
+                .description("Busy workers over pool size, at the last interval").register(meterRegistry);
+        Gauge.builder("worker.pool.db.pending", this, tuner -> tuner.lastPendingConnections)
+                .description("Threads waiting for a DB connection, at the last interval").register(meterRegistry);
+
+        log.info("WorkerPoolTuningService initialized. Pool size bounds: [{}, {}], target queue wait: {} ms",
+                minSize, maxSize, targetQueueWaitMs);
+    }
+
+    @Scheduled(fixedDelayString = "${app.worker.pool.tune-interval:5000}")
+    public void tune() {
+        int size = executor.getMaxPoolSize();
+
+        lastQueueWaitMs = Math.max(queueWaitDecorator.drainAverageWaitMs(),
+                queueWaitDecorator.oldestQueuedWaitMs(executor.getThreadPoolExecutor().getQueue()));
+        lastUtilization = size == 0 ? 0 : (double) executor.getActiveCount() / size;
+        lastPendingConnections = pendingConnections();
+
+        int newSize = nextSize(size, lastQueueWaitMs, lastUtilization, lastPendingConnections > 0);
+        if (newSize == size) return;
+
+        resize(newSize);
+
+        (newSize > size ? increases : decreases).increment();
+        log.info("Worker pool resized {} -> {} (queue wait: {} ms, utilization: {}, threads waiting for DB: {}). Queue limit: {}",
+                size, newSize, Math.round(lastQueueWaitMs), String.format("%.2f", lastUtilization),
+                (long) lastPendingConnections, executor.getQueueLimit());
+    }
+
+    /**
+     * AIMD step
+     * @return pool size for the next interval, within [min-size, max-size]
+     */
+    int nextSize(int size, double queueWaitMs, double utilization, boolean dbSaturated) {
+        int next = size;
+
+        if (dbSaturated) {
+            next = size * 3 / 4;
+        } else if (queueWaitMs > targetQueueWaitMs && utilization >= 0.9) {
+            next = size + 1;
+        } else if (queueWaitMs < targetQueueWaitMs / 10 && utilization < 0.5) {
+            next = size - 1;
+        }
+
+        return Math.clamp(next, minSize, maxSize);
+    }
+
+    private void resize(int size) {
+        // Core can't exceed max: grow max first, shrink core first
+        if (size > executor.getMaxPoolSize()) {
+            executor.setMaxPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaxPoolSize(size);
+        }
+
+        executor.setQueueLimit(Math.min(maxQueueCapacity, size * queuePerThread));
+    }
+
+    // Hikari pools are bound to the registry by Spring Boot (every pool, if more than one)
+    private double pendingConnections() {
+        return meterRegistry.find("hikaricp.connections.pending").gauges().stream()
+                .mapToDouble(Gauge::value)
+                .sum();
+    }
+}
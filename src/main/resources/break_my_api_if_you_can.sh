@@ -11,6 +11,7 @@ GEO_ID_2=2
 # File di Log
 SUCCESS_LOG="success.log"
 ERROR_LOG="errors.log"
+LATENCY_LOG="latency.log"
 
 # ==========================================
 # 1. CHECK PRELIMINARI
@@ -34,6 +35,7 @@ echo "---------------------------------------------------"
 # Pulisce i log
 > "$SUCCESS_LOG"
 > "$ERROR_LOG"
+> "$LATENCY_LOG"
 
 # Funzione Genera JSON
 generate_json() {
@@ -62,16 +64,18 @@ for ((i=1; i<=NUM_REQUESTS; i++)); do
   (
     
     # Esegue la richiesta
-    response=$(curl -s -w "\n%{http_code}" -X POST \
+    response=$(curl -s -w "\n%{http_code}\n%{time_total}" -X POST \
       --connect-timeout 5 \
       --max-time 10 \
       -H "Content-Type: application/json" \
       -d "$(generate_json $i)" \
       "$TARGET_URL")
 
-    # Parsing risposta
-    http_code=$(echo "$response" | tail -n1)
-    body=$(echo "$response" | sed '$d')
+    # Parsing risposta (ultime due righe: status e durata in secondi)
+    time_total=$(echo "$response" | tail -n1)
+    http_code=$(echo "$response" | tail -n2 | head -n1)
+    body=$(echo "$response" | sed '$d' | sed '$d')
+    echo "$time_total" >> "$LATENCY_LOG"
 
     if [ "$http_code" -eq 202 ]; then
       echo "--- Req #$i (202 Accepted) ---" >> "$SUCCESS_LOG"
@@ -116,4 +120,12 @@ if [ "$error_count" -gt 0 ]; then
     echo -e "\e[31m❌ Errori:   $error_count (vedi $ERROR_LOG)\e[0m"
 else
     echo "🎉 Nessun errore!"
-fi
\ No newline at end of file
+fi
+
+# Latenze (ms): confronta un test lanciato subito dopo l'avvio con e senza warm-up (--app.warm-up.enabled=false)
+percentile() {
+  sort -n "$LATENCY_LOG" | awk -v p=$1 '{ v[NR] = $1 } END { i = int(NR * p / 100 + 0.999); if (i < 1) i = 1; printf "%d", v[i] * 1000 }'
+}
+if [ -s "$LATENCY_LOG" ]; then
+  echo "⏱️  Latenza p50: $(percentile 50)ms | p95: $(percentile 95)ms | p99: $(percentile 99)ms | max: $(percentile 100)ms"
+fi
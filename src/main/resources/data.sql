@@ -1,7 +1,9 @@
 -- DATA.SQL - Popolamento GeoData (200 Città Italiane)
 -- Struttura: country, region, province, city, latitude, longitude
 
-INSERT INTO geo_data (country, region, province, city, latitude, longitude) VALUES
+-- Run at every startup: MERGE on the natural key, rows already stored are left as they are
+-- (no duplicates, and the geo snapshot stays valid)
+MERGE INTO geo_data (country, region, province, city, latitude, longitude) KEY (country, region, province, city) VALUES
 -- NORD OVEST (Piemonte, Lombardia, Liguria, Vda)
 ('Italia', 'Lazio', 'RM', 'Roma', 41.9028, 12.4964),
 ('Italia', 'Lombardia', 'MI', 'Milano', 45.4642, 9.1900),
@@ -117,4 +119,11 @@ INSERT INTO geo_data (country, region, province, city, latitude, longitude) VALU
 
 -- Nota: Per brevità ho listato circa 100 righe (tutti i capoluoghi e comuni principali).
 -- In un file reale data.sql, puoi duplicare le righe variando i nomi per arrivare a 200,
--- includendo città come Ostia, Tivoli, Guidonia, Legnano, Busto Arsizio, ecc.
\ No newline at end of file
+-- includendo città come Ostia, Tivoli, Guidonia, Legnano, Busto Arsizio, ecc.
+
+-- Backfill guest sessions for itineraries created before the guest_session table existed
+INSERT INTO guest_session (id, created_at, last_activity_at, itinerary_count)
+SELECT i.session_id, MIN(i.created_at), MAX(COALESCE(i.updated_at, i.created_at)), COUNT(*)
+FROM itinerary i
+WHERE NOT EXISTS (SELECT 1 FROM guest_session s WHERE s.id = i.session_id)
+GROUP BY i.session_id;
@@ -0,0 +1,93 @@
+#!/bin/bash
+
+# ==========================================
+# STARTUP BENCHMARK: time-to-first-request
+# Avvio standard vs avvio veloce (AOT + CDS + profilo "fast")
+# Da lanciare dalla root del progetto, dopo: ./mvnw -Pfast-startup package -DskipTests
+# ==========================================
+RUNS=${1:-5}
+PORT=8080
+FIRST_REQUEST_URL="http://localhost:$PORT/api/geo?country=Italy"
+JAR="target/tripplanner-1.0.0-SNAPSHOT.jar"
+FAST_DIR="target/fast-startup"
+LOG_FILE="startup_benchmark.log"
+
+# ==========================================
+# 1. CHECK PRELIMINARI
+# ==========================================
+if ! command -v curl &> /dev/null; then
+    echo "❌ Errore: 'curl' non è installato o non è nel PATH."
+    exit 1
+fi
+if [ ! -f "$JAR" ] || [ ! -f "$FAST_DIR/application.jsa" ]; then
+    echo "❌ Errore: build mancante. Lancia prima: ./mvnw -Pfast-startup package -DskipTests"
+    exit 1
+fi
+
+now_ms() {
+  local t=$(date +%s%3N)
+  # Fallback per date che non supportano %N (es. alcune versioni Mac vecchie)
+  if [[ "$t" == *"N"* ]]; then t=$(date +%s000); fi
+  echo "$t"
+}
+
+# Avvia l'app, misura il tempo fino alla prima risposta 200, poi la ferma
+# $1 = nome modalità, resto = comando java
+measure() {
+  local mode=$1; shift
+  local start=$(now_ms)
+
+  "$@" --server.port=$PORT > "$LOG_FILE" 2>&1 &
+  local pid=$!
+
+  until [ "$(curl -s -o /dev/null -w '%{http_code}' "$FIRST_REQUEST_URL")" = "200" ]; do
+    if ! kill -0 $pid 2> /dev/null; then
+      echo -e "\e[31m❌ [$mode] L'app si è fermata durante l'avvio (vedi $LOG_FILE)\e[0m"
+      exit 1
+    fi
+    sleep 0.05
+  done
+  local end=$(now_ms)
+
+  # Misura interna (FirstRequestTimingFilter): dall'avvio della JVM alla prima richiesta servita
+  # Loggata dopo l'invio della risposta: attende la riga (max 2s) prima di fermare l'app
+  local jvm_ms=""
+  for ((w=0; w<40; w++)); do
+    jvm_ms=$(grep -o "First request served [0-9]* ms" "$LOG_FILE" | grep -o "[0-9]*")
+    [ -n "$jvm_ms" ] && break
+    sleep 0.05
+  done
+
+  kill $pid && wait $pid 2> /dev/null
+  echo "$((end - start)) ${jvm_ms:-?}"
+}
+
+# ==========================================
+# 2. LOOP DI ESECUZIONE
+# ==========================================
+echo "🚀 Startup benchmark ($RUNS avvii per modalità)"
+echo "🎯 Prima richiesta: $FIRST_REQUEST_URL"
+echo "---------------------------------------------------"
+
+# Standard per primo: crea / aggiorna lo schema (il profilo fast lo valida soltanto)
+for mode in standard fast; do
+  total=0
+  for ((i=1; i<=RUNS; i++)); do
+    if [ "$mode" = "standard" ]; then
+      result=$(measure $mode java -jar "$JAR")
+    else
+      result=$(measure $mode java -XX:SharedArchiveFile="$FAST_DIR/application.jsa" -Dspring.aot.enabled=true \
+        -Dspring.profiles.active=fast -jar "$FAST_DIR/tripplanner-1.0.0-SNAPSHOT.jar")
+    fi
+    [ $? -ne 0 ] && { echo "$result"; exit 1; }
+
+    wall=$(echo "$result" | cut -d' ' -f1)
+    jvm=$(echo "$result" | cut -d' ' -f2)
+    total=$((total + wall))
+    echo "⏱️  [$mode] Avvio #$i: ${wall}ms (lancio -> prima risposta), ${jvm}ms (JVM -> prima richiesta)"
+  done
+  echo "📊 [$mode] Media: $((total / RUNS))ms"
+  echo "---------------------------------------------------"
+done
+
+echo "🏁 COMPLETATO"
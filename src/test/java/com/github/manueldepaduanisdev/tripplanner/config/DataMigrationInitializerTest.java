@@ -0,0 +1,50 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.UUID;
+
+public class DataMigrationInitializerTest {
+
+    private DataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:migrations-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        // Itinerary stored before location_count existed: column added by Hibernate with its default
+        jdbcTemplate.execute("CREATE TABLE itinerary (id VARCHAR(36) PRIMARY KEY, location_count INT DEFAULT 0 NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE itinerary_location (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                "itinerary_id VARCHAR(36) NOT NULL)");
+        jdbcTemplate.update("INSERT INTO itinerary (id) VALUES ('old-itinerary')");
+        jdbcTemplate.update("INSERT INTO itinerary_location (itinerary_id) VALUES ('old-itinerary'), ('old-itinerary')");
+    }
+
+    @Test
+    void afterPropertiesSet_ShouldBackfillLocationCountOnce() {
+        new DataMigrationInitializer(new ShardRouter(List.of(dataSource), new SimpleMeterRegistry())).afterPropertiesSet();
+
+        Assertions.assertEquals(2, locationCount());
+        Assertions.assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM schema_migration WHERE id = 'itinerary-location-count'", Integer.class));
+
+        // Next startup: already applied, rows are not touched again
+        jdbcTemplate.update("UPDATE itinerary SET location_count = 5");
+        new DataMigrationInitializer(new ShardRouter(List.of(dataSource), new SimpleMeterRegistry())).afterPropertiesSet();
+
+        Assertions.assertEquals(5, locationCount());
+    }
+
+    private int locationCount() {
+        return jdbcTemplate.queryForObject("SELECT location_count FROM itinerary WHERE id = 'old-itinerary'", Integer.class);
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Routing decisions with a primary and a replica on two in-memory H2 databases: replication is simulated
+ * by writing the heartbeat the replica returns
+ */
+public class ReplicaRouterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private DataSource primary;
+    private DataSource replica;
+    private JdbcTemplate replicaJdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        primary = dataSource("primary");
+        replica = dataSource("replica");
+        replicaJdbcTemplate = new JdbcTemplate(replica);
+        replicaJdbcTemplate.execute("CREATE TABLE replication_heartbeat (id INT PRIMARY KEY, beat_at TIMESTAMP NOT NULL)");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        ReplicaRoutingContext.clear();
+    }
+
+    private static DataSource dataSource(String name) {
+        return new DriverManagerDataSource("jdbc:h2:mem:" + name + "-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+    }
+
+    // Heartbeat of the primary replicated up to this time
+    private void replicatedUpTo(LocalDateTime beatAt) {
+        replicaJdbcTemplate.update("MERGE INTO replication_heartbeat (id, beat_at) KEY (id) VALUES (1, ?)", Timestamp.valueOf(beatAt));
+    }
+
+    private ReplicaRouter router() {
+        return new ReplicaRouter(primary, Map.of("replica-1", replica), meterRegistry, Duration.ofSeconds(1));
+    }
+
+    private double reads(String target) {
+        return meterRegistry.get("datasource.reads").tag("target", target).counter().count();
+    }
+
+    @Test
+    void route_NoReplicas_ShouldReadFromThePrimary() {
+        ReplicaRouter router = new ReplicaRouter(primary, Map.of(), meterRegistry, Duration.ofSeconds(1));
+
+        Assertions.assertFalse(router.hasReplicas());
+        Assertions.assertEquals(ReplicaRouter.PRIMARY, router.route("session-id"));
+    }
+
+    @Test
+    void route_FreshReplica_ShouldServeReads() {
+        replicatedUpTo(LocalDateTime.now());
+        ReplicaRouter router = router();
+
+        Assertions.assertEquals("replica-1", router.route(null));
+        Assertions.assertEquals("replica-1", router.route("session-id"));
+        Assertions.assertEquals(2, reads("replica"));
+        Assertions.assertEquals(0, reads(ReplicaRouter.PRIMARY));
+    }
+
+    @Test
+    void route_ReplicaLagOverMax_ShouldFallBackToThePrimaryUntilItCatchesUp() {
+        replicatedUpTo(LocalDateTime.now().minusSeconds(10));
+        ReplicaRouter router = router();
+
+        Assertions.assertEquals(ReplicaRouter.PRIMARY, router.route(null));
+
+        replicatedUpTo(LocalDateTime.now());
+        router.heartbeat();
+
+        Assertions.assertEquals("replica-1", router.route(null));
+    }
+
+    @Test
+    void route_ReplicaUnreachable_ShouldFallBackToThePrimary() {
+        replicatedUpTo(LocalDateTime.now());
+        ReplicaRouter router = router();
+
+        replicaJdbcTemplate.execute("DROP TABLE replication_heartbeat");
+        router.heartbeat();
+
+        Assertions.assertEquals(ReplicaRouter.PRIMARY, router.route(null));
+    }
+
+    @Test
+    void route_AfterWrite_ShouldStickToThePrimaryUntilTheReplicaHasIt() throws Exception {
+        replicatedUpTo(LocalDateTime.now());
+        ReplicaRouter router = router();
+
+        router.markWritten("session-id");
+
+        // Read-your-writes: only the session that wrote is kept on the primary
+        Assertions.assertEquals(ReplicaRouter.PRIMARY, router.route("session-id"));
+        Assertions.assertEquals("replica-1", router.route("other-session-id"));
+
+        // Replica got a heartbeat written after the write
+        Thread.sleep(5);
+        replicatedUpTo(LocalDateTime.now());
+        router.heartbeat();
+
+        Assertions.assertEquals("replica-1", router.route("session-id"));
+    }
+
+    @Test
+    void markWritten_InTransaction_ShouldStickOnlyOnceCommitted() {
+        replicatedUpTo(LocalDateTime.now());
+        ReplicaRouter router = router();
+
+        TransactionSynchronizationManager.initSynchronization();
+        router.markWritten("session-id");
+
+        Assertions.assertEquals("replica-1", router.route("session-id"));
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        Assertions.assertEquals(ReplicaRouter.PRIMARY, router.route("session-id"));
+    }
+
+    @Test
+    void determineCurrentLookupKey_ShouldRouteOnlyReadOnlyTransactionsToReplicas() {
+        replicatedUpTo(LocalDateTime.now());
+        ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource(router());
+        ReplicaRoutingContext.setSessionId("session-id");
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        Assertions.assertEquals(ReplicaRouter.PRIMARY, routingDataSource.determineCurrentLookupKey());
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        Assertions.assertEquals("replica-1", routingDataSource.determineCurrentLookupKey());
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.manueldepaduanisdev.tripplanner.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.mockito.Mockito.mock;
+
+public class ShardRouterTest {
+
+    @AfterEach
+    void tearDown() {
+        ShardContext.clear();
+        ReplicaRoutingContext.clear();
+    }
+
+    private static ShardRouter router(int shards) {
+        return new ShardRouter(Collections.nCopies(shards, mock(DataSource.class)), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void ownerOf_OneShard_ShouldBeHome() {
+        ShardRouter shardRouter = router(1);
+
+        Assertions.assertEquals(ShardRouter.HOME, shardRouter.ownerOf(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    void ownerOf_ShardAdded_ShouldMoveOnlySessionsToTheNewShard() {
+        ShardRouter fourShards = router(4);
+        ShardRouter fiveShards = router(5);
+        List<String> sessions = IntStream.range(0, 10_000).mapToObj(i -> UUID.randomUUID().toString()).toList();
+
+        int moved = 0;
+        for (String sessionId : sessions) {
+            int before = fourShards.ownerOf(sessionId);
+            int after = fiveShards.ownerOf(sessionId);
+
+            // Stable, and either unchanged or won by the new shard
+            Assertions.assertEquals(before, fourShards.ownerOf(sessionId));
+            if (before != after) {
+                Assertions.assertEquals(4, after);
+                moved++;
+            }
+        }
+
+        // ~1/5 of the sessions
+        Assertions.assertTrue(moved > 1_600 && moved < 2_400, "Sessions moved: " + moved);
+    }
+
+    @Test
+    void currentShard_ShouldFollowBoundShardThenSessionPlacement() {
+        ShardRouter shardRouter = router(3);
+        String sessionId = UUID.randomUUID().toString();
+        int owner = shardRouter.ownerOf(sessionId);
+        int elsewhere = (owner + 1) % 3;
+
+        Assertions.assertEquals(ShardRouter.HOME, shardRouter.currentShard());
+        Assertions.assertFalse(shardRouter.isRouted());
+
+        ReplicaRoutingContext.setSessionId(sessionId);
+        Assertions.assertEquals(owner, shardRouter.currentShard());
+
+        // Not moved yet: routed where its data is, until placed on its owner
+        shardRouter.place(sessionId, elsewhere);
+        Assertions.assertEquals(elsewhere, shardRouter.currentShard());
+        shardRouter.place(sessionId, owner);
+        Assertions.assertTrue(shardRouter.getPlacements().isEmpty());
+
+        Assertions.assertEquals(2, ShardContext.callOn(2, shardRouter::currentShard));
+        Assertions.assertEquals(owner, shardRouter.currentShard());
+    }
+
+    @Test
+    void scatter_ShouldRunOnEveryShardInOrder() {
+        ShardRouter shardRouter = router(3);
+
+        Assertions.assertEquals(List.of(0, 1, 2), shardRouter.scatter(shard -> ShardContext.get()));
+    }
+
+    @Test
+    void fence_ShouldRefuseNewRequestsAndWaitForRunningOnes() throws Exception {
+        ShardRouter shardRouter = router(2);
+        String sessionId = UUID.randomUUID().toString();
+
+        Assertions.assertTrue(shardRouter.enter(sessionId));
+        // Request still running
+        Assertions.assertFalse(shardRouter.fence(sessionId, 50));
+        Assertions.assertTrue(shardRouter.enter(sessionId));
+
+        shardRouter.exit(sessionId);
+        shardRouter.exit(sessionId);
+        Assertions.assertTrue(shardRouter.fence(sessionId, 50));
+        Assertions.assertFalse(shardRouter.enter(sessionId));
+
+        shardRouter.unfence(sessionId);
+        Assertions.assertTrue(shardRouter.enter(sessionId));
+    }
+}
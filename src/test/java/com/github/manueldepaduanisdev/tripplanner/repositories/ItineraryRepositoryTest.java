@@ -4,12 +4,15 @@ import com.github.manueldepaduanisdev.tripplanner.domain.GeoData;
 import com.github.manueldepaduanisdev.tripplanner.domain.Itinerary;
 import com.github.manueldepaduanisdev.tripplanner.domain.ItineraryLocation;
 import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryLocationRow;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryWorkRow;
 import jakarta.annotation.Nullable;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
 import org.springframework.boot.jpa.test.autoconfigure.TestEntityManager;
 
@@ -30,13 +33,14 @@ public class ItineraryRepositoryTest {
 
     private GeoData geoDataStored;
 
+    // City not seeded by data.sql: (country, region, province, city) is unique
     @BeforeEach
     void setupGeoData() {
         GeoData geodata = GeoData.builder()
                 .country("Italia")
                 .region("Puglia")
                 .province("LE")
-                .city("Lecce")
+                .city("Otranto")
                 .latitude(1.0)
                 .longitude(2.0)
                 .build();
@@ -67,15 +71,15 @@ public class ItineraryRepositoryTest {
     }
 
     @Test
-    @DisplayName("findByIdWithLocationsAndGeoData should find the itinerary with the same id as param id and sessionId as param sessionId and include reference with location and geo data")
-    void findByIdWithLocationsAndGeoData_ShouldFindItineraryBySessionIdAndId() {
+    @DisplayName("findByIdWithLocations should find the itinerary with the same id as param id and sessionId as param sessionId and include its locations")
+    void findByIdWithLocations_ShouldFindItineraryBySessionIdAndId() {
 
-        Itinerary itinerarySaved = createItinerary(null, "findByIdWithLocationsAndGeoData Test", Status.QUEUED, 5, LocalDateTime.now());
+        Itinerary itinerarySaved = createItinerary(null, "findByIdWithLocations Test", Status.QUEUED, 5, LocalDateTime.now());
 
         testEntityManager.flush();
         testEntityManager.clear();
 
-        Optional<Itinerary> result = itineraryRepository.findByIdWithLocationsAndGeoData(itinerarySaved.getSessionId(), itinerarySaved.getId());
+        Optional<Itinerary> result = itineraryRepository.findByIdWithLocations(itinerarySaved.getSessionId(), itinerarySaved.getId());
 
         Assertions.assertTrue(result.isPresent());
         Itinerary itinerary = result.get();
@@ -86,7 +90,7 @@ public class ItineraryRepositoryTest {
 
         Assertions.assertTrue(
                 itinerary.getItineraryLocations().stream()
-                        .allMatch(loc -> loc.getGeoData() != null && loc.getGeoData().getCity().equals("Lecce"))
+                        .allMatch(loc -> loc.getGeoData() != null && loc.getGeoData().getCity().equals("Otranto"))
         );
 
         boolean isLocationsLoaded = testEntityManager.getEntityManager().getEntityManagerFactory()
@@ -143,13 +147,130 @@ public class ItineraryRepositoryTest {
         ));
     }
 
-    // findFirstBySessionId già testato nei precedenti test
+    @Test
+    @DisplayName("findRowsBySessionIdAndStatus should return one flat row per location, ordered by itinerary and location order index")
+    void findRowsBySessionIdAndStatus_ShouldReturnFlatRows() {
+        String sessionId = String.valueOf(UUID.randomUUID());
+        createItinerary(sessionId, "findRowsBySessionIdAndStatus", Status.QUEUED, 3, LocalDateTime.now());
+        createItinerary(sessionId, "findRowsBySessionIdAndStatus", Status.COMPLETED, 2, LocalDateTime.now());
+        createItinerary(null, "findRowsBySessionIdAndStatus", Status.QUEUED, 2, LocalDateTime.now());
+
+        testEntityManager.flush();
+        testEntityManager.clear();
+
+        List<ItineraryLocationRow> rows = itineraryRepository.findRowsBySessionIdAndStatus(sessionId, Status.QUEUED);
+
+        Assertions.assertEquals(3, rows.size());
+        Assertions.assertTrue(rows.stream().allMatch(row -> row.sessionId().equals(sessionId) && row.status() == Status.QUEUED));
+        Assertions.assertEquals(List.of(0, 1, 2), rows.stream().map(ItineraryLocationRow::orderIndex).toList());
+        Assertions.assertTrue(rows.stream().allMatch(row -> geoDataStored.getId().equals(row.geoId())));
+        // Projections are not managed entities
+        Assertions.assertEquals(0, testEntityManager.getEntityManager().unwrap(org.hibernate.Session.class)
+                .getStatistics().getEntityCount());
+    }
+
+    @Test
+    @DisplayName("location_count should follow the locations list, so countLocations doesn't need to join locations")
+    void locationCount_ShouldBeAlignedWithLocations() {
+        Itinerary itinerarySaved = createItinerary(null, "locationCount Test", Status.QUEUED, 4, LocalDateTime.now());
+
+        testEntityManager.flush();
+        testEntityManager.clear();
+
+        Itinerary itinerary = testEntityManager.find(Itinerary.class, itinerarySaved.getId());
+
+        Assertions.assertEquals(4, itinerary.getLocationCount());
+    }
+
+    @Test
+    @DisplayName("Session lookups should be served by idx_itinerary_session_status instead of a table scan")
+    void sessionQuery_ShouldUseSessionStatusIndex() {
+        String plan = explain("SELECT * FROM itinerary WHERE session_id = 'session' AND status = 'QUEUED'");
+
+        Assertions.assertTrue(plan.toUpperCase().contains("IDX_ITINERARY_SESSION_STATUS"), plan);
+    }
+
+    @Test
+    @DisplayName("Locations of an itinerary should be read through an index on itinerary_id instead of a table scan")
+    void locationsQuery_ShouldNotScanTable() {
+        String plan = explain("SELECT * FROM itinerary_location WHERE itinerary_id = 'itinerary'");
+
+        Assertions.assertFalse(plan.contains("tableScan"), plan);
+    }
+
+    @Test
+    @DisplayName("Worker status transitions should be applied only on the version read, and should not bump it")
+    void transitionStatus_ShouldCompareAndSetOnVersion() {
+        Itinerary itinerarySaved = createItinerary(null, "transitionStatus Test", Status.QUEUED, 1, LocalDateTime.now());
+        testEntityManager.flush();
+        testEntityManager.clear();
+
+        long version = testEntityManager.find(Itinerary.class, itinerarySaved.getId()).getVersion();
+        testEntityManager.clear();
+
+        Assertions.assertEquals(1, itineraryRepository.transitionStatus(itinerarySaved.getId(), version, Status.QUEUED, Status.PROCESSING, LocalDateTime.now()));
+        // Same task delivered twice -> the second one doesn't start it again
+        Assertions.assertEquals(0, itineraryRepository.transitionStatus(itinerarySaved.getId(), version, Status.QUEUED, Status.PROCESSING, LocalDateTime.now()));
+        // Stale version (a user edit happened) -> nothing changes
+        Assertions.assertEquals(0, itineraryRepository.transitionStatus(itinerarySaved.getId(), version + 1, Status.PROCESSING, Status.COMPLETED, LocalDateTime.now()));
+        // Wrong starting status -> nothing changes
+        Assertions.assertEquals(0, itineraryRepository.transitionStatus(itinerarySaved.getId(), version, Status.QUEUED, Status.COMPLETED, LocalDateTime.now()));
+        Assertions.assertEquals(1, itineraryRepository.transitionStatus(itinerarySaved.getId(), version, Status.PROCESSING, Status.COMPLETED, LocalDateTime.now()));
+
+        testEntityManager.clear();
+        Itinerary itinerary = testEntityManager.find(Itinerary.class, itinerarySaved.getId());
+
+        Assertions.assertEquals(Status.COMPLETED, itinerary.getStatus());
+        Assertions.assertEquals(version, itinerary.getVersion());
+    }
+
+    @Test
+    @DisplayName("findWorkRowsById should return the version and the geo ids to process, in stop order")
+    void findWorkRowsById_ShouldReturnVersionAndOrderedStops() {
+        Itinerary itinerarySaved = createItinerary(null, "findWorkRowsById Test", Status.QUEUED, 3, LocalDateTime.now());
+        testEntityManager.flush();
+        testEntityManager.clear();
+
+        List<ItineraryWorkRow> rows = itineraryRepository.findWorkRowsById(itinerarySaved.getId());
+
+        Assertions.assertEquals(3, rows.size());
+        Assertions.assertTrue(rows.stream().allMatch(row -> row.version() == itinerarySaved.getVersion()
+                && geoDataStored.getId().equals(row.geoId())));
+        Assertions.assertTrue(itineraryRepository.findWorkRowsById("missing-id").isEmpty());
+    }
 
     //TODO: avrei potuto fare i test anche per gli errori, per vedere se ritornava
     // eccezione nel caso in cui non trovasse nulla, ma per questione di tempistiche non l'ho fatto
 
 
+    // H2 query plan of a native query
+    private String explain(String sql) {
+        return String.valueOf(testEntityManager.getEntityManager()
+                .createNativeQuery("EXPLAIN " + sql)
+                .getSingleResult());
+    }
+
     // Create and store itinerary
+    @Test
+    void findArchivableIds_ShouldReturnOnlyFinishedBeforeDateAndDeleteThemWithLocations() {
+        LocalDateTime now = LocalDateTime.now();
+
+        Itinerary oldCompleted = createItinerary(null, "OLD-COMPLETED", Status.COMPLETED, 2, now.minusDays(40));
+        Itinerary oldFailed = createItinerary(null, "OLD-FAILED", Status.FAILED, 1, now.minusDays(35));
+        createItinerary(null, "OLD-QUEUED", Status.QUEUED, 1, now.minusDays(40));
+        createItinerary(null, "NEW-COMPLETED", Status.COMPLETED, 1, now.minusDays(1));
+        testEntityManager.clear();
+
+        List<String> ids = itineraryRepository.findArchivableIds(now.minusDays(30), Limit.of(10));
+
+        Assertions.assertEquals(List.of(oldCompleted.getId(), oldFailed.getId()), ids);
+
+        Assertions.assertEquals(3, itineraryRepository.findRowsByIds(ids).size());
+        Assertions.assertEquals(3, itineraryRepository.deleteLocationsByItineraryIds(ids));
+        Assertions.assertEquals(2, itineraryRepository.deleteByIds(ids));
+        Assertions.assertFalse(itineraryRepository.existsById(oldCompleted.getId()));
+    }
+
     private Itinerary createItinerary(@Nullable String sessionId, String name, Status status, int locationCount, LocalDateTime updateAt) {
         Itinerary itinerary = Itinerary.builder()
                 .status(status)
@@ -0,0 +1,198 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.GeoImportJob;
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.ImportFormat;
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.ImportStatus;
+import com.github.manueldepaduanisdev.tripplanner.repositories.GeoImportJobRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class GeoImportServiceTest {
+
+    @Mock
+    private GeoImportJobRepository jobRepository;
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Mock
+    private GeoDataCacheService geoDataCacheService;
+
+    @TempDir
+    Path importDirectory;
+
+    private GeoImportService geoImportService;
+
+    // Rows of every batch written, in order
+    private final List<List<Object[]>> batches = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        // Imports run on the calling thread
+        geoImportService = new GeoImportService(jobRepository, jdbcTemplate, transactionManager, geoDataCacheService,
+                Runnable::run, importDirectory.toString(), 2);
+    }
+
+    @Test
+    void parse_ShouldReadCsvAndGeoNamesRows() {
+        Assertions.assertArrayEquals(new Object[]{"Italia", "Lazio", "RM", "Roma", 41.9, 12.5},
+                GeoImportService.parse("Italia,Lazio,RM,Roma,41.9,12.5", ImportFormat.CSV));
+        // Quoted separator, missing region and province
+        Assertions.assertArrayEquals(new Object[]{"Italia", null, null, "Reggio, Emilia", 44.7, 10.6},
+                GeoImportService.parse("Italia, , ,\"Reggio, Emilia\",44.7,10.6", ImportFormat.CSV));
+        Assertions.assertArrayEquals(new Object[]{"IT", "07", "RM", "Rome", 41.89, 12.48},
+                GeoImportService.parse("3169070\tRome\tRome\t\t41.89\t12.48\tP\tPPLC\tIT\t\t07\tRM", ImportFormat.GEONAMES));
+    }
+
+    @Test
+    void parse_ShouldRejectInvalidRows() {
+        // Header, missing city, coordinates out of range or not numeric, too few columns, not a populated place
+        Assertions.assertNull(GeoImportService.parse("country,region,province,city,latitude,longitude", ImportFormat.CSV));
+        Assertions.assertNull(GeoImportService.parse("Italia,Lazio,RM, ,41.9,12.5", ImportFormat.CSV));
+        Assertions.assertNull(GeoImportService.parse("Italia,Lazio,RM,Roma,91,12.5", ImportFormat.CSV));
+        Assertions.assertNull(GeoImportService.parse("Italia\tLazio\tRM\tRoma\tnorth\t12.5", ImportFormat.TSV));
+        Assertions.assertNull(GeoImportService.parse("Italia,Lazio,RM,Roma", ImportFormat.CSV));
+        Assertions.assertNull(GeoImportService.parse("3175395\tTevere\tTevere\t\t41.7\t12.2\tH\tSTM\tIT\t\t07\tRM", ImportFormat.GEONAMES));
+    }
+
+    @Test
+    void startImport_ShouldCheckpointEveryBatchAndSkipDuplicatesOfTheBatch() throws IOException {
+        Path file = write("cities.csv",
+                "country,region,province,city,latitude,longitude",
+                "Italia,Lazio,RM,Roma,41.9,12.5",
+                "Italia,Lazio,RM,Roma,41.9,12.5",
+                "Italia,Lombardia,MI,Milano,45.4,9.1",
+                "not,a,row",
+                "Italia,Campania,NA,Napoli,40.8,14.2");
+        GeoImportJob job = newJob(file);
+        captureBatches();
+
+        geoImportService.startImport("cities.csv", ImportFormat.CSV);
+
+        Assertions.assertEquals(2, batches.size());
+        Assertions.assertEquals(List.of("Roma", "Milano"), cities(batches.get(0)));
+        Assertions.assertEquals(List.of("Napoli"), cities(batches.get(1)));
+        // Rows and checkpoint in the same transaction: line 4 after the first batch, end of file after the last one
+        verify(jobRepository).updateProgress(eq(job.getId()), eq(4L), eq(2L), eq(0L), eq(1L), any());
+        verify(jobRepository).updateProgress(eq(job.getId()), eq(6L), eq(3L), eq(1L), eq(1L), any());
+        verify(jobRepository).finish(eq(job.getId()), eq(ImportStatus.COMPLETED), isNull(), any());
+        verify(geoDataCacheService).reload();
+    }
+
+    @Test
+    void startImport_ShouldResumeAfterTheLastCheckpoint() throws IOException {
+        Path file = write("cities.csv",
+                "Italia,Lazio,RM,Roma,41.9,12.5",
+                "Italia,Lombardia,MI,Milano,45.4,9.1",
+                "Italia,Campania,NA,Napoli,40.8,14.2");
+        GeoImportJob failed = GeoImportJob.builder()
+                .id(7L)
+                .source(file.toRealPath().toString())
+                .format(ImportFormat.CSV)
+                .status(ImportStatus.FAILED)
+                .linesRead(2)
+                .rowsImported(2)
+                .build();
+        when(jobRepository.findFirstBySourceAndStatusNotOrderByIdDesc(file.toRealPath().toString(), ImportStatus.COMPLETED))
+                .thenReturn(Optional.of(failed));
+        when(jobRepository.save(any(GeoImportJob.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        captureBatches();
+
+        GeoImportJob resumed = geoImportService.startImport("cities.csv", ImportFormat.CSV);
+
+        Assertions.assertEquals(7L, resumed.getId());
+        Assertions.assertEquals(1, batches.size());
+        Assertions.assertEquals(List.of("Napoli"), cities(batches.getFirst()));
+        verify(jobRepository).updateProgress(eq(7L), eq(3L), eq(3L), eq(0L), eq(0L), any());
+        verify(jobRepository).finish(eq(7L), eq(ImportStatus.COMPLETED), isNull(), any());
+    }
+
+    @Test
+    void startImport_FailedBatch_ShouldKeepThePreviousCheckpoint() throws IOException {
+        Path file = write("cities.csv",
+                "Italia,Lazio,RM,Roma,41.9,12.5",
+                "Italia,Lombardia,MI,Milano,45.4,9.1",
+                "Italia,Campania,NA,Napoli,40.8,14.2");
+        GeoImportJob job = newJob(file);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+                .thenReturn(new int[2])
+                .thenThrow(new IllegalStateException("Disk full"));
+
+        geoImportService.startImport("cities.csv", ImportFormat.CSV);
+
+        verify(jobRepository).updateProgress(eq(job.getId()), eq(2L), eq(2L), eq(0L), eq(0L), any());
+        verify(jobRepository, never()).updateProgress(eq(job.getId()), eq(3L), anyLong(), anyLong(), anyLong(), any());
+        verify(jobRepository).finish(eq(job.getId()), eq(ImportStatus.FAILED), eq("Disk full"), any());
+    }
+
+    @Test
+    void startImport_ShouldRefuseFilesOutsideTheImportDirectory() throws IOException {
+        Path outside = Files.writeString(importDirectory.resolveSibling(importDirectory.getFileName() + "-outside.csv"), "x");
+        try {
+            for (String source : List.of("../" + outside.getFileName(), outside.toString(), "missing.csv")) {
+                ResponseStatusException exception = Assertions.assertThrows(ResponseStatusException.class,
+                        () -> geoImportService.startImport(source, ImportFormat.CSV));
+
+                Assertions.assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+            }
+            verify(jobRepository, never()).save(any());
+        } finally {
+            Files.delete(outside);
+        }
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.write(importDirectory.resolve(name), List.of(lines));
+    }
+
+    private GeoImportJob newJob(Path file) throws IOException {
+        when(jobRepository.findFirstBySourceAndStatusNotOrderByIdDesc(file.toRealPath().toString(), ImportStatus.COMPLETED))
+                .thenReturn(Optional.empty());
+        when(jobRepository.save(any(GeoImportJob.class))).thenAnswer(invocation -> {
+            GeoImportJob job = invocation.getArgument(0);
+            job.setId(1L);
+            return job;
+        });
+        return GeoImportJob.builder().id(1L).build();
+    }
+
+    // The batch list is cleared after each write: copied
+    private void captureBatches() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            List<Object[]> rows = invocation.getArgument(1);
+            batches.add(new ArrayList<>(rows));
+            return new int[rows.size()];
+        });
+    }
+
+    private static List<Object> cities(List<Object[]> rows) {
+        return rows.stream().map(row -> row[3]).toList();
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class GeoServiceTest {
+
+    @Mock
+    private GeoDataCacheService geoDataCacheService;
+
+    private GeoService geoService;
+
+    @BeforeEach
+    void setUp() {
+        // Room for one 60-byte result, not two
+        geoService = new GeoService(geoDataCacheService, 100);
+    }
+
+    private static GeoDataCacheService.GeoJsonSearch search(int bytes) {
+        return new GeoDataCacheService.GeoJsonSearch(null, new byte[bytes], 1);
+    }
+
+    @Test
+    void searchGeoDataJson_ShouldEvictLeastRecentlyUsedResultsOverMaxBytes() {
+        when(geoDataCacheService.searchJson("Italia", null, null, null)).thenReturn(search(60));
+        when(geoDataCacheService.searchJson("Francia", null, null, null)).thenReturn(search(60));
+        when(geoDataCacheService.isCurrent(any())).thenReturn(true);
+
+        geoService.searchGeoDataJson("Italia", null, null, null);
+        geoService.searchGeoDataJson("Francia", null, null, null);
+        // Francia served from cache. Italia was evicted to make room for it: built again
+        geoService.searchGeoDataJson("Francia", null, null, null);
+        geoService.searchGeoDataJson("Italia", null, null, null);
+
+        verify(geoDataCacheService, times(1)).searchJson("Francia", null, null, null);
+        verify(geoDataCacheService, times(2)).searchJson("Italia", null, null, null);
+    }
+
+    @Test
+    void searchGeoDataJson_ResultLargerThanTheCache_ShouldNotBeCached() {
+        when(geoDataCacheService.searchJson(null, null, null, null)).thenReturn(search(150));
+
+        Assertions.assertEquals(150, geoService.searchGeoDataJson(null, null, null, null).body().length);
+        Assertions.assertEquals(150, geoService.searchGeoDataJson(null, null, null, null).body().length);
+
+        verify(geoDataCacheService, times(2)).searchJson(null, null, null, null);
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.GeoData;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class GeoSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    private List<GeoData> createGeoData() {
+        return List.of(
+                GeoData.builder().id(3L).country("Italia").region("Puglia").province("LE").city("Lecce").latitude(40.35).longitude(18.17).build(),
+                GeoData.builder().id(1L).country("Italia").region("Lombardia").province("MI").city("Milano").latitude(45.46).longitude(9.19).build(),
+                GeoData.builder().id(2L).country("Italia").region(null).province(null).city("Forlì").latitude(44.22).longitude(12.04).build()
+        );
+    }
+
+    @Test
+    void writeAndRead_ShouldKeepAllColumns() throws Exception {
+        Path path = tempDir.resolve("geo-snapshot.bin");
+
+        GeoSnapshot.build(createGeoData(), 42L).write(path);
+        GeoSnapshot snapshot = GeoSnapshot.read(path);
+
+        Assertions.assertNotNull(snapshot);
+        Assertions.assertEquals(3, snapshot.size());
+        Assertions.assertTrue(snapshot.matches(3, 3L, 42L));
+        // Same rows and ids, a row changed in place
+        Assertions.assertFalse(snapshot.matches(3, 3L, 43L));
+
+        // Rows are stored by ascending id
+        Assertions.assertEquals(1L, snapshot.id(0));
+        Assertions.assertEquals("Milano", snapshot.city(0));
+        Assertions.assertEquals("Lombardia", snapshot.region(0));
+        Assertions.assertEquals(45.46, snapshot.latitude(0));
+
+        // Null dictionary values and non ASCII city names
+        Assertions.assertNull(snapshot.region(1));
+        Assertions.assertEquals("Forlì", snapshot.city(1));
+    }
+
+    @Test
+    void sortedPosition_ShouldFollowCountryRegionProvinceCityOrder() {
+        GeoSnapshot snapshot = GeoSnapshot.build(createGeoData(), 0L);
+
+        // Null region first, then Lombardia, then Puglia
+        Assertions.assertEquals("Forlì", snapshot.city(snapshot.sortedPosition(0)));
+        Assertions.assertEquals("Milano", snapshot.city(snapshot.sortedPosition(1)));
+        Assertions.assertEquals("Lecce", snapshot.city(snapshot.sortedPosition(2)));
+    }
+
+    @Test
+    void read_ShouldReturnNullIfFileIsNotASnapshot() throws Exception {
+        Path path = tempDir.resolve("not-a-snapshot.bin");
+        Files.writeString(path, "just some text, not a snapshot");
+
+        Assertions.assertNull(GeoSnapshot.read(path));
+        Assertions.assertNull(GeoSnapshot.read(tempDir.resolve("missing.bin")));
+    }
+
+    @Test
+    void positionOf_ShouldFindIdsWithBinarySearch() {
+        GeoSnapshot snapshot = GeoSnapshot.build(createGeoData(), 0L);
+
+        Assertions.assertEquals("Lecce", snapshot.toDTO(snapshot.positionOf(3L)).getCity());
+        Assertions.assertEquals(-1, snapshot.positionOf(42L));
+    }
+
+    @Test
+    void search_ShouldFilterCaseInsensitiveAndIgnoreNullFilters() {
+        GeoSnapshot snapshot = GeoSnapshot.build(createGeoData(), 0L);
+
+        Assertions.assertEquals(3, snapshot.search(null, null, null, null).length);
+        Assertions.assertEquals(3, snapshot.search("ital", null, null, null).length);
+
+        int[] lombardia = snapshot.search(null, "LOMB", null, null);
+        Assertions.assertEquals(1, lombardia.length);
+        Assertions.assertEquals("Milano", snapshot.city(lombardia[0]));
+
+        // Null region never matches a region filter
+        Assertions.assertEquals(0, snapshot.search(null, "a", null, "forl").length);
+        Assertions.assertEquals(1, snapshot.search(null, null, null, "FORL").length);
+    }
+
+    @Test
+    void toJson_ShouldEncodeRowAsGeoDataResponseDTO() {
+        GeoSnapshot snapshot = GeoSnapshot.build(List.of(
+                GeoData.builder().id(7L).country("Italia").region(null).province("AO").city("Saint-Christophe \"AO\"")
+                        .latitude(45.75).longitude(7.36).build()
+        ), 0L);
+
+        String json = new String(snapshot.toJson(0), java.nio.charset.StandardCharsets.UTF_8);
+
+        Assertions.assertEquals("{\"id\":7,\"country\":\"Italia\",\"region\":null,\"province\":\"AO\"," +
+                "\"city\":\"Saint-Christophe \\\"AO\\\"\",\"latitude\":45.75,\"longitude\":7.36}", json);
+    }
+}
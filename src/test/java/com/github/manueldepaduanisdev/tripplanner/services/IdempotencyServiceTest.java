@@ -0,0 +1,137 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
+import com.github.manueldepaduanisdev.tripplanner.domain.IdempotencyRecord;
+import com.github.manueldepaduanisdev.tripplanner.domain.Itinerary;
+import com.github.manueldepaduanisdev.tripplanner.repositories.IdempotencyRecordRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class IdempotencyServiceTest {
+
+    @Mock
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    private IdempotencyService idempotencyService;
+
+    @BeforeEach
+    void setUp() {
+        idempotencyService = new IdempotencyService(idempotencyRecordRepository,
+                new ShardRouter(List.of(mock(DataSource.class)), new SimpleMeterRegistry()), JsonMapper.builder().build(),
+                new SimpleMeterRegistry(), Duration.ofHours(24), 100);
+    }
+
+    @Test
+    void execute_ShouldCollapseInFlightDuplicatesOnTheFirstRequest() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch firstRunning = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<IdempotencyService.Outcome<String>> first = executor.submit(() ->
+                    idempotencyService.execute("key", "hash", () -> {
+                        firstRunning.countDown();
+                        await(release);
+                        created.incrementAndGet();
+                        idempotencyService.record("key", "hash", Itinerary.builder().id("itinerary-id").sessionId("session-id").build());
+                        return "itinerary-id";
+                    }, record -> "replay-" + record.getItineraryId()));
+
+            Assertions.assertTrue(firstRunning.await(5, TimeUnit.SECONDS));
+
+            Future<IdempotencyService.Outcome<String>> duplicate = executor.submit(() ->
+                    idempotencyService.execute("key", "hash", () -> {
+                        created.incrementAndGet();
+                        return "second-itinerary-id";
+                    }, record -> "replay-" + record.getItineraryId()));
+
+            release.countDown();
+
+            Assertions.assertEquals(new IdempotencyService.Outcome<>("itinerary-id", false), first.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(new IdempotencyService.Outcome<>("replay-itinerary-id", true), duplicate.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, created.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_ShouldRefuseKeyReusedWithDifferentRequest() {
+        idempotencyService.execute("key", "hash", () -> {
+            idempotencyService.record("key", "hash", Itinerary.builder().id("itinerary-id").sessionId("session-id").build());
+            return "itinerary-id";
+        }, record -> record.getItineraryId());
+
+        ResponseStatusException exception = Assertions.assertThrows(ResponseStatusException.class, () -> {
+            idempotencyService.execute("key", "other-hash", () -> "second-itinerary-id", record -> record.getItineraryId());
+        });
+
+        Assertions.assertEquals(HttpStatus.UNPROCESSABLE_CONTENT, exception.getStatusCode());
+    }
+
+    @Test
+    void execute_ExpiredKeyNotPurgedYet_ShouldRunAgainAndReplaceTheOldRecord() {
+        IdempotencyRecord expired = IdempotencyRecord.builder()
+                .idempotencyKey("key")
+                .requestHash("old-hash")
+                .itineraryId("old-itinerary-id")
+                .sessionId("session-id")
+                .createdAt(LocalDateTime.now().minusHours(25))
+                .build();
+        when(idempotencyRecordRepository.findById("key")).thenReturn(Optional.of(expired));
+
+        IdempotencyService.Outcome<String> outcome = idempotencyService.execute("key", "hash", () -> {
+            idempotencyService.record("key", "hash", Itinerary.builder().id("itinerary-id").sessionId("session-id").build());
+            return "itinerary-id";
+        }, record -> record.getItineraryId());
+
+        Assertions.assertEquals(new IdempotencyService.Outcome<>("itinerary-id", false), outcome);
+        // Old row deleted before the insert, in the same transaction
+        InOrder inOrder = inOrder(idempotencyRecordRepository);
+        inOrder.verify(idempotencyRecordRepository).deleteExpired(eq("key"), any(LocalDateTime.class));
+        inOrder.verify(idempotencyRecordRepository).saveAndFlush(any(IdempotencyRecord.class));
+    }
+
+    @Test
+    void fingerprint_ShouldDependOnSession() {
+        Assertions.assertEquals(idempotencyService.fingerprint("body", "session"), idempotencyService.fingerprint("body", "session"));
+        Assertions.assertNotEquals(idempotencyService.fingerprint("body", "session"), idempotencyService.fingerprint("body", null));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,15 +1,21 @@
 package com.github.manueldepaduanisdev.tripplanner.services;
 
+import com.github.manueldepaduanisdev.tripplanner.config.ReplicaRouter;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardContext;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
 import com.github.manueldepaduanisdev.tripplanner.domain.GeoData;
+import com.github.manueldepaduanisdev.tripplanner.domain.GuestSession;
 import com.github.manueldepaduanisdev.tripplanner.domain.Itinerary;
 import com.github.manueldepaduanisdev.tripplanner.domain.ItineraryLocation;
+import com.github.manueldepaduanisdev.tripplanner.domain.RouteResult;
 import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
 import com.github.manueldepaduanisdev.tripplanner.dto.request.ItineraryRequestDTO;
 import com.github.manueldepaduanisdev.tripplanner.dto.response.ItineraryResponseDTO;
 import com.github.manueldepaduanisdev.tripplanner.mappers.ItineraryMapper;
-import com.github.manueldepaduanisdev.tripplanner.repositories.GeoDataRepository;
 import com.github.manueldepaduanisdev.tripplanner.repositories.ItineraryRepository;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -18,15 +24,19 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -36,15 +46,39 @@ public class ItineraryServiceTest {
     @Mock
     private ItineraryRepository itineraryRepository;
     @Mock
-    private GeoDataRepository geoDataRepository;
+    private GeoDataCacheService geoDataCacheService;
     @Mock
     private ItineraryTaskManagerService taskManagerService;
     @Mock
+    private SessionService sessionService;
+    @Mock
+    private OutboxService outboxService;
+    @Mock
+    private RouteResultCacheService routeResultCacheService;
+    @Mock
+    private ItineraryArchiveService itineraryArchiveService;
+    @Mock
+    private ReplicaRouter replicaRouter;
+    @Mock
+    private ShardRouter shardRouter;
+    @Mock
     private ItineraryMapper itineraryMapper;
 
     @InjectMocks
     private ItineraryService itineraryService;
 
+    // As in a @Transactional call: the shard of a new session is bound until the transaction completes
+    @BeforeEach
+    void setUp() {
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+        ShardContext.clear();
+    }
+
     // Helper for create common data
     private ItineraryRequestDTO createRequest() {
         return ItineraryRequestDTO.builder()
@@ -58,6 +92,9 @@ public class ItineraryServiceTest {
     void createItinerary_ShouldCreateNewWithGeneratedSessionId() {
         ItineraryRequestDTO request = createRequest();
 
+        when(sessionService.createSession())
+                .thenReturn(GuestSession.builder().id(UUID.randomUUID().toString()).build());
+
         // Return the arguemnt that i passed earlier
         when(itineraryRepository.save(any(Itinerary.class)))
                 .thenAnswer(invocation -> invocation.getArgument(0));
@@ -80,6 +117,57 @@ public class ItineraryServiceTest {
         Assertions.assertEquals(Status.QUEUED, savedItinerary.getStatus());
 
         Assertions.assertDoesNotThrow(() -> java.util.UUID.fromString(savedItinerary.getSessionId()));
+        verify(sessionService).registerItinerary(savedItinerary.getSessionId());
+        verify(outboxService).enqueue(savedItinerary.getId());
+    }
+
+    @Test
+    void createItinerary_NewSession_ShouldBindItsShardUntilTheTransactionEnds() {
+        ItineraryRequestDTO request = createRequest();
+
+        when(sessionService.createSession())
+                .thenReturn(GuestSession.builder().id(UUID.randomUUID().toString()).build());
+        when(shardRouter.shardOf(any())).thenReturn(2);
+        when(itineraryRepository.save(any(Itinerary.class)))
+                .thenAnswer(invocation -> {
+                    // First statement of the transaction: on the new session shard
+                    Assertions.assertEquals(2, ShardContext.get());
+                    return invocation.getArgument(0);
+                });
+        when(itineraryMapper.toDTO(any(Itinerary.class)))
+                .thenReturn(ItineraryResponseDTO.builder().build());
+
+        itineraryService.createItinerary(request, null);
+
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        Assertions.assertNull(ShardContext.get());
+    }
+
+    @Test
+    void createItinerary_ShouldCompleteFromRouteCacheWithoutQueueing() {
+        ItineraryRequestDTO request = createRequest();
+
+        when(sessionService.createSession())
+                .thenReturn(GuestSession.builder().id(UUID.randomUUID().toString()).build());
+
+        when(routeResultCacheService.find(RouteResultCacheService.key(List.of(), 0, 0L)))
+                .thenReturn(Optional.of(RouteResult.builder().distanceKm(42.0).build()));
+
+        when(itineraryRepository.save(any(Itinerary.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        when(itineraryMapper.toDTO(any(Itinerary.class)))
+                .thenReturn(ItineraryResponseDTO.builder().build());
+
+        itineraryService.createItinerary(request, null);
+
+        ArgumentCaptor<Itinerary> itineraryCaptor = ArgumentCaptor.forClass(Itinerary.class);
+        verify(itineraryRepository).save(itineraryCaptor.capture());
+
+        Assertions.assertEquals(Status.COMPLETED, itineraryCaptor.getValue().getStatus());
+        Assertions.assertEquals(42.0, itineraryCaptor.getValue().getRouteDistanceKm());
+        verify(outboxService, never()).enqueue(any());
     }
 
     @Test
@@ -87,8 +175,8 @@ public class ItineraryServiceTest {
         ItineraryRequestDTO request = createRequest();
         String sessionId = "random-session-id";
 
-        when(itineraryRepository.findFirstBySessionId(sessionId))
-                .thenReturn(Optional.empty());
+        when(sessionService.exists(sessionId))
+                .thenReturn(false);
 
         ResponseStatusException exception = Assertions.assertThrows(ResponseStatusException.class, () -> {
             itineraryService.createItinerary(request, sessionId);
@@ -97,6 +185,26 @@ public class ItineraryServiceTest {
         Assertions.assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
     }
 
+    @Test
+    void createItinerary_ShouldRefuseTheSameGeoDataTwice() {
+        ItineraryRequestDTO request = ItineraryRequestDTO.builder()
+                .title("Itinerary test")
+                .locations(List.of(
+                        ItineraryRequestDTO.LocationRequest.builder().geoId(1L).orderIndex(0).build(),
+                        ItineraryRequestDTO.LocationRequest.builder().geoId(1L).orderIndex(1).build()))
+                .build();
+
+        when(sessionService.exists("session-id")).thenReturn(true);
+        when(geoDataCacheService.findAllById(List.of(1L, 1L))).thenReturn(Map.of(1L, GeoData.builder().id(1L).build()));
+
+        ResponseStatusException exception = Assertions.assertThrows(ResponseStatusException.class, () -> {
+            itineraryService.createItinerary(request, "session-id");
+        });
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+        verify(itineraryRepository, never()).save(any(Itinerary.class));
+    }
+
     @Test
     void updateItinerary_ShouldUpdateFieldsAndCallTaskManager() {
         String sessionId = "session-id";
@@ -115,7 +223,7 @@ public class ItineraryServiceTest {
                 .locations(new ArrayList<>())
                 .build();
 
-        when(itineraryRepository.findByIdWithLocationsAndGeoData(sessionId, id))
+        when(itineraryRepository.findByIdWithLocations(sessionId, id))
                 .thenReturn(Optional.of(existingItinerary));
 
         when(taskManagerService.handleUpdateInQueue(any(Itinerary.class)))
@@ -123,7 +231,7 @@ public class ItineraryServiceTest {
 
         when(itineraryMapper.toDTO(any())).thenReturn(ItineraryResponseDTO.builder().build());
 
-        itineraryService.updateItinerary(sessionId, id, request);
+        itineraryService.updateItinerary(sessionId, id, request, null);
 
         ArgumentCaptor<Itinerary> captor = ArgumentCaptor.forClass(Itinerary.class);
         verify(taskManagerService).handleUpdateInQueue(captor.capture());
@@ -141,13 +249,39 @@ public class ItineraryServiceTest {
         String wrongSessionId = "Random-session-id";
         String wrongId = "Random-itinerary-id";
 
-        when(itineraryRepository.findByIdWithLocationsAndGeoData(wrongSessionId, wrongId))
+        when(itineraryRepository.findByIdWithLocations(wrongSessionId, wrongId))
                 .thenReturn(Optional.empty());
 
         ResponseStatusException exception = Assertions.assertThrows(ResponseStatusException.class, () -> {
-            itineraryService.updateItinerary(wrongSessionId, wrongId, request);
+            itineraryService.updateItinerary(wrongSessionId, wrongId, request, null);
         });
 
         Assertions.assertEquals(HttpStatus.NOT_FOUND, exception.getStatusCode());
     }
+
+    @Test
+    void updateItinerary_ShouldThrowPreconditionFailedIfExpectedVersionIsNotCurrent() {
+        String sessionId = "session-id";
+        String id = "itinerary-id";
+
+        Itinerary existingItinerary = Itinerary.builder()
+                .id(id)
+                .sessionId(sessionId)
+                .title("Old title")
+                .status(Status.PROCESSING)
+                .version(3)
+                .itineraryLocations(new ArrayList<>())
+                .build();
+
+        when(itineraryRepository.findByIdWithLocations(sessionId, id))
+                .thenReturn(Optional.of(existingItinerary));
+
+        ResponseStatusException exception = Assertions.assertThrows(ResponseStatusException.class, () -> {
+            itineraryService.updateItinerary(sessionId, id, createRequest(), 2L);
+        });
+
+        Assertions.assertEquals(HttpStatus.PRECONDITION_FAILED, exception.getStatusCode());
+        Assertions.assertEquals("Old title", existingItinerary.getTitle());
+        verify(taskManagerService, never()).handleUpdateInQueue(any());
+    }
 }
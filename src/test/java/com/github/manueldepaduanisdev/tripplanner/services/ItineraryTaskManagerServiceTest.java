@@ -1,22 +1,43 @@
 package com.github.manueldepaduanisdev.tripplanner.services;
 
+import com.github.manueldepaduanisdev.tripplanner.config.ShardContext;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
 import com.github.manueldepaduanisdev.tripplanner.domain.Itinerary;
 import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
 import com.github.manueldepaduanisdev.tripplanner.repositories.ItineraryRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.scheduling.TaskScheduler;
 
+import javax.sql.DataSource;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
+@Slf4j
 public class ItineraryTaskManagerServiceTest {
 
     @Mock
@@ -25,13 +46,17 @@ public class ItineraryTaskManagerServiceTest {
     @Mock
     private ItineraryRepository itineraryRepository;
 
+    // Single shard: queue aggregates run inline
+    private final ShardRouter shardRouter = new ShardRouter(List.of(mock(DataSource.class)), new SimpleMeterRegistry());
+
     private ItineraryTaskManagerService taskManagerService;
 
     private final Long THREAD_SLEEP_TIME = 2000L;
 
     @BeforeEach
     void setUp() {
-        taskManagerService = new ItineraryTaskManagerService(workerService, itineraryRepository, THREAD_SLEEP_TIME);
+        // No coalesce window: tasks start inline
+        taskManagerService = new ItineraryTaskManagerService(workerService, itineraryRepository, shardRouter, THREAD_SLEEP_TIME, 0L, false, 64, null);
     }
 
     @Test
@@ -48,7 +73,7 @@ public class ItineraryTaskManagerServiceTest {
     }
 
     @Test
-    void handleUpdateInQueue_ShouldCancelTaskIfTaskIsRunning() {
+    void handleUpdateInQueue_ShouldNotCancelRunningTask() {
         String itineraryId  = "itinerary-id";
 
         Itinerary itinerary = Itinerary.builder()
@@ -58,31 +83,181 @@ public class ItineraryTaskManagerServiceTest {
 
         CompletableFuture<Void> mockFuture = mock(CompletableFuture.class);
         when(workerService.processItinerary(itineraryId)).thenReturn(mockFuture);
-        when(mockFuture.isDone()).thenReturn(false);
         taskManagerService.submitTask(itineraryId);
         Itinerary result = taskManagerService.handleUpdateInQueue(itinerary);
 
-        verify(mockFuture).cancel(true);
+        // The running worker picks the new version up at its next checkpoint
+        verify(mockFuture, never()).cancel(anyBoolean());
         Assertions.assertEquals(Status.QUEUED, result.getStatus());
-        verify(itineraryRepository).save(itinerary);
+        verify(itineraryRepository).saveAndFlush(itinerary);
     }
 
     @Test
-    void handleUpdateInQueue_ShouldNotCancelIfTaskIsAlreadyDone() {
-        String itineraryId = "id-done";
-        Itinerary itinerary = Itinerary.builder().id(itineraryId).build();
+    void submitTask_ShouldMergeRequestsForRunningTaskAndRunOnceMoreAtTheEnd() {
+        String itineraryId = "itinerary-id";
+        CompletableFuture<Void> firstRun = new CompletableFuture<>();
+        CompletableFuture<Void> secondRun = new CompletableFuture<>();
+        when(workerService.processItinerary(itineraryId)).thenReturn(firstRun, secondRun);
 
-        CompletableFuture<Void> mockFuture = mock(CompletableFuture.class);
-        when(workerService.processItinerary(itineraryId)).thenReturn(mockFuture);
+        CompletableFuture<Void> task = taskManagerService.submitTask(itineraryId);
+        taskManagerService.submitTask(itineraryId);
+        taskManagerService.submitTask(itineraryId);
 
-        when(mockFuture.isDone()).thenReturn(true);
+        verify(workerService, times(1)).processItinerary(itineraryId);
+
+        firstRun.complete(null);
+
+        // Requests merged while running -> a single extra run
+        verify(workerService, times(2)).processItinerary(itineraryId);
+        Assertions.assertFalse(task.isDone());
+
+        secondRun.complete(null);
+
+        Assertions.assertTrue(task.isDone());
+        verify(workerService, times(2)).processItinerary(itineraryId);
+    }
 
+    @Test
+    void submitTask_ShouldMergeRequestsWithinCoalesceWindow() {
+        String itineraryId = "itinerary-id";
+        TaskScheduler taskScheduler = mock(TaskScheduler.class);
+        taskManagerService = new ItineraryTaskManagerService(workerService, itineraryRepository, shardRouter, THREAD_SLEEP_TIME, 500L, false, 64, taskScheduler);
+
+        taskManagerService.submitTask(itineraryId);
+        taskManagerService.submitTask(itineraryId);
         taskManagerService.submitTask(itineraryId);
 
-        taskManagerService.handleUpdateInQueue(itinerary);
+        ArgumentCaptor<Runnable> dispatch = ArgumentCaptor.forClass(Runnable.class);
+        verify(taskScheduler, times(1)).schedule(dispatch.capture(), any(Instant.class));
+        verify(workerService, never()).processItinerary(itineraryId);
 
-        verify(mockFuture, never()).cancel(anyBoolean());
-        verify(itineraryRepository).save(itinerary);
+        when(workerService.processItinerary(itineraryId)).thenReturn(new CompletableFuture<>());
+        dispatch.getValue().run();
+
+        verify(workerService, times(1)).processItinerary(itineraryId);
+    }
+
+    @Test
+    void submitTask_ShouldRunOneWorkerPerItineraryUnderConcurrentRequests() throws Exception {
+        int threads = 16;
+        int requestsPerThread = 1_000;
+
+        // Workers in flight per itinerary, and the max observed
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        AtomicInteger maxRunningPerItinerary = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        ExecutorService clients = Executors.newFixedThreadPool(threads);
+
+        when(workerService.processItinerary(anyString())).thenAnswer(invocation -> {
+            String id = invocation.getArgument(0);
+            AtomicInteger counter = running.computeIfAbsent(id, key -> new AtomicInteger());
+            maxRunningPerItinerary.accumulateAndGet(counter.incrementAndGet(), Math::max);
+
+            return CompletableFuture.runAsync(counter::decrementAndGet, workers);
+        });
+
+        try {
+            List<Future<List<CompletableFuture<Void>>>> submitted = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                submitted.add(clients.submit(() -> {
+                    List<CompletableFuture<Void>> tasks = new ArrayList<>();
+                    for (int i = 0; i < requestsPerThread; i++) {
+                        // Half on the same itinerary, half spread on many
+                        String id = i % 2 == 0 ? "hot-itinerary" : "itinerary-" + (i % 500);
+                        tasks.add(taskManagerService.submitTask(id));
+                    }
+                    return tasks;
+                }));
+            }
+
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (Future<List<CompletableFuture<Void>>> future : submitted) {
+                tasks.addAll(future.get(30, TimeUnit.SECONDS));
+            }
+
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+        } finally {
+            clients.shutdownNow();
+            workers.shutdownNow();
+        }
+
+        Assertions.assertEquals(1, maxRunningPerItinerary.get());
+        Assertions.assertEquals(0, taskManagerService.activeTaskCount());
+        Assertions.assertEquals(251, running.size());
+    }
+
+    // Benchmarks: thousands of concurrent requests, throughput logged
+    @Test
+    void submitTask_Benchmark_ConcurrentRequestsOnTheSameItinerary() throws Exception {
+        benchmark("same itinerary", request -> "hot-itinerary");
+    }
+
+    @Test
+    void submitTask_Benchmark_ConcurrentRequestsOnDifferentItineraries() throws Exception {
+        benchmark("different itineraries", request -> "itinerary-" + request);
+    }
+
+    private void benchmark(String scenario, IntFunction<String> itineraryOf) throws Exception {
+        int threads = 16;
+        int requestsPerThread = 5_000;
+
+        AtomicInteger workerRuns = new AtomicInteger();
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        AtomicInteger maxRunningPerItinerary = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        ExecutorService clients = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // Not a mock: Mockito records every invocation, it would be measured instead of the registry
+        ItineraryWorkerService worker = new ItineraryWorkerService(null, null, null, null, null) {
+            @Override
+            public CompletableFuture<Void> processItinerary(String itineraryId) {
+                workerRuns.incrementAndGet();
+                AtomicInteger counter = running.computeIfAbsent(itineraryId, key -> new AtomicInteger());
+                maxRunningPerItinerary.accumulateAndGet(counter.incrementAndGet(), Math::max);
+
+                return CompletableFuture.runAsync(counter::decrementAndGet, workers);
+            }
+        };
+        ItineraryTaskManagerService manager = new ItineraryTaskManagerService(worker, itineraryRepository, shardRouter,
+                THREAD_SLEEP_TIME, 0L, false, 64, null);
+
+        long elapsedNanos;
+        try {
+            List<Future<List<CompletableFuture<Void>>>> submitted = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int firstRequest = t * requestsPerThread;
+                submitted.add(clients.submit(() -> {
+                    start.await();
+                    List<CompletableFuture<Void>> tasks = new ArrayList<>(requestsPerThread);
+                    for (int i = 0; i < requestsPerThread; i++) {
+                        tasks.add(manager.submitTask(itineraryOf.apply(firstRequest + i)));
+                    }
+                    return tasks;
+                }));
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (Future<List<CompletableFuture<Void>>> future : submitted) {
+                tasks.addAll(future.get(60, TimeUnit.SECONDS));
+            }
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).get(60, TimeUnit.SECONDS);
+            elapsedNanos = System.nanoTime() - begin;
+        } finally {
+            clients.shutdownNow();
+            workers.shutdownNow();
+        }
+
+        Assertions.assertEquals(1, maxRunningPerItinerary.get());
+        Assertions.assertEquals(0, manager.activeTaskCount());
+
+        int requests = threads * requestsPerThread;
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        log.info("Task registry benchmark, {}: {} requests from {} threads in {} ms ({} requests/s), {} worker runs",
+                scenario, requests, threads, elapsedMs, requests * 1000L / elapsedMs, workerRuns.get());
     }
 
     @Test
@@ -92,14 +267,14 @@ public class ItineraryTaskManagerServiceTest {
         taskManagerService.handleUpdateInQueue(itinerary);
 
         Assertions.assertEquals(Status.QUEUED, itinerary.getStatus());
-        verify(itineraryRepository).save(itinerary);
+        verify(itineraryRepository).saveAndFlush(itinerary);
     }
 
 
     @Test
     void calculateTimeRemaining_ShouldReturnZeroIfIdIsInvalid() {
-        Assertions.assertEquals(0L, taskManagerService.calculateTimeRemaining(null, null));
-        Assertions.assertEquals(0L, taskManagerService.calculateTimeRemaining("", null));
+        Assertions.assertEquals(0L, taskManagerService.calculateTimeRemaining("session-id", null, null));
+        Assertions.assertEquals(0L, taskManagerService.calculateTimeRemaining("session-id", "", null));
     }
 
     @Test
@@ -109,13 +284,44 @@ public class ItineraryTaskManagerServiceTest {
 
         when(itineraryRepository.countLocations(id, providedDate)).thenReturn(5L);
 
-        long result = taskManagerService.calculateTimeRemaining(id, providedDate);
+        long result = taskManagerService.calculateTimeRemaining("session-id", id, providedDate);
 
         Assertions.assertEquals(10L, result);
         verify(itineraryRepository).countLocations(id, providedDate);
         verify(itineraryRepository, never()).findById(anyString());
     }
 
+    @Test
+    void calculateTimeRemaining_ParallelStops_ShouldCountRoundsOfMaxConcurrencyStops() {
+        taskManagerService = new ItineraryTaskManagerService(workerService, itineraryRepository, shardRouter, THREAD_SLEEP_TIME, 0L, true, 4, null);
+        String id = "calc-id";
+        LocalDateTime providedDate = LocalDateTime.now();
+
+        when(itineraryRepository.countLocations(id, providedDate)).thenReturn(3L, 9L);
+
+        // 3 stops at once, then 4 + 4 + 1
+        Assertions.assertEquals(2L, taskManagerService.calculateTimeRemaining("session-id", id, providedDate));
+        Assertions.assertEquals(6L, taskManagerService.calculateTimeRemaining("session-id", id, providedDate));
+    }
+
+    @Test
+    void calculateTimeRemaining_TwoShards_ShouldSumTheQueueOfEveryShard() {
+        ShardRouter twoShards = new ShardRouter(List.of(mock(DataSource.class), mock(DataSource.class)), new SimpleMeterRegistry());
+        taskManagerService = new ItineraryTaskManagerService(workerService, itineraryRepository, twoShards, THREAD_SLEEP_TIME, 0L, false, 64, null);
+        String id = "calc-id";
+        LocalDateTime providedDate = LocalDateTime.now();
+        Set<Integer> shards = ConcurrentHashMap.newKeySet();
+
+        when(itineraryRepository.countLocations(id, providedDate)).thenAnswer(invocation -> {
+            shards.add(ShardContext.get());
+            return 2L;
+        });
+
+        // One worker pool for both shards: 2 + 2 stops ahead
+        Assertions.assertEquals(8L, taskManagerService.calculateTimeRemaining("session-id", id, providedDate));
+        Assertions.assertEquals(Set.of(0, 1), shards);
+    }
+
     @Test
     void calculateTimeRemaining_ShouldFetchItineraryIfDateIsNull() {
         String id = "fetch-id";
@@ -130,7 +336,7 @@ public class ItineraryTaskManagerServiceTest {
 
         when(itineraryRepository.countLocations(id, dbDate)).thenReturn(3L);
 
-        long result = taskManagerService.calculateTimeRemaining(id, null);
+        long result = taskManagerService.calculateTimeRemaining("session-id", id, null);
 
         Assertions.assertEquals(6L, result);
         verify(itineraryRepository).findById(id);
@@ -142,7 +348,7 @@ public class ItineraryTaskManagerServiceTest {
         String id = "ghost-id";
         when(itineraryRepository.findById(id)).thenReturn(Optional.empty());
 
-        long result = taskManagerService.calculateTimeRemaining(id, null);
+        long result = taskManagerService.calculateTimeRemaining("session-id", id, null);
 
         Assertions.assertEquals(0L, result);
     }
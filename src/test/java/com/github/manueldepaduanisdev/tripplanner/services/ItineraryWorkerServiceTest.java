@@ -0,0 +1,62 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.dto.enums.Status;
+import com.github.manueldepaduanisdev.tripplanner.dto.projection.ItineraryWorkRow;
+import com.github.manueldepaduanisdev.tripplanner.repositories.ItineraryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ItineraryWorkerServiceTest {
+
+    @Mock
+    private ItineraryRepository itineraryRepository;
+    @Mock
+    private GeoDataCacheService geoDataCacheService;
+    @Mock
+    private StopFanOutService stopFanOutService;
+    @Mock
+    private RouteResultCacheService routeResultCacheService;
+    @Mock
+    private ProgressWriteBehindService progressWriteBehindService;
+
+    @InjectMocks
+    private ItineraryWorkerService itineraryWorkerService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(itineraryWorkerService, "threadSleepTime", 0L);
+    }
+
+    @Test
+    void processItinerary_GeoDataMissing_ShouldStillCompleteTheItinerary() {
+        // Geo dataset reloaded without the stop: no geo data for its id
+        when(itineraryRepository.findWorkRowsById("itinerary-id")).thenReturn(List.of(new ItineraryWorkRow(1L, 7L, true)));
+        when(itineraryRepository.transitionStatus(eq("itinerary-id"), eq(1L), eq(Status.QUEUED), eq(Status.PROCESSING), any(LocalDateTime.class)))
+                .thenReturn(1);
+        when(itineraryRepository.findCurrentVersion("itinerary-id")).thenReturn(Optional.of(1L));
+        when(itineraryRepository.completeWithRoute(eq("itinerary-id"), eq(1L), eq(Status.PROCESSING), eq(0.0), any(LocalDateTime.class)))
+                .thenReturn(1);
+
+        itineraryWorkerService.processItinerary("itinerary-id");
+
+        verify(itineraryRepository).completeWithRoute(eq("itinerary-id"), eq(1L), eq(Status.PROCESSING), eq(0.0), any(LocalDateTime.class));
+        verify(itineraryRepository, never()).transitionStatus(any(), anyLong(), eq(Status.PROCESSING), eq(Status.FAILED), any());
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
+import com.github.manueldepaduanisdev.tripplanner.domain.OutboxTask;
+import com.github.manueldepaduanisdev.tripplanner.repositories.ItineraryRepository;
+import com.github.manueldepaduanisdev.tripplanner.repositories.OutboxTaskRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Limit;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class OutboxServiceTest {
+
+    @Mock
+    private OutboxTaskRepository outboxTaskRepository;
+    @Mock
+    private ItineraryRepository itineraryRepository;
+    @Mock
+    private ItineraryTaskManagerService taskManagerService;
+
+    private OutboxService outboxService;
+
+    @BeforeEach
+    void setUp() {
+        outboxService = new OutboxService(outboxTaskRepository, itineraryRepository, taskManagerService,
+                new ShardRouter(List.of(mock(DataSource.class)), new SimpleMeterRegistry()), Runnable::run, 10);
+    }
+
+    @Test
+    void drain_ShouldDispatchTasksAndDeleteThemWhenTheyEnd() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        when(outboxTaskRepository.findByDispatchedAtIsNullOrderByIdAsc(any(Limit.class)))
+                .thenReturn(List.of(task(1L, "itinerary-1")));
+        when(taskManagerService.submitTask("itinerary-1")).thenReturn(future);
+
+        outboxService.drain();
+
+        verify(outboxTaskRepository).markDispatched(eq(1L), any(LocalDateTime.class));
+        verify(outboxTaskRepository, never()).deleteById(anyLong());
+
+        future.complete(null);
+
+        verify(outboxTaskRepository).deleteById(1L);
+    }
+
+    @Test
+    void drain_ShouldLeaveTasksInOutboxIfExecutorIsFull() {
+        when(outboxTaskRepository.findByDispatchedAtIsNullOrderByIdAsc(any(Limit.class)))
+                .thenReturn(List.of(task(1L, "itinerary-1"), task(2L, "itinerary-2")));
+        when(taskManagerService.submitTask("itinerary-1")).thenThrow(new TaskRejectedException("Queue full"));
+
+        outboxService.drain();
+
+        verify(taskManagerService, never()).submitTask("itinerary-2");
+        verify(outboxTaskRepository, never()).markDispatched(anyLong(), any());
+        verify(outboxTaskRepository, never()).deleteById(anyLong());
+    }
+
+    private static OutboxTask task(Long id, String itineraryId) {
+        return OutboxTask.builder()
+                .id(id)
+                .itineraryId(itineraryId)
+                .build();
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.dto.response.ItineraryResponseDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class ProgressWriteBehindServiceTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private ProgressWriteBehindService writeBehindService;
+
+    @BeforeEach
+    void setUp() {
+        writeBehindService = new ProgressWriteBehindService(jdbcTemplate, 8, 100);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldWriteLatestProgressPerItineraryInOneBatch() {
+        writeBehindService.record("a", 1, 1);
+        writeBehindService.record("b", 1, 1);
+        writeBehindService.record("a", 1, 2);
+        writeBehindService.record("a", 1, 3);
+
+        writeBehindService.flush();
+
+        ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(anyString(), batch.capture());
+
+        Assertions.assertEquals(2, batch.getValue().size());
+        Assertions.assertArrayEquals(new Object[]{3, "a", 1L, 3}, batch.getValue().get(0));
+        Assertions.assertArrayEquals(new Object[]{1, "b", 1L, 1}, batch.getValue().get(1));
+    }
+
+    @Test
+    void merge_ShouldApplyPendingProgressOfTheSameVersionOnly() {
+        writeBehindService.record("a", 2, 4);
+
+        ItineraryResponseDTO sameVersion = ItineraryResponseDTO.builder().id("a").version(2L).processedStops(1).build();
+        ItineraryResponseDTO newerVersion = ItineraryResponseDTO.builder().id("a").version(3L).processedStops(0).build();
+
+        writeBehindService.merge(sameVersion);
+        writeBehindService.merge(newerVersion);
+
+        Assertions.assertEquals(4, sameVersion.getProcessedStops());
+        Assertions.assertEquals(0, newerVersion.getProcessedStops());
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), ArgumentMatchers.<List<Object[]>>any());
+    }
+
+    @Test
+    void record_ShouldFlushWhenTheBufferIsFull() {
+        // 8 slots: the worker doesn't wait for the scheduled flush
+        for (int i = 1; i <= 20; i++) {
+            writeBehindService.record("itinerary-" + i, 1, 1);
+        }
+
+        verify(jdbcTemplate, atLeastOnce()).batchUpdate(anyString(), ArgumentMatchers.<List<Object[]>>any());
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
+import com.github.manueldepaduanisdev.tripplanner.domain.RouteResult;
+import com.github.manueldepaduanisdev.tripplanner.repositories.RouteResultRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class RouteResultCacheServiceTest {
+
+    @Mock
+    private RouteResultRepository routeResultRepository;
+    @Mock
+    private GeoDataCacheService geoDataCacheService;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private RouteResultCacheService routeResultCacheService;
+
+    @BeforeEach
+    void setUp() {
+        routeResultCacheService = new RouteResultCacheService(routeResultRepository, geoDataCacheService,
+                new ShardRouter(List.of(mock(DataSource.class)), new SimpleMeterRegistry()), meterRegistry, 2, false);
+    }
+
+    @Test
+    void key_ShouldDependOnStopOrderCurrentStopAndGeoDataset() {
+        String key = RouteResultCacheService.key(List.of(1L, 2L, 3L), 0, 7L);
+
+        Assertions.assertEquals(key, RouteResultCacheService.key(List.of(1L, 2L, 3L), 0, 7L));
+        Assertions.assertNotEquals(key, RouteResultCacheService.key(List.of(3L, 2L, 1L), 0, 7L));
+        Assertions.assertNotEquals(key, RouteResultCacheService.key(List.of(1L, 2L, 3L), 1, 7L));
+        // Coordinates changed by an import: same stops, new key
+        Assertions.assertNotEquals(key, RouteResultCacheService.key(List.of(1L, 2L, 3L), 0, 8L));
+    }
+
+    @Test
+    void find_ShouldHitRecentResultsAndEvictLeastRecentlyUsed() {
+        routeResultCacheService.put(route("a"));
+        routeResultCacheService.put(route("b"));
+        Assertions.assertTrue(routeResultCacheService.find("a").isPresent());
+
+        // Over max entries: "b" is the least recently used
+        routeResultCacheService.put(route("c"));
+
+        Assertions.assertFalse(routeResultCacheService.find("b").isPresent());
+        Assertions.assertTrue(routeResultCacheService.find("c").isPresent());
+
+        Assertions.assertEquals(2.0, meterRegistry.get("route.cache.requests").tag("result", "hit").counter().count());
+        Assertions.assertEquals(1.0, meterRegistry.get("route.cache.requests").tag("result", "miss").counter().count());
+        verifyNoInteractions(routeResultRepository);
+    }
+
+    @Test
+    void find_DuringWarmUp_ShouldCountOnWarmUpMeters() {
+        routeResultCacheService.put(route("a"));
+
+        routeResultCacheService.warmUpStarted();
+        routeResultCacheService.find("a");
+        routeResultCacheService.find("b");
+        routeResultCacheService.warmUpEnded();
+        routeResultCacheService.find("b");
+
+        Assertions.assertEquals(0.0, meterRegistry.get("route.cache.requests").tag("result", "hit").counter().count());
+        Assertions.assertEquals(1.0, meterRegistry.get("route.cache.requests").tag("result", "miss").counter().count());
+        Assertions.assertEquals(1.0, meterRegistry.get("route.cache.warm-up.requests").tag("result", "hit").counter().count());
+        Assertions.assertEquals(1.0, meterRegistry.get("route.cache.warm-up.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void peek_ShouldNotChangeMetrics() {
+        routeResultCacheService.put(route("a"));
+
+        Assertions.assertTrue(routeResultCacheService.peek("a").isPresent());
+        Assertions.assertFalse(routeResultCacheService.peek("b").isPresent());
+
+        Assertions.assertEquals(0.0, meterRegistry.get("route.cache.requests").tag("result", "hit").counter().count());
+        Assertions.assertEquals(0.0, meterRegistry.get("route.cache.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void purgeStale_ShouldDropResultsOfAnotherGeoDataset() {
+        routeResultCacheService.put(route("a"));
+        RouteResult current = route("b");
+        current.setGeoChecksum(8L);
+        routeResultCacheService.put(current);
+        when(geoDataCacheService.checksum()).thenReturn(8L);
+
+        routeResultCacheService.purgeStale();
+
+        Assertions.assertFalse(routeResultCacheService.peek("a").isPresent());
+        Assertions.assertTrue(routeResultCacheService.peek("b").isPresent());
+    }
+
+    private static RouteResult route(String routeKey) {
+        return RouteResult.builder()
+                .routeKey(routeKey)
+                .distanceKm(10.0)
+                .stopCount(2)
+                .geoChecksum(7L)
+                .build();
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.domain.GuestSession;
+import com.github.manueldepaduanisdev.tripplanner.repositories.GuestSessionRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SessionServiceTest {
+
+    @Mock
+    private GuestSessionRepository sessionRepository;
+
+    @InjectMocks
+    private SessionService sessionService;
+
+    // As in a @Transactional call
+    @BeforeEach
+    void setUp() {
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void createSession_Committed_ShouldBeKnownWithoutLookup() {
+        when(sessionRepository.save(any(GuestSession.class))).thenReturn(GuestSession.builder().id("session-id").build());
+
+        sessionService.createSession();
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        Assertions.assertTrue(sessionService.exists("session-id"));
+        verify(sessionRepository, never()).existsById(any());
+    }
+
+    @Test
+    void createSession_RolledBack_ShouldNotBeKnown() {
+        when(sessionRepository.save(any(GuestSession.class))).thenReturn(GuestSession.builder().id("session-id").build());
+        when(sessionRepository.existsById("session-id")).thenReturn(false);
+
+        sessionService.createSession();
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        Assertions.assertFalse(sessionService.exists("session-id"));
+    }
+}
@@ -0,0 +1,229 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardRouter;
+import com.github.manueldepaduanisdev.tripplanner.config.ShardSchemaInitializer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.api.Trigger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Rebalance between two in-memory H2 shards: session stored on shard 0, owned by shard 1
+ */
+public class ShardRebalanceServiceTest {
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE guest_session (id VARCHAR(36) PRIMARY KEY, created_at TIMESTAMP NOT NULL, itinerary_count INT DEFAULT 0 NOT NULL)",
+            "CREATE TABLE itinerary (id VARCHAR(36) PRIMARY KEY, session_id VARCHAR(36) NOT NULL, title VARCHAR(255), status VARCHAR(20) NOT NULL)",
+            "CREATE TABLE itinerary_location (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                    "itinerary_id VARCHAR(36) NOT NULL REFERENCES itinerary(id), geo_data_id BIGINT NOT NULL, order_index INT NOT NULL)",
+            "CREATE TABLE itinerary_archive (id VARCHAR(36) PRIMARY KEY, session_id VARCHAR(36) NOT NULL, status VARCHAR(20) NOT NULL)",
+            "CREATE TABLE idempotency_record (idempotency_key VARCHAR(255) PRIMARY KEY, itinerary_id VARCHAR(36) NOT NULL, " +
+                    "session_id VARCHAR(36) NOT NULL)",
+            "CREATE TABLE outbox_task (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, itinerary_id VARCHAR(36) NOT NULL)"
+    };
+
+    private JdbcTemplate shard0;
+    private JdbcTemplate shard1;
+    private ShardRouter shardRouter;
+
+    // Owned by shard 1, stored on shard 0
+    private String movedSession;
+    // Owned by shard 0: stays there
+    private String homeSession;
+
+    @BeforeEach
+    void setUp() {
+        DataSource dataSource0 = shard("shard0");
+        DataSource dataSource1 = shard("shard1");
+        shard0 = new JdbcTemplate(dataSource0);
+        shard1 = new JdbcTemplate(dataSource1);
+        shardRouter = new ShardRouter(List.of(dataSource0, dataSource1), new SimpleMeterRegistry());
+
+        movedSession = sessionOwnedBy(1);
+        homeSession = sessionOwnedBy(0);
+
+        // Locations of another session before: the moved locations have other ids on each shard
+        insertSession(shard0, homeSession, "home-itinerary", "COMPLETED");
+        insertSession(shard0, movedSession, "moved-itinerary", "COMPLETED");
+        shard0.update("INSERT INTO itinerary_archive (id, session_id, status) VALUES ('moved-archived', ?, 'COMPLETED')", movedSession);
+        shard0.update("INSERT INTO idempotency_record (idempotency_key, itinerary_id, session_id) VALUES ('key-1', 'moved-itinerary', ?)", movedSession);
+        shard0.update("INSERT INTO outbox_task (itinerary_id) VALUES ('moved-itinerary')");
+
+        insertSession(shard1, sessionOwnedBy(1), "other-itinerary", "COMPLETED");
+    }
+
+    private static DataSource shard(String name) {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + "-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        for (String ddl : SCHEMA) {
+            jdbcTemplate.execute(ddl);
+        }
+        return dataSource;
+    }
+
+    private String sessionOwnedBy(int shard) {
+        String sessionId;
+        do {
+            sessionId = UUID.randomUUID().toString();
+        } while (shardRouter.ownerOf(sessionId) != shard);
+        return sessionId;
+    }
+
+    private static void insertSession(JdbcTemplate shard, String sessionId, String itineraryId, String status) {
+        shard.update("INSERT INTO guest_session (id, created_at) VALUES (?, CURRENT_TIMESTAMP)", sessionId);
+        shard.update("INSERT INTO itinerary (id, session_id, title, status) VALUES (?, ?, 'Trip', ?)", itineraryId, sessionId, status);
+        shard.update("INSERT INTO itinerary_location (itinerary_id, geo_data_id, order_index) VALUES (?, 1, 0), (?, 2, 1)",
+                itineraryId, itineraryId);
+    }
+
+    private ShardRebalanceService rebalanceService() {
+        return new ShardRebalanceService(shardRouter, mock(ShardSchemaInitializer.class), new SimpleMeterRegistry(), 100);
+    }
+
+    private static long count(JdbcTemplate shard, String sql, Object... args) {
+        return shard.queryForObject(sql, Long.class, args);
+    }
+
+    @Test
+    void scan_ShouldRouteSessionsWhereTheirDataIs() {
+        rebalanceService();
+
+        Assertions.assertEquals(0, shardRouter.shardOf(movedSession));
+        Assertions.assertEquals(1, shardRouter.ownerOf(movedSession));
+        Assertions.assertEquals(1, shardRouter.getPlacements().size());
+    }
+
+    @Test
+    void rebalance_ShouldCopyVerifyAndDeleteTheSession() {
+        ShardRebalanceService.RebalanceResult result = rebalanceService().rebalance(10);
+
+        Assertions.assertEquals(new ShardRebalanceService.RebalanceResult(1, 0, 0, 0), result);
+        Assertions.assertEquals(1, shardRouter.shardOf(movedSession));
+        Assertions.assertTrue(shardRouter.getPlacements().isEmpty());
+
+        // Copied to the owner
+        Assertions.assertEquals(1, count(shard1, "SELECT COUNT(*) FROM guest_session WHERE id = ?", movedSession));
+        Assertions.assertEquals(1, count(shard1, "SELECT COUNT(*) FROM itinerary WHERE session_id = ?", movedSession));
+        Assertions.assertEquals(2, count(shard1, "SELECT COUNT(*) FROM itinerary_location WHERE itinerary_id = 'moved-itinerary'"));
+        Assertions.assertEquals(1, count(shard1, "SELECT COUNT(*) FROM itinerary_archive WHERE session_id = ?", movedSession));
+        Assertions.assertEquals(1, count(shard1, "SELECT COUNT(*) FROM idempotency_record WHERE session_id = ?", movedSession));
+
+        // Deleted from the old shard, outbox task included. The other session stays
+        for (String table : List.of("itinerary_location", "outbox_task")) {
+            Assertions.assertEquals(0, count(shard0, "SELECT COUNT(*) FROM " + table + " WHERE itinerary_id = 'moved-itinerary'"), table);
+        }
+        Assertions.assertEquals(0, count(shard0, "SELECT COUNT(*) FROM guest_session WHERE id = ?", movedSession));
+        Assertions.assertEquals(0, count(shard0, "SELECT COUNT(*) FROM itinerary_archive WHERE session_id = ?", movedSession));
+        Assertions.assertEquals(0, count(shard0, "SELECT COUNT(*) FROM idempotency_record WHERE session_id = ?", movedSession));
+        Assertions.assertEquals(1, count(shard0, "SELECT COUNT(*) FROM guest_session WHERE id = ?", homeSession));
+        Assertions.assertEquals(2, count(shard0, "SELECT COUNT(*) FROM itinerary_location WHERE itinerary_id = 'home-itinerary'"));
+    }
+
+    @Test
+    void rebalance_ShouldGenerateLocationIdsAgainInTheSameOrder() {
+        rebalanceService().rebalance(10);
+
+        // Ids 3, 4 on shard 0 -> 3, 4 after the 2 locations already on shard 1, same order
+        Assertions.assertEquals(List.of(3L, 4L),
+                shard1.queryForList("SELECT id FROM itinerary_location WHERE itinerary_id = 'moved-itinerary' ORDER BY id", Long.class));
+        Assertions.assertEquals(List.of(0, 1),
+                shard1.queryForList("SELECT order_index FROM itinerary_location WHERE itinerary_id = 'moved-itinerary' ORDER BY id", Integer.class));
+    }
+
+    @Test
+    void rebalance_CopyFailingHalfway_ShouldLeaveTheSessionOnItsShard() {
+        // Locations are copied last: session, itineraries, archive and idempotency records are already on the target
+        shard1.execute("DROP TABLE itinerary_location");
+
+        ShardRebalanceService.RebalanceResult result = rebalanceService().rebalance(10);
+
+        Assertions.assertEquals(new ShardRebalanceService.RebalanceResult(0, 1, 1, 0), result);
+        assertNotMoved();
+    }
+
+    @Test
+    void rebalance_VerificationFailed_ShouldLeaveTheSessionOnItsShard() {
+        // Archived rows lost on the target
+        shard1.execute("CREATE TRIGGER lose_archive AFTER INSERT ON itinerary_archive FOR EACH ROW CALL \""
+                + DeleteInsertedArchive.class.getName() + "\"");
+
+        ShardRebalanceService.RebalanceResult result = rebalanceService().rebalance(10);
+
+        Assertions.assertEquals(new ShardRebalanceService.RebalanceResult(0, 1, 1, 0), result);
+        assertNotMoved();
+    }
+
+    @Test
+    void rebalance_DeleteFailed_ShouldMoveAndDeleteTheCopyNextTime() {
+        shard0.execute("CREATE TRIGGER keep_session BEFORE DELETE ON guest_session FOR EACH ROW CALL \""
+                + FailingTrigger.class.getName() + "\"");
+        ShardRebalanceService rebalanceService = rebalanceService();
+
+        Assertions.assertEquals(new ShardRebalanceService.RebalanceResult(1, 0, 0, 0), rebalanceService.rebalance(10));
+        Assertions.assertEquals(1, shardRouter.shardOf(movedSession));
+        // Delete rolled back as a whole
+        Assertions.assertEquals(2, count(shard0, "SELECT COUNT(*) FROM itinerary_location WHERE itinerary_id = 'moved-itinerary'"));
+
+        shard0.execute("DROP TRIGGER keep_session");
+
+        Assertions.assertEquals(new ShardRebalanceService.RebalanceResult(0, 0, 0, 1), rebalanceService.rebalance(10));
+        Assertions.assertEquals(0, count(shard0, "SELECT COUNT(*) FROM itinerary WHERE session_id = ?", movedSession));
+        Assertions.assertEquals(1, count(shard1, "SELECT COUNT(*) FROM itinerary WHERE session_id = ?", movedSession));
+    }
+
+    @Test
+    void rebalance_ItineraryInProgress_ShouldSkipTheSession() {
+        shard0.update("UPDATE itinerary SET status = 'PROCESSING' WHERE id = 'moved-itinerary'");
+
+        ShardRebalanceService.RebalanceResult result = rebalanceService().rebalance(10);
+
+        Assertions.assertEquals(new ShardRebalanceService.RebalanceResult(0, 1, 1, 0), result);
+        assertNotMoved();
+    }
+
+    private void assertNotMoved() {
+        Assertions.assertEquals(0, shardRouter.shardOf(movedSession));
+        // Fence released
+        Assertions.assertTrue(shardRouter.enter(movedSession));
+
+        Assertions.assertEquals(0, count(shard1, "SELECT COUNT(*) FROM guest_session WHERE id = ?", movedSession));
+        Assertions.assertEquals(0, count(shard1, "SELECT COUNT(*) FROM itinerary WHERE session_id = ?", movedSession));
+        Assertions.assertEquals(0, count(shard1, "SELECT COUNT(*) FROM itinerary_archive WHERE session_id = ?", movedSession));
+
+        Assertions.assertEquals(1, count(shard0, "SELECT COUNT(*) FROM guest_session WHERE id = ?", movedSession));
+        Assertions.assertEquals(2, count(shard0, "SELECT COUNT(*) FROM itinerary_location WHERE itinerary_id = 'moved-itinerary'"));
+        Assertions.assertEquals(1, count(shard0, "SELECT COUNT(*) FROM itinerary_archive WHERE session_id = ?", movedSession));
+    }
+
+    // H2 triggers (instantiated by H2 by class name)
+
+    public static class DeleteInsertedArchive implements Trigger {
+        @Override
+        public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM itinerary_archive WHERE id = ?")) {
+                delete.setObject(1, newRow[0]);
+                delete.executeUpdate();
+            }
+        }
+    }
+
+    public static class FailingTrigger implements Trigger {
+        @Override
+        public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException {
+            throw new SQLException("Delete refused.");
+        }
+    }
+}
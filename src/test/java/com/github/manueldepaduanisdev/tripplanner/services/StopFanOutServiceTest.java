@@ -0,0 +1,90 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+public class StopFanOutServiceTest {
+
+    private final StopFanOutService stopFanOutService = new StopFanOutService(4);
+
+    @AfterEach
+    void tearDown() {
+        stopFanOutService.shutdown();
+    }
+
+    @Test
+    void map_ShouldRunStopsInParallelAndKeepTheirOrder() throws Exception {
+        List<Integer> stops = IntStream.range(0, 8).boxed().toList();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        long start = System.nanoTime();
+        List<Integer> results = stopFanOutService.map(stops, stop -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(200);
+            running.decrementAndGet();
+            return stop * 10;
+        }, () -> true, 1_000);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assertions.assertEquals(stops.stream().map(stop -> stop * 10).toList(), results);
+        // Bounded to 4 at a time: 8 stops take ~2 rounds instead of 8
+        Assertions.assertEquals(4, maxRunning.get());
+        Assertions.assertTrue(elapsedMs < 8 * 200, "Elapsed: " + elapsedMs + " ms");
+    }
+
+    @Test
+    void map_ShouldCancelEveryStopWhenCheckpointFails() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch interrupted = new CountDownLatch(2);
+
+        // Checkpoint fails once both stops are running: a stop cancelled before it starts is never interrupted
+        List<Integer> results = stopFanOutService.map(List.of(1, 2), stop -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException ex) {
+                interrupted.countDown();
+                throw ex;
+            }
+            return stop;
+        }, () -> started.getCount() > 0, 50);
+
+        Assertions.assertNull(results);
+        Assertions.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void map_ShouldCancelOtherStopsWhenOneFails() {
+        CountDownLatch siblingStarted = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        ExecutionException exception = Assertions.assertThrows(ExecutionException.class, () ->
+                stopFanOutService.map(List.of(1, 2), stop -> {
+                    if (stop == 1) {
+                        // Fails once the other stop is running, so the cancel interrupts it
+                        siblingStarted.await();
+                        throw new IllegalStateException("Stop failed");
+                    }
+                    siblingStarted.countDown();
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException ex) {
+                        interrupted.countDown();
+                        throw ex;
+                    }
+                    return stop;
+                }, () -> true, 1_000));
+
+        Assertions.assertInstanceOf(IllegalStateException.class, exception.getCause());
+        Assertions.assertDoesNotThrow(() -> Assertions.assertTrue(interrupted.await(5, TimeUnit.SECONDS)));
+    }
+}
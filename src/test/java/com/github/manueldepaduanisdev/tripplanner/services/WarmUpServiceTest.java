@@ -0,0 +1,109 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.ShardContext;
+import com.github.manueldepaduanisdev.tripplanner.dto.request.ItineraryRequestDTO;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.GeoDataResponseDTO;
+import com.github.manueldepaduanisdev.tripplanner.dto.response.ItineraryResponseDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class WarmUpServiceTest {
+
+    @Mock
+    private GeoService geoService;
+    @Mock
+    private GeoDataCacheService geoDataCacheService;
+    @Mock
+    private ItineraryService itineraryService;
+    @Mock
+    private RouteResultCacheService routeResultCacheService;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private WarmUpService warmUpService(boolean enabled) {
+        return new WarmUpService(geoService, geoDataCacheService, itineraryService, routeResultCacheService, transactionManager, eventPublisher,
+                new SimpleMeterRegistry(), enabled, 3, Duration.ofSeconds(30));
+    }
+
+    @Test
+    void onApplicationReady_ShouldReplayWorkloadInRolledBackTransactionsThenAcceptTraffic() {
+        TransactionStatus status = mock(TransactionStatus.class);
+        when(transactionManager.getTransaction(any())).thenReturn(status);
+        when(geoDataCacheService.sample(2)).thenReturn(List.of(
+                GeoDataResponseDTO.builder().id(1L).country("Italy").region("Lazio").province("Rome").city("Rome").build(),
+                GeoDataResponseDTO.builder().id(2L).country("Italy").region("Lazio").province("Rome").city("Tivoli").build()));
+        when(itineraryService.createItinerary(any(ItineraryRequestDTO.class), isNull()))
+                .thenAnswer(invocation -> {
+                    // Shard of the new session bound by the service
+                    ShardContext.set(1);
+                    return ItineraryResponseDTO.builder().id("itinerary-1").sessionId("session-1").build();
+                });
+
+        warmUpService(true).onApplicationReady();
+
+        verify(itineraryService, times(3)).updateItinerary(eq("session-1"), eq("itinerary-1"), any(ItineraryRequestDTO.class), isNull());
+        verify(itineraryService, times(3)).getList("session-1", null);
+        verify(geoService, times(3)).searchGeoDataJson("Italy", "Lazio", "Rome", "Rome");
+        verify(transactionManager, times(3)).rollback(status);
+        verify(transactionManager, never()).commit(any());
+        Assertions.assertNull(ShardContext.get());
+        // Route cache lookups of the replay on the warm-up meters
+        InOrder lookups = inOrder(routeResultCacheService, itineraryService);
+        lookups.verify(routeResultCacheService).warmUpStarted();
+        lookups.verify(itineraryService, atLeastOnce()).createItinerary(any(ItineraryRequestDTO.class), isNull());
+        lookups.verify(routeResultCacheService).warmUpEnded();
+
+        // Readiness: refused during the warm-up, accepted after
+        ArgumentCaptor<AvailabilityChangeEvent<?>> events = ArgumentCaptor.captor();
+        InOrder inOrder = inOrder(eventPublisher, itineraryService);
+        inOrder.verify(eventPublisher).publishEvent(events.capture());
+        inOrder.verify(itineraryService, atLeastOnce()).getById("session-1", "itinerary-1");
+        inOrder.verify(eventPublisher).publishEvent(events.capture());
+        Assertions.assertEquals(List.of(ReadinessState.REFUSING_TRAFFIC, ReadinessState.ACCEPTING_TRAFFIC),
+                events.getAllValues().stream().map(AvailabilityChangeEvent::getState).toList());
+    }
+
+    @Test
+    void onApplicationReady_FailedIteration_ShouldStillAcceptTraffic() {
+        TransactionStatus status = mock(TransactionStatus.class);
+        when(transactionManager.getTransaction(any())).thenReturn(status);
+        when(geoDataCacheService.sample(2)).thenReturn(List.of(GeoDataResponseDTO.builder().id(1L).country("Italy").build()));
+        when(itineraryService.createItinerary(any(ItineraryRequestDTO.class), isNull())).thenThrow(new IllegalStateException("DB down"));
+
+        warmUpService(true).onApplicationReady();
+
+        verify(transactionManager).rollback(status);
+        ArgumentCaptor<AvailabilityChangeEvent<?>> events = ArgumentCaptor.captor();
+        verify(eventPublisher, times(2)).publishEvent(events.capture());
+        Assertions.assertEquals(ReadinessState.ACCEPTING_TRAFFIC, events.getAllValues().getLast().getState());
+    }
+
+    @Test
+    void onApplicationReady_Disabled_ShouldLeaveReadinessToSpringBoot() {
+        warmUpService(false).onApplicationReady();
+
+        verifyNoInteractions(geoDataCacheService, itineraryService, routeResultCacheService, transactionManager, eventPublisher);
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.manueldepaduanisdev.tripplanner.services;
+
+import com.github.manueldepaduanisdev.tripplanner.config.AdaptiveThreadPoolTaskExecutor;
+import com.github.manueldepaduanisdev.tripplanner.config.QueueWaitTaskDecorator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.CountDownLatch;
+
+public class WorkerPoolTuningServiceTest {
+
+    private AdaptiveThreadPoolTaskExecutor executor;
+    private QueueWaitTaskDecorator queueWaitDecorator;
+    private WorkerPoolTuningService tuningService;
+
+    @BeforeEach
+    void setUp() {
+        executor = new AdaptiveThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.setMaxPoolSize(4);
+        executor.setQueueCapacity(100);
+        executor.setQueueLimit(80);
+        queueWaitDecorator = new QueueWaitTaskDecorator();
+        executor.setTaskDecorator(queueWaitDecorator);
+        executor.initialize();
+
+        tuningService = new WorkerPoolTuningService(executor, queueWaitDecorator, new SimpleMeterRegistry(),
+                2, 8, 20, 100, 500);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void nextSize_ShouldIncreaseAdditivelyAndDecreaseMultiplicatively() {
+        // Queue wait over target with busy workers -> +1
+        Assertions.assertEquals(5, tuningService.nextSize(4, 1000, 1.0, false));
+        // DB saturated -> x3/4, whatever the queue
+        Assertions.assertEquals(6, tuningService.nextSize(8, 1000, 1.0, true));
+        // Idle, queue wait under a tenth of the target -> -1
+        Assertions.assertEquals(3, tuningService.nextSize(4, 0, 0.25, false));
+        Assertions.assertEquals(3, tuningService.nextSize(4, 30, 0.25, false));
+        // Idle but tasks still wait -> unchanged
+        Assertions.assertEquals(4, tuningService.nextSize(4, 100, 0.25, false));
+        // Within bounds
+        Assertions.assertEquals(8, tuningService.nextSize(8, 1000, 1.0, false));
+        Assertions.assertEquals(2, tuningService.nextSize(2, 0, 0, true));
+    }
+
+    @Test
+    void tune_SaturatedPool_ShouldGrowOnTheWaitOfTheQueuedTasks() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        // Target queue wait: 20 ms
+        tuningService = new WorkerPoolTuningService(executor, queueWaitDecorator, new SimpleMeterRegistry(),
+                2, 8, 20, 100, 20);
+
+        // Every worker busy, no task started after them: only the queued ones tell the wait
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        for (int i = 0; i < 3; i++) {
+            executor.execute(() -> { });
+        }
+        Thread.sleep(100);
+
+        try {
+            tuningService.tune();
+
+            Assertions.assertEquals(5, executor.getMaxPoolSize());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void tune_IdlePool_ShouldShrinkItAndItsQueueLimit() throws Exception {
+        // Target queue wait: 10 s (shrinks under 1 s)
+        tuningService = new WorkerPoolTuningService(executor, queueWaitDecorator, new SimpleMeterRegistry(),
+                2, 8, 20, 100, 10_000);
+
+        // A few short tasks: some handoff wait measured (thread start included), far under the target
+        for (int i = 0; i < 3; i++) {
+            executor.submit(() -> { }).get();
+        }
+
+        tuningService.tune();
+
+        Assertions.assertEquals(3, executor.getMaxPoolSize());
+        Assertions.assertEquals(3, executor.getCorePoolSize());
+        Assertions.assertEquals(60, executor.getQueueLimit());
+    }
+
+    @Test
+    void queueLimit_ShouldRejectTasksOverTheCurrentLimit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        executor.setQueueLimit(1);
+
+        // Every worker busy
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        executor.execute(() -> { });
+        Assertions.assertThrows(TaskRejectedException.class, () -> executor.execute(() -> { }));
+
+        release.countDown();
+    }
+}